@@ -22,8 +22,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -38,6 +43,74 @@ import com.revolsys.record.io.format.json.JsonObject;
 import com.revolsys.util.Property;
 
 public class CpfConfig implements PropertyChangeSupportProxy {
+  private static final List<String> WEIGHTS_PROPERTY_NAMES = Arrays
+    .asList("businessApplicationWeights", "userWeights");
+
+  /**
+   * Format the weights as the text form <code>name=weight,...</code> sorted by name.
+   *
+   * @param weights The weights.
+   * @return The weights text.
+   */
+  public static String formatWeights(final Map<String, Integer> weights) {
+    final StringBuilder text = new StringBuilder();
+    for (final Entry<String, Integer> entry : new TreeMap<>(weights).entrySet()) {
+      if (text.length() > 0) {
+        text.append(',');
+      }
+      text.append(entry.getKey());
+      text.append('=');
+      text.append(entry.getValue());
+    }
+    return text.toString();
+  }
+
+  public static boolean isWeightsProperty(final String propertyName) {
+    return WEIGHTS_PROPERTY_NAMES.contains(propertyName);
+  }
+
+  /**
+   * Parse the weights from the text form <code>name=weight,...</code> as stored in the
+   * config properties table.
+   *
+   * @param text The weights text.
+   * @return The weights.
+   * @throws IllegalArgumentException If an entry isn't name=weight or the weight isn't >= 1.
+   */
+  public static Map<String, Integer> parseWeights(final String text) {
+    final Map<String, Integer> weights = new HashMap<>();
+    if (text != null) {
+      for (final String entry : text.split(",")) {
+        final String trimmedEntry = entry.trim();
+        if (trimmedEntry.length() > 0) {
+          final int equalsIndex = trimmedEntry.indexOf('=');
+          if (equalsIndex < 1) {
+            throw new IllegalArgumentException(
+              "Weight must be in the form name=weight not " + trimmedEntry);
+          }
+          final String name = trimmedEntry.substring(0, equalsIndex).trim();
+          final String weightText = trimmedEntry.substring(equalsIndex + 1).trim();
+          weights.put(name, toWeight(name, weightText));
+        }
+      }
+    }
+    return Collections.unmodifiableMap(weights);
+  }
+
+  private static int toWeight(final String name, final String weightText) {
+    final int weight;
+    try {
+      weight = Integer.parseInt(weightText);
+    } catch (final NumberFormatException e) {
+      throw new IllegalArgumentException(
+        "Weight for " + name + " must be an integer not " + weightText);
+    }
+    if (weight < 1) {
+      throw new IllegalArgumentException("Weight for " + name + " must be >= 1 not " + weight);
+    }
+    return weight;
+  }
+
   private String baseUrl = "http://localhost/pub/cpf";
 
   private String secureBaseUrl = "https://localhost/pub/cpf/secure";
@@ -54,18 +127,39 @@ public class CpfConfig implements PropertyChangeSupportProxy {
 
   private int preProcessPoolSize = 10;
 
+  private int preProcessGroupPoolSize = 4;
+
   private int postProcessPoolSize = 10;
 
   private int schedulerPoolSize = 10;
 
   private int groupResultPoolSize = 10;
 
+  private Map<String, Integer> businessApplicationWeights = Collections.emptyMap();
+
+  private Map<String, Integer> userWeights = Collections.emptyMap();
+
   private final PropertyChangeSupport propertyChangeSupport = new PropertyChangeSupport(this);
 
   public String getBaseUrl() {
     return this.baseUrl;
   }
 
+  /**
+   * Get the scheduling weight for the business application. A business application with a weight
+   * of 2 has twice as many groups scheduled per round as one with a weight of 1.
+   *
+   * @param businessApplicationName The business application name.
+   * @return The weight, defaults to 1.
+   */
+  public int getBusinessApplicationWeight(final String businessApplicationName) {
+    return this.businessApplicationWeights.getOrDefault(businessApplicationName, 1);
+  }
+
+  public Map<String, Integer> getBusinessApplicationWeights() {
+    return this.businessApplicationWeights;
+  }
+
   public int getDatabaseConnectionPoolSize() {
     return this.dataSource.getMaxTotal();
   }
@@ -95,6 +189,10 @@ public class CpfConfig implements PropertyChangeSupportProxy {
     return this.postProcessPoolSize;
   }
 
+  public int getPreProcessGroupPoolSize() {
+    return this.preProcessGroupPoolSize;
+  }
+
   public int getPreProcessPoolSize() {
     return this.preProcessPoolSize;
   }
@@ -112,6 +210,21 @@ public class CpfConfig implements PropertyChangeSupportProxy {
     return this.secureBaseUrl;
   }
 
+  /**
+   * Get the scheduling weight for the user (consumer key). A user with a weight of 2 has twice as
+   * many groups scheduled per round as one with a weight of 1 in the same business application.
+   *
+   * @param userId The user id.
+   * @return The weight, defaults to 1.
+   */
+  public int getUserWeight(final String userId) {
+    return this.userWeights.getOrDefault(userId, 1);
+  }
+
+  public Map<String, Integer> getUserWeights() {
+    return this.userWeights;
+  }
+
   @PostConstruct
   public void init() {
     initJson();
@@ -124,7 +237,16 @@ public class CpfConfig implements PropertyChangeSupportProxy {
       while (resultSet.next()) {
         final String propertyName = resultSet.getString(1);
         final String propertyValue = resultSet.getString(2);
-        Property.setSimple(this, propertyName, propertyValue);
+        try {
+          if (isWeightsProperty(propertyName)) {
+            Property.setSimple(this, propertyName, parseWeights(propertyValue));
+          } else {
+            Property.setSimple(this, propertyName, propertyValue);
+          }
+        } catch (final Exception e) {
+          Logs.error(this,
+            "Ignored: " + propertyName + "=" + propertyValue + " as value is invalid", e);
+        }
       }
     } catch (final Throwable e) {
       Logs.error(this, "Unable to load configuration", e);
@@ -185,6 +307,14 @@ public class CpfConfig implements PropertyChangeSupportProxy {
     this.baseUrl = baseUrl;
   }
 
+  public void setBusinessApplicationWeights(
+    final Map<String, ? extends Object> businessApplicationWeights) {
+    final Map<String, Integer> oldValue = this.businessApplicationWeights;
+    this.businessApplicationWeights = toWeights(businessApplicationWeights);
+    this.propertyChangeSupport.firePropertyChange("businessApplicationWeights", oldValue,
+      this.businessApplicationWeights);
+  }
+
   public void setDatabaseConnectionPoolSize(final int poolSize) {
     this.dataSource.setMaxTotal(poolSize);
   }
@@ -224,6 +354,17 @@ public class CpfConfig implements PropertyChangeSupportProxy {
       postProcessPoolSize);
   }
 
+  public void setPreProcessGroupPoolSize(final int preProcessGroupPoolSize) {
+    if (preProcessGroupPoolSize < 1) {
+      throw new IllegalArgumentException(
+        "preProcessGroupPoolSize must be > 1 not " + preProcessGroupPoolSize);
+    }
+    final int oldValue = this.preProcessGroupPoolSize;
+    this.preProcessGroupPoolSize = preProcessGroupPoolSize;
+    this.propertyChangeSupport.firePropertyChange("preProcessGroupPoolSize", oldValue,
+      preProcessGroupPoolSize);
+  }
+
   public void setPreProcessPoolSize(final int preProcessPoolSize) {
     if (preProcessPoolSize < 1) {
       throw new IllegalArgumentException(
@@ -248,4 +389,22 @@ public class CpfConfig implements PropertyChangeSupportProxy {
     this.secureBaseUrl = secureBaseUrl;
   }
 
+  public void setUserWeights(final Map<String, ? extends Object> userWeights) {
+    final Map<String, Integer> oldValue = this.userWeights;
+    this.userWeights = toWeights(userWeights);
+    this.propertyChangeSupport.firePropertyChange("userWeights", oldValue, this.userWeights);
+  }
+
+  private Map<String, Integer> toWeights(final Map<String, ? extends Object> values) {
+    final Map<String, Integer> weights = new HashMap<>();
+    if (values != null) {
+      for (final Entry<String, ? extends Object> entry : values.entrySet()) {
+        final String name = entry.getKey();
+        final Object value = entry.getValue();
+        weights.put(name, toWeight(name, String.valueOf(value).trim()));
+      }
+    }
+    return Collections.unmodifiableMap(weights);
+  }
+
 }
@@ -34,6 +34,7 @@ import com.revolsys.collection.range.RangeSet;
 import com.revolsys.record.DelegatingRecord;
 import com.revolsys.record.Record;
 import com.revolsys.record.RecordState;
+import com.revolsys.record.io.RecordWriter;
 import com.revolsys.record.io.format.json.Json;
 import com.revolsys.record.schema.RecordStore;
 import com.revolsys.transaction.Propagation;
@@ -84,6 +85,10 @@ public class BatchJob extends DelegatingRecord implements Common {
 
   private final RangeSet completedRequests;
 
+  private final RangeSet createdGroups = new RangeSet();
+
+  private boolean creatingGroups = false;
+
   private final RangeSet failedRequests;
 
   private final Set<BatchJobRequestExecutionGroup> groups = new LinkedHashSet<>();
@@ -122,6 +127,19 @@ public class BatchJob extends DelegatingRecord implements Common {
     return rangeSet;
   }
 
+  /**
+   * Add a group that pre-process has written so it can be scheduled before the rest of the job's
+   * groups have been created.
+   *
+   * @param groupSequenceNumber The group sequence number.
+   */
+  public synchronized void addCreatedGroup(final int groupSequenceNumber) {
+    if (this.creatingGroups && !isCancelled()) {
+      this.createdGroups.add(groupSequenceNumber);
+      this.groupsToProcess.add(groupSequenceNumber);
+    }
+  }
+
   public synchronized RangeSet addFailedRequests(final String range) {
     final RangeSet rangeSet = RangeSet.newRangeSet(range);
     if (!isCancelled()) {
@@ -130,6 +148,39 @@ public class BatchJob extends DelegatingRecord implements Common {
     return rangeSet;
   }
 
+  /**
+   * Cancel the groups created by a pre-process that didn't complete. Any groups that have been
+   * scheduled are removed from the scheduler.
+   *
+   * @param scheduler The scheduler.
+   * @return True if groups had been created.
+   */
+  public synchronized boolean cancelCreatedGroups(final BatchJobScheduler scheduler) {
+    final boolean hasCreatedGroups = this.createdGroups.size() > 0;
+    this.creatingGroups = false;
+    this.createdGroups.clear();
+    cancelGroups(scheduler);
+    this.completedGroups.clear();
+    return hasCreatedGroups;
+  }
+
+  private void cancelGroups(final BatchJobScheduler scheduler) {
+    synchronized (this.groups) {
+      for (final BatchJobRequestExecutionGroup group : this.groups) {
+        scheduler.removeScheduledGroup(group);
+        group.cancelInternal();
+      }
+      this.groups.clear();
+    }
+    for (final BatchJobRequestExecutionGroup group : this.resheduledGroups) {
+      scheduler.removeScheduledGroup(group);
+      group.cancelInternal();
+    }
+    this.resheduledGroups.clear();
+    this.groupsToProcess.clear();
+    this.scheduledGroups.clear();
+  }
+
   public synchronized boolean cancelJob(final BatchJobService batchJobService,
     final BatchJobScheduler scheduler) {
     if (isCancelled()) {
@@ -142,18 +193,8 @@ public class BatchJob extends DelegatingRecord implements Common {
         setStatus(batchJobService, BatchJobStatus.CANCELLED);
       }
 
-      synchronized (this.groups) {
-        for (final BatchJobRequestExecutionGroup group : this.groups) {
-          scheduler.removeScheduledGroup(group);
-          group.cancelInternal();
-        }
-        this.groups.clear();
-      }
-      for (final BatchJobRequestExecutionGroup group : this.resheduledGroups) {
-        scheduler.removeScheduledGroup(group);
-        group.cancelInternal();
-      }
-      this.resheduledGroups.clear();
+      this.creatingGroups = false;
+      cancelGroups(scheduler);
       final int numSubmittedRequests = getInteger(NUM_SUBMITTED_REQUESTS, 0);
       if (numSubmittedRequests == 0) {
         this.failedRequests.clear();
@@ -163,8 +204,6 @@ public class BatchJob extends DelegatingRecord implements Common {
         cancelledRequests.remove(this.completedRequests);
         this.failedRequests.addRanges(cancelledRequests);
       }
-      this.groupsToProcess.clear();
-      this.scheduledGroups.clear();
       try (
         Transaction transaction = batchJobService.newTransaction()) {
         update();
@@ -280,7 +319,7 @@ public class BatchJob extends DelegatingRecord implements Common {
 
   public synchronized boolean isCompleted() {
     final int numSubmittedGroups = getNumSubmittedGroups();
-    if (numSubmittedGroups < 1) {
+    if (this.creatingGroups || numSubmittedGroups < 1) {
       return false;
     } else {
       return this.completedGroups.equalsRange(1, numSubmittedGroups);
@@ -291,6 +330,16 @@ public class BatchJob extends DelegatingRecord implements Common {
     return this.completedGroups.contains(sequenceNumber);
   }
 
+  /**
+   * Check if pre-process is still creating the groups for the job. The groups that have been
+   * created can be scheduled while the rest of the groups are created.
+   *
+   * @return True if the groups are being created.
+   */
+  public boolean isCreatingGroups() {
+    return this.creatingGroups;
+  }
+
   public boolean isProcessing() {
     final String status = getStatus();
     return status.equals(BatchJobStatus.PROCESSING);
@@ -321,6 +370,30 @@ public class BatchJob extends DelegatingRecord implements Common {
     }
   }
 
+  /**
+   * Set the number of groups once pre-process has created all the groups for the job. Any
+   * groups that weren't added as they were created are added to the groups to process.
+   *
+   * @param groupCount The number of groups in the job.
+   */
+  public synchronized void setGroupsCreated(final int groupCount) {
+    setValue(NUM_SUBMITTED_GROUPS, groupCount);
+    this.creatingGroups = false;
+    if (groupCount > 0 && !isCancelled()) {
+      final RangeSet newGroups = new RangeSet();
+      newGroups.addRange(1, groupCount);
+      newGroups.remove(this.createdGroups);
+      this.groupsToProcess.addRanges(newGroups);
+    }
+    this.createdGroups.clear();
+  }
+
+  private void setRangeValues() {
+    setValue(COMPLETED_GROUP_RANGE, this.completedGroups.toString());
+    setValue(FAILED_REQUEST_RANGE, this.failedRequests.toString());
+    setValue(COMPLETED_REQUEST_RANGE, this.completedRequests.toString());
+  }
+
   public synchronized void setStatus(final BatchJobService batchJobService,
     final String jobStatus) {
     final long time = System.currentTimeMillis();
@@ -345,6 +418,7 @@ public class BatchJob extends DelegatingRecord implements Common {
     batchJobStatusChange.setValue(Common.WHO_UPDATED, username);
     final CpfDataAccessObject dataAccessObject = batchJobService.getDataAccessObject();
     dataAccessObject.write(batchJobStatusChange);
+    batchJobService.batchJobStatusChanged(this, jobStatus, time);
   }
 
   public synchronized boolean setStatus(final BatchJobService batchJobService,
@@ -362,15 +436,26 @@ public class BatchJob extends DelegatingRecord implements Common {
     }
   }
 
+  /**
+   * Start creating the groups for the job. Any groups from a previous pre-process of the job are
+   * discarded as they will be created again.
+   */
+  public synchronized void startCreatingGroups() {
+    setValue(NUM_SUBMITTED_GROUPS, 0);
+    this.creatingGroups = true;
+    this.createdGroups.clear();
+    this.completedGroups.clear();
+    this.groupsToProcess.clear();
+    this.scheduledGroups.clear();
+  }
+
   @Override
   public String toString() {
     return getIdentifier().toString();
   }
 
   public synchronized void update() {
-    setValue(COMPLETED_GROUP_RANGE, this.completedGroups.toString());
-    setValue(FAILED_REQUEST_RANGE, this.failedRequests.toString());
-    setValue(COMPLETED_REQUEST_RANGE, this.completedRequests.toString());
+    setRangeValues();
     final RecordState state = getState();
     if (state == RecordState.MODIFIED) {
       final RecordStore recordStore = getRecordStore();
@@ -380,4 +465,18 @@ public class BatchJob extends DelegatingRecord implements Common {
       recordStore.insertRecord(this);
     }
   }
+
+  /**
+   * Write the job using the writer if it has been modified. The writer batches the updates so
+   * multiple jobs can be written with a single JDBC batch.
+   *
+   * @param writer The record writer.
+   */
+  public synchronized void update(final RecordWriter writer) {
+    setRangeValues();
+    final RecordState state = getState();
+    if (state == RecordState.MODIFIED || state == RecordState.NEW) {
+      writer.write(this);
+    }
+  }
 }
@@ -16,6 +16,9 @@
 package ca.bc.gov.open.cpf.api.scheduler;
 
 import java.beans.PropertyChangeEvent;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
@@ -26,20 +29,39 @@ import ca.bc.gov.open.cpf.api.controller.CpfConfig;
 import ca.bc.gov.open.cpf.api.domain.BatchJob;
 import ca.bc.gov.open.cpf.api.domain.BatchJobStatus;
 
+import com.revolsys.parallel.NamedThreadFactory;
 import com.revolsys.util.Property;
 
 public class BatchJobPreProcess extends AbstractBatchJobChannelProcess {
 
+  /** The pool used to validate and write the groups for the jobs being pre-processed. */
+  private final ThreadPoolExecutor groupExecutor = new ThreadPoolExecutor(4, 4, 60,
+    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+    new NamedThreadFactory().setNamePrefix("cpf-preProcessGroup"));
+
   public BatchJobPreProcess() {
     super(BatchJobStatus.SUBMITTED);
+    this.groupExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override
+  public void destroy() {
+    this.groupExecutor.shutdownNow();
+    super.destroy();
+  }
+
+  public ThreadPoolExecutor getGroupExecutor() {
+    return this.groupExecutor;
   }
 
   @PostConstruct
   public void init() {
     final CpfConfig config = getConfig();
     Property.addListener(config, "preProcessPoolSize", this);
+    Property.addListener(config, "preProcessGroupPoolSize", this);
     final int preProcessPoolSize = config.getPreProcessPoolSize();
     setMaximumPoolSize(preProcessPoolSize);
+    setGroupPoolSize(config.getPreProcessGroupPoolSize());
   }
 
   @Override
@@ -63,6 +85,21 @@ public class BatchJobPreProcess extends AbstractBatchJobChannelProcess {
     if ("preProcessPoolSize".equals(propertyName)) {
       final Integer poolSize = (Integer)event.getNewValue();
       setMaximumPoolSize(poolSize);
+    } else if ("preProcessGroupPoolSize".equals(propertyName)) {
+      final Integer poolSize = (Integer)event.getNewValue();
+      setGroupPoolSize(poolSize);
+    }
+  }
+
+  private void setGroupPoolSize(final int poolSize) {
+    synchronized (this.groupExecutor) {
+      if (poolSize > this.groupExecutor.getMaximumPoolSize()) {
+        this.groupExecutor.setMaximumPoolSize(poolSize);
+        this.groupExecutor.setCorePoolSize(poolSize);
+      } else {
+        this.groupExecutor.setCorePoolSize(poolSize);
+        this.groupExecutor.setMaximumPoolSize(poolSize);
+      }
     }
   }
 
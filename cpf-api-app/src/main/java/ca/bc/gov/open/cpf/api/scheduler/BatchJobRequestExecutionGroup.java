@@ -15,6 +15,7 @@
  */
 package ca.bc.gov.open.cpf.api.scheduler;
 
+import java.io.File;
 import java.sql.Timestamp;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -26,6 +27,8 @@ import ca.bc.gov.open.cpf.plugin.api.log.AppLog;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
 import ca.bc.gov.open.cpf.plugin.impl.module.Module;
 
+import com.revolsys.io.FileUtil;
+
 public class BatchJobRequestExecutionGroup {
 
   private final BusinessApplication businessApplication;
@@ -36,7 +39,7 @@ public class BatchJobRequestExecutionGroup {
 
   private String id;
 
-  private final AtomicInteger attempt = new AtomicInteger(0);
+  private final AtomicInteger attempt;
 
   private final String resultDataContentType;
 
@@ -60,6 +63,20 @@ public class BatchJobRequestExecutionGroup {
 
   private final BatchJob batchJob;
 
+  private final Object resultLock;
+
+  private volatile BatchJobRequestExecutionGroup duplicate;
+
+  private volatile String workerId;
+
+  private boolean resultWriteStarted = false;
+
+  private File errorFile;
+
+  private File resultFile;
+
+  private volatile boolean affinityHeld = false;
+
   public BatchJobRequestExecutionGroup(final String consumerKey, final BatchJob batchJob,
     final BusinessApplication businessApplication,
     final Map<String, String> businessApplicationParameterMap, final String resultDataContentType,
@@ -73,6 +90,28 @@ public class BatchJobRequestExecutionGroup {
     this.scheduleTimestamp = scheduleTimestamp;
     this.sequenceNumber = sequenceNumber;
     this.baseId = getBatchJobId() + "-" + sequenceNumber;
+    this.attempt = new AtomicInteger(0);
+    this.resultLock = new Object();
+    resetId();
+  }
+
+  /**
+   * Construct a speculative copy of the group. The copy has the same base id and shares the
+   * attempt counter and result lock with the group.
+   */
+  private BatchJobRequestExecutionGroup(final BatchJobRequestExecutionGroup group) {
+    this.consumerKey = group.consumerKey;
+    this.batchJob = group.batchJob;
+    this.businessApplication = group.businessApplication;
+    this.moduleName = group.moduleName;
+    this.businessApplicationParameterMap = group.businessApplicationParameterMap;
+    this.resultDataContentType = group.resultDataContentType;
+    this.scheduleTimestamp = group.scheduleTimestamp;
+    this.sequenceNumber = group.sequenceNumber;
+    this.baseId = group.baseId;
+    this.attempt = group.attempt;
+    this.resultLock = group.resultLock;
+    this.duplicate = group;
     resetId();
   }
 
@@ -85,7 +124,21 @@ public class BatchJobRequestExecutionGroup {
       }
     }
     this.batchJob.removeGroup(this);
-    cancelInternal();
+    if (removeDuplicate() == null) {
+      cancelInternal();
+    } else {
+      // The speculative copy (or original) of the group is still executing
+      cancelDuplicate();
+    }
+  }
+
+  /**
+   * Cancel the group as the other copy of the speculatively executed group is being used. Unlike
+   * {@link #cancel()} the group's sequence number isn't returned to the job to be scheduled.
+   */
+  public void cancelDuplicate() {
+    this.cancelled = true;
+    deleteResultFiles();
   }
 
   public void cancelInternal() {
@@ -93,6 +146,15 @@ public class BatchJobRequestExecutionGroup {
     this.cancelled = true;
   }
 
+  public void deleteResultFiles() {
+    synchronized (this.resultLock) {
+      FileUtil.delete(this.errorFile);
+      this.errorFile = null;
+      FileUtil.delete(this.resultFile);
+      this.resultFile = null;
+    }
+  }
+
   public String getBaseId() {
     return this.baseId;
   }
@@ -121,6 +183,14 @@ public class BatchJobRequestExecutionGroup {
     return this.consumerKey;
   }
 
+  public BatchJobRequestExecutionGroup getDuplicate() {
+    return this.duplicate;
+  }
+
+  public File getErrorFile() {
+    return this.errorFile;
+  }
+
   public long getExecutionStartTime() {
     return this.executionStartTime;
   }
@@ -149,6 +219,20 @@ public class BatchJobRequestExecutionGroup {
     return this.numFailedRequests;
   }
 
+  public File getResultFile() {
+    return this.resultFile;
+  }
+
+  /**
+   * Get the lock used to ensure that only one result is accepted for the group and any
+   * speculative copy of the group.
+   *
+   * @return The lock.
+   */
+  public Object getResultLock() {
+    return this.resultLock;
+  }
+
   public String getResultDataContentType() {
     return this.resultDataContentType;
   }
@@ -165,19 +249,80 @@ public class BatchJobRequestExecutionGroup {
     return this.scheduleTimestamp;
   }
 
+  public String getWorkerId() {
+    return this.workerId;
+  }
+
+  public boolean hasDuplicate() {
+    return this.duplicate != null;
+  }
+
   @Override
   public int hashCode() {
     return this.id.hashCode();
   }
 
+  /**
+   * Check if the group has been held for the worker with the highest affinity for the group. A
+   * group is only held once so that it can be executed by any worker after it is released.
+   *
+   * @return True if the group has been held.
+   */
+  public boolean isAffinityHeld() {
+    return this.affinityHeld;
+  }
+
   public boolean isCancelled() {
     return this.cancelled || this.batchJob.isCancelled();
   }
 
+  /**
+   * Create a speculative copy of the group to execute on another worker. A copy isn't created if
+   * the group already has a copy or the worker has started sending the results.
+   *
+   * @return The copy or null if a copy can't be created.
+   */
+  public BatchJobRequestExecutionGroup newSpeculativeGroup() {
+    synchronized (this.resultLock) {
+      if (this.duplicate != null || this.resultWriteStarted || isCancelled()) {
+        return null;
+      } else {
+        final BatchJobRequestExecutionGroup speculativeGroup = new BatchJobRequestExecutionGroup(
+          this);
+        this.duplicate = speculativeGroup;
+        return speculativeGroup;
+      }
+    }
+  }
+
+  /**
+   * Remove the link between the group and its speculative copy (or the original group).
+   *
+   * @return The other group or null if there wasn't one.
+   */
+  public BatchJobRequestExecutionGroup removeDuplicate() {
+    synchronized (this.resultLock) {
+      final BatchJobRequestExecutionGroup duplicate = this.duplicate;
+      if (duplicate != null) {
+        duplicate.duplicate = null;
+        this.duplicate = null;
+      }
+      return duplicate;
+    }
+  }
+
   public void resetId() {
     this.id = getBatchJobId() + "-" + this.sequenceNumber + "-" + this.attempt.incrementAndGet();
   }
 
+  public void setAffinityHeld(final boolean affinityHeld) {
+    this.affinityHeld = affinityHeld;
+  }
+
+  public void setErrorFile(final File errorFile) {
+    this.errorFile = errorFile;
+  }
+
   public void setExecutionStartTime(final long executionStartTime) {
     this.executionStartTime = executionStartTime;
   }
@@ -194,6 +339,32 @@ public class BatchJobRequestExecutionGroup {
     this.numFailedRequests = numFailedRequests;
   }
 
+  public void setResultFile(final File resultFile) {
+    this.resultFile = resultFile;
+  }
+
+  public void setWorkerId(final String workerId) {
+    this.workerId = workerId;
+  }
+
+  /**
+   * Check if the errors or results sent by the worker can be written directly to the job. If the
+   * group has a speculative copy the data must be saved to a file until one of the results is
+   * accepted. Once data has been written a speculative copy won't be created.
+   *
+   * @return True if the data can be written to the job.
+   */
+  public boolean startResultWrite() {
+    synchronized (this.resultLock) {
+      if (this.duplicate == null) {
+        this.resultWriteStarted = true;
+        return true;
+      } else {
+        return false;
+      }
+    }
+  }
+
   @Override
   public String toString() {
     return this.id;
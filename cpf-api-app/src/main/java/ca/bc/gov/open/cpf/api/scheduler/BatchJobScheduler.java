@@ -17,15 +17,14 @@ package ca.bc.gov.open.cpf.api.scheduler;
 
 import java.beans.PropertyChangeEvent;
 import java.beans.PropertyChangeListener;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
-import java.util.ConcurrentModificationException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
@@ -34,7 +33,6 @@ import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Resource;
 
-import org.jeometry.common.data.identifier.Identifier;
 import org.jeometry.common.logging.Logs;
 
 import ca.bc.gov.open.cpf.api.controller.CpfConfig;
@@ -42,7 +40,6 @@ import ca.bc.gov.open.cpf.api.domain.BatchJob;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
 
 import com.revolsys.collection.SetQueue;
-import com.revolsys.collection.map.Maps;
 import com.revolsys.parallel.NamedThreadFactory;
 import com.revolsys.parallel.ThreadUtil;
 import com.revolsys.parallel.channel.Channel;
@@ -69,7 +66,7 @@ public class BatchJobScheduler extends ThreadPoolExecutor
 
   private long errorTime;
 
-  private final Map<String, Set<BatchJobRequestExecutionGroup>> scheduledGroupsByBusinessApplication = new HashMap<>();
+  private final Map<String, BusinessApplicationJobQueue> jobQueueByBusinessApplication = new ConcurrentHashMap<>();
 
   private final Channel<BatchJob> in = new Channel<>(new Buffer<>(new SetQueue<BatchJob>()));
 
@@ -80,8 +77,6 @@ public class BatchJobScheduler extends ThreadPoolExecutor
   @Resource(name = "cpfConfig")
   private CpfConfig config;
 
-  private final Map<Identifier, BatchJob> queuedJobById = new LinkedHashMap<>();
-
   public BatchJobScheduler() {
     super(0, 1, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), new NamedThreadFactory());
   }
@@ -95,22 +90,10 @@ public class BatchJobScheduler extends ThreadPoolExecutor
   }
 
   public void clearBusinessApplication(final String businessApplicationName) {
-    while (true) {
-      try {
-        for (final Iterator<BatchJob> iterator = this.queuedJobById.values().iterator(); iterator
-          .hasNext();) {
-          final BatchJob batchJob = iterator.next();
-          final Object appName = batchJob.getValue(BatchJob.BUSINESS_APPLICATION_NAME);
-          if (businessApplicationName.equals(appName)) {
-            iterator.remove();
-          }
-        }
-        synchronized (this.scheduledGroupsByBusinessApplication) {
-          this.scheduledGroupsByBusinessApplication.remove(businessApplicationName);
-        }
-        return;
-      } catch (final ConcurrentModificationException e) {
-      }
+    final BusinessApplicationJobQueue jobQueue = this.jobQueueByBusinessApplication
+      .remove(businessApplicationName);
+    if (jobQueue != null) {
+      jobQueue.clear();
     }
   }
 
@@ -167,6 +150,11 @@ public class BatchJobScheduler extends ThreadPoolExecutor
     return this.in;
   }
 
+  private BusinessApplicationJobQueue getJobQueue(final String businessApplicationName) {
+    return this.jobQueueByBusinessApplication.computeIfAbsent(businessApplicationName,
+      BusinessApplicationJobQueue::new);
+  }
+
   public Object getMonitor() {
     return this.monitor;
   }
@@ -176,25 +164,19 @@ public class BatchJobScheduler extends ThreadPoolExecutor
     return this.processNetwork;
   }
 
-  private int getScheduledGroupCount(final String businessApplicationName) {
-    synchronized (this.scheduledGroupsByBusinessApplication) {
-      final Collection<BatchJobRequestExecutionGroup> values = this.scheduledGroupsByBusinessApplication
-        .get(businessApplicationName);
-      if (values == null) {
-        return 0;
-      } else {
-        int count = 0;
-        for (final Iterator<BatchJobRequestExecutionGroup> iterator = values.iterator(); iterator
-          .hasNext();) {
-          final BatchJobRequestExecutionGroup group = iterator.next();
-          if (group.isCancelled()) {
-            iterator.remove();
-          } else {
-            count++;
-          }
-        }
-        return count;
-      }
+  /**
+   * Get the number of jobs waiting to have a group scheduled for each USER_ID.
+   *
+   * @param businessApplicationName The business application name.
+   * @return The map from USER_ID to queued job count.
+   */
+  public Map<String, Integer> getQueuedJobCountByUserId(final String businessApplicationName) {
+    final BusinessApplicationJobQueue jobQueue = this.jobQueueByBusinessApplication
+      .get(businessApplicationName);
+    if (jobQueue == null) {
+      return Collections.emptyMap();
+    } else {
+      return jobQueue.getJobCountByUserId();
     }
   }
 
@@ -220,10 +202,7 @@ public class BatchJobScheduler extends ThreadPoolExecutor
       if (group != null) {
         final String businessApplicationName = group.getBusinessApplicationName();
         if (!group.isCancelled()) {
-          synchronized (this.scheduledGroupsByBusinessApplication) {
-            Maps.addToSet(this.scheduledGroupsByBusinessApplication, businessApplicationName,
-              group);
-          }
+          getJobQueue(businessApplicationName).addScheduledGroup(group);
         }
         this.batchJobService.scheduleGroup(group);
       }
@@ -243,9 +222,10 @@ public class BatchJobScheduler extends ThreadPoolExecutor
 
   public void removeScheduledGroup(final BatchJobRequestExecutionGroup group) {
     final String businessApplicationName = group.getBusinessApplicationName();
-    synchronized (this.scheduledGroupsByBusinessApplication) {
-      Maps.removeFromCollection(this.scheduledGroupsByBusinessApplication, businessApplicationName,
-        group);
+    final BusinessApplicationJobQueue jobQueue = this.jobQueueByBusinessApplication
+      .get(businessApplicationName);
+    if (jobQueue != null) {
+      jobQueue.removeScheduledGroup(group);
     }
   }
 
@@ -294,8 +274,9 @@ public class BatchJobScheduler extends ThreadPoolExecutor
             ThreadUtil.pause(60000);
           }
           final BatchJob batchJob = in.read();
-          final Identifier batchJobId = batchJob.getIdentifier();
-          this.queuedJobById.put(batchJobId, batchJob);
+          final String businessApplicationName = batchJob
+            .getValue(BatchJob.BUSINESS_APPLICATION_NAME);
+          getJobQueue(businessApplicationName).addJob(batchJob);
         }
         scheduleQueuedJobs();
       } catch (final ClosedException e) {
@@ -308,35 +289,60 @@ public class BatchJobScheduler extends ThreadPoolExecutor
   }
 
   public void schedule(final BatchJob batchJob) {
-    if (batchJob.isProcessing()) {
+    if (batchJob.isProcessing() || batchJob.isCreatingGroups()) {
       this.in.write(batchJob);
     }
   }
 
+  /**
+   * Schedule groups for the queued jobs using weighted round robin across the business
+   * applications. In each round a business application can schedule up to its weight in groups,
+   * the rounds continue until no business application has both queued jobs and capacity for
+   * another group. Within a business application the jobs are selected using deficit round robin
+   * across the users.
+   */
   private void scheduleQueuedJobs() {
-    while (!this.queuedJobById.isEmpty()) {
-      try {
-        for (final Iterator<BatchJob> iterator = this.queuedJobById.values().iterator(); iterator
-          .hasNext();) {
-          final BatchJob batchJob = iterator.next();
-          final String businessApplicationName = batchJob
-            .getValue(BatchJob.BUSINESS_APPLICATION_NAME);
-          final BusinessApplication businessApplication = this.batchJobService
-            .getBusinessApplication(businessApplicationName);
-          if (businessApplication != null && businessApplication.getModule().isStarted()) {
-            final int maxCount = businessApplication.getMaxConcurrentRequests();
-            final int scheduledCount = getScheduledGroupCount(businessApplicationName);
-            if (scheduledCount < maxCount) {
-              iterator.remove();
+    final CpfConfig config = getConfig();
+    final List<BusinessApplicationJobQueue> jobQueues = new ArrayList<>();
+    final Map<BusinessApplicationJobQueue, BusinessApplication> businessApplicationByQueue = new HashMap<>();
+    for (final BusinessApplicationJobQueue jobQueue : this.jobQueueByBusinessApplication.values()) {
+      if (!jobQueue.isEmpty()) {
+        final String businessApplicationName = jobQueue.getBusinessApplicationName();
+        final BusinessApplication businessApplication = this.batchJobService
+          .getBusinessApplication(businessApplicationName);
+        if (businessApplication != null && businessApplication.getModule().isStarted()) {
+          jobQueues.add(jobQueue);
+          businessApplicationByQueue.put(jobQueue, businessApplication);
+        } else {
+          jobQueue.clearJobs();
+        }
+      }
+    }
+    while (!jobQueues.isEmpty()) {
+      for (final Iterator<BusinessApplicationJobQueue> iterator = jobQueues.iterator(); iterator
+        .hasNext();) {
+        final BusinessApplicationJobQueue jobQueue = iterator.next();
+        final BusinessApplication businessApplication = businessApplicationByQueue.get(jobQueue);
+        final String businessApplicationName = jobQueue.getBusinessApplicationName();
+        final int maxCount = businessApplication.getMaxConcurrentRequests();
+        final int weight = config.getBusinessApplicationWeight(businessApplicationName);
+        boolean hasMore = true;
+        for (int i = 0; i < weight && hasMore; i++) {
+          if (jobQueue.hasScheduledGroupCapacity(maxCount)) {
+            final BatchJob batchJob = jobQueue.pollJob(config::getUserWeight);
+            if (batchJob == null) {
+              hasMore = false;
+            } else {
               newExecutionGroup(businessApplication, batchJob);
               schedule(batchJob);
             }
           } else {
-            iterator.remove();
+            hasMore = false;
           }
         }
-        return;
-      } catch (final ConcurrentModificationException e) {
+        if (!hasMore || jobQueue.isEmpty()) {
+          iterator.remove();
+        }
       }
     }
   }
@@ -19,11 +19,17 @@ import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
 import java.sql.BatchUpdateException;
 import java.sql.SQLException;
 import java.sql.Timestamp;
@@ -39,6 +45,12 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,19 +58,11 @@ import java.util.regex.Pattern;
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import javax.mail.internet.MimeMessage;
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.websocket.Session;
 
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.jeometry.common.data.identifier.Identifier;
 import org.jeometry.common.data.type.DataType;
 import org.jeometry.common.data.type.DataTypes;
@@ -66,7 +70,6 @@ import org.jeometry.common.date.Dates;
 import org.jeometry.common.logging.Logs;
 import org.springframework.http.MediaType;
 import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.util.StopWatch;
 
 import ca.bc.gov.open.cpf.api.controller.CpfConfig;
@@ -79,7 +82,11 @@ import ca.bc.gov.open.cpf.api.domain.UserAccount;
 import ca.bc.gov.open.cpf.api.security.service.AuthorizationService;
 import ca.bc.gov.open.cpf.api.security.service.AuthorizationServiceUserSecurityServiceFactory;
 import ca.bc.gov.open.cpf.api.web.controller.DatabaseJobController;
+import ca.bc.gov.open.cpf.api.web.controller.FileJobController;
 import ca.bc.gov.open.cpf.api.web.controller.JobController;
+import ca.bc.gov.open.cpf.api.web.controller.LocalDirectorySegmentStore;
+import ca.bc.gov.open.cpf.api.web.controller.SegmentStore;
+import ca.bc.gov.open.cpf.api.web.controller.SegmentStoreJobController;
 import ca.bc.gov.open.cpf.plugin.api.log.AppLog;
 import ca.bc.gov.open.cpf.plugin.api.security.SecurityService;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
@@ -106,6 +113,7 @@ import com.revolsys.io.IoFactory;
 import com.revolsys.io.map.MapReader;
 import com.revolsys.io.map.MapWriter;
 import com.revolsys.io.map.MapWriterFactory;
+import com.revolsys.parallel.NamedThreadFactory;
 import com.revolsys.parallel.ThreadUtil;
 import com.revolsys.parallel.channel.ClosedException;
 import com.revolsys.parallel.channel.NamedChannelBundle;
@@ -114,7 +122,6 @@ import com.revolsys.record.Records;
 import com.revolsys.record.io.RecordWriter;
 import com.revolsys.record.io.RecordWriterFactory;
 import com.revolsys.record.io.format.csv.Csv;
-import com.revolsys.record.io.format.html.XhtmlMapWriter;
 import com.revolsys.record.io.format.json.Json;
 import com.revolsys.record.io.format.json.JsonObject;
 import com.revolsys.record.io.format.kml.Kml22Constants;
@@ -146,7 +153,15 @@ public class BatchJobService implements ModuleEventListener {
     BatchJob.FAILED_REQUEST_RANGE, BatchJob.INPUT_DATA_CONTENT_TYPE,
     BatchJob.RESULT_DATA_CONTENT_TYPE);
 
-  private static final Pattern RANGE_PATTERN = Pattern.compile("bytes=(\\d+)?-(\\d+)?");
+  private static final int GROUP_EXECUTION_TIMES_SIZE = 100;
+
+  private static final int MAX_RANGES = 16;
+
+  private static final Pattern RANGE_PATTERN = Pattern.compile("(\\d+)?-(\\d+)?");
+
+  private static final int SPECULATIVE_MIN_GROUP_COUNT = 20;
+
+  private static final long SPECULATIVE_MIN_EXECUTION_TIME = 10000;
 
   private static long capacityErrorTime;
 
@@ -169,6 +184,63 @@ public class BatchJobService implements ModuleEventListener {
     return appLogData;
   }
 
+  /**
+   * Get the byte ranges from the Range header value. The ranges are ignored if the If-Range header
+   * doesn't match the ETag or Last-Modified of the result so that an interrupted download is only
+   * resumed if the result hasn't changed.
+   *
+   * @return The ranges, an empty list if none of the ranges can be satisfied or null if the whole
+   *         result should be returned.
+   */
+  static List<long[]> getRequestRanges(final String range, final String ifRange,
+    final long size, final String etag, final String lastModified) {
+    if (range == null || !range.startsWith("bytes=")) {
+      return null;
+    }
+    if (ifRange != null && !ifRange.equals(etag) && !ifRange.equals(lastModified)) {
+      return null;
+    }
+    final String[] rangeSpecs = range.substring(6).split(",");
+    if (rangeSpecs.length > MAX_RANGES) {
+      return null;
+    }
+    final List<long[]> ranges = new ArrayList<>();
+    try {
+      for (final String rangeSpec : rangeSpecs) {
+        final Matcher matcher = RANGE_PATTERN.matcher(rangeSpec.trim());
+        if (!matcher.matches()) {
+          return null;
+        }
+        final String from = matcher.group(1);
+        final String to = matcher.group(2);
+        long fromIndex;
+        long toIndex = size - 1;
+        if (Property.hasValue(from)) {
+          fromIndex = Long.parseLong(from);
+          if (Property.hasValue(to)) {
+            final long lastIndex = Long.parseLong(to);
+            if (lastIndex < fromIndex) {
+              return null;
+            }
+            toIndex = Math.min(lastIndex, toIndex);
+          }
+        } else if (Property.hasValue(to)) {
+          fromIndex = Math.max(0, size - Long.parseLong(to));
+        } else {
+          return null;
+        }
+        if (fromIndex < size && fromIndex <= toIndex) {
+          ranges.add(new long[] {
+            fromIndex, toIndex
+          });
+        }
+      }
+    } catch (final NumberFormatException e) {
+      return null;
+    }
+    return ranges;
+  }
+
   public static boolean isDatabaseResourcesException(final Throwable e) {
     if (e instanceof BatchUpdateException) {
       final BatchUpdateException batchException = (BatchUpdateException)e;
@@ -308,6 +380,8 @@ public class BatchJobService implements ModuleEventListener {
 
   private long maxWorkerWaitTime = 60 * 1000;
 
+  private final NotificationDispatcher notificationDispatcher = new NotificationDispatcher(this);
+
   private BatchJobPostProcess postProcess;
 
   private BatchJobPreProcess preProcess;
@@ -318,6 +392,27 @@ public class BatchJobService implements ModuleEventListener {
 
   private SecurityServiceFactory securityServiceFactory;
 
+  private File segmentStoreDirectory;
+
+  private File jobFileDirectory;
+
+  private final Map<Identifier, StructuredResultAssembler> structuredResultAssemblers = new ConcurrentHashMap<>();
+
+  private int maxStructuredResultAssemblers = 100;
+
+  /** The pool used to append the completed groups to the jobs' structured result files. */
+  private final ThreadPoolExecutor structuredResultExecutor = new ThreadPoolExecutor(2, 2, 60,
+    TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+    new NamedThreadFactory().setNamePrefix("cpf-structuredResult"));
+
+  private long targetGroupExecutionTime = 0;
+
+  private int maxAdaptiveGroupSize = 10000;
+
+  private double speculativeExecutionFactor = 0;
+
+  private final Map<String, GroupExecutionTimes> groupExecutionTimesByBusinessApplicationName = new ConcurrentHashMap<>();
+
   private Map<String, String> userClassBaseUrls;
 
   private final Map<String, Integer> connectedWorkerCounts = new HashMap<>();
@@ -343,17 +438,130 @@ public class BatchJobService implements ModuleEventListener {
 
   private BatchJobUpdator jobUpdator = new BatchJobUpdator();
 
+  private WorkerGroupDispatcher groupDispatcher;
+
+  private WorkerAffinityScheduler workerAffinityScheduler;
+
+  /** The listeners for a single job, keyed by the long value of the job's identifier. */
+  private final Map<Long, Set<BatchJobStatusListener>> batchJobStatusListenersByBatchJobId = new ConcurrentHashMap<>();
+
+  private final Map<String, Set<BatchJobStatusListener>> batchJobStatusListenersByConsumerKey = new ConcurrentHashMap<>();
+
+  /**
+   * Add a listener that is notified when the status of the job changes.
+   *
+   * @param batchJobId The batch job identifier.
+   * @param listener The listener.
+   */
+  public void addBatchJobStatusListener(final Identifier batchJobId,
+    final BatchJobStatusListener listener) {
+    this.batchJobStatusListenersByBatchJobId
+      .computeIfAbsent(batchJobId.getLong(0), key -> ConcurrentHashMap.newKeySet())
+      .add(listener);
+  }
+
+  /**
+   * Add a listener that is notified when the status of one of the user's jobs changes.
+   *
+   * @param consumerKey The consumer key of the user.
+   * @param listener The listener.
+   */
+  public void addBatchJobStatusListener(final String consumerKey,
+    final BatchJobStatusListener listener) {
+    this.batchJobStatusListenersByConsumerKey
+      .computeIfAbsent(consumerKey, key -> ConcurrentHashMap.newKeySet())
+      .add(listener);
+  }
+
+  /**
+   * Record the execution time of a completed group, used to detect groups that are taking much
+   * longer than usual to execute.
+   *
+   * @param businessApplication The business application.
+   * @param executionTime The time in milliseconds from starting the group to receiving the
+   *          results.
+   */
+  public void addGroupExecutionTime(final BusinessApplication businessApplication,
+    final long executionTime) {
+    if (this.speculativeExecutionFactor > 0) {
+      final String businessApplicationName = businessApplication.getName();
+      final GroupExecutionTimes executionTimes = this.groupExecutionTimesByBusinessApplicationName
+        .computeIfAbsent(businessApplicationName,
+          name -> new GroupExecutionTimes(GROUP_EXECUTION_TIMES_SIZE));
+      executionTimes.addTime(executionTime);
+    }
+  }
+
   protected void addPreProcessedJobId(final Identifier batchJobId) {
     synchronized (this.preprocesedJobIds) {
       this.preprocesedJobIds.add(batchJobId);
     }
   }
 
+  /**
+   * Append the completed groups to the job's structured result file using the structured result
+   * pool, so the worker's request to save the group results doesn't wait for the append. The
+   * assembler is only created if there are less than maxStructuredResultAssemblers jobs being
+   * assembled, otherwise the results are created in post-process.
+   *
+   * The assembler is created and removed while synchronized on the assemblers, and is only
+   * created while the job is creating requests or processing. The job is marked as processed before
+   * post-process removes the assembler, so an assembler can't be created after post-process.
+   */
+  private void appendStructuredResults(final BatchJob batchJob,
+    final BusinessApplication businessApplication) {
+    final Identifier batchJobId = batchJob.getIdentifier();
+    StructuredResultAssembler assembler;
+    synchronized (this.structuredResultAssemblers) {
+      assembler = this.structuredResultAssemblers.get(batchJobId);
+      if (assembler == null) {
+        if (batchJob.isCancelled()
+          || !(batchJob.isProcessing() || batchJob.isStatus(BatchJobStatus.CREATING_REQUESTS))
+          || this.structuredResultAssemblers.size() >= this.maxStructuredResultAssemblers) {
+          return;
+        }
+        assembler = new StructuredResultAssembler(this, batchJob, businessApplication);
+        this.structuredResultAssemblers.put(batchJobId, assembler);
+      }
+    }
+    try {
+      this.structuredResultExecutor.execute(assembler::appendCompletedGroups);
+    } catch (final RejectedExecutionException e) {
+      // Shutting down, any groups not appended are appended in post-process
+    }
+  }
+
+  /**
+   * Notify the listeners for the job and the job's user of the status change once the
+   * transaction has been committed.
+   *
+   * @param batchJob The batch job.
+   * @param jobStatus The new job status.
+   * @param time The time the status changed.
+   */
+  public void batchJobStatusChanged(final BatchJob batchJob, final String jobStatus,
+    final long time) {
+    final String consumerKey = batchJob.getValue(BatchJob.USER_ID);
+    final Long batchJobId = batchJob.getIdentifier().getLong(0);
+    if (consumerKey != null && this.batchJobStatusListenersByConsumerKey.containsKey(consumerKey)
+      || this.batchJobStatusListenersByBatchJobId.containsKey(batchJobId)) {
+      Transaction.afterCommit(() -> {
+        if (consumerKey != null) {
+          notifyBatchJobStatusListeners(this.batchJobStatusListenersByConsumerKey.get(consumerKey),
+            batchJob, jobStatus, time);
+        }
+        notifyBatchJobStatusListeners(this.batchJobStatusListenersByBatchJobId.get(batchJobId),
+          batchJob, jobStatus, time);
+      });
+    }
+  }
+
   public boolean cancelBatchJob(final Identifier batchJobId) {
     final boolean cancelled = false;
     synchronized (this.preprocesedJobIds) {
       this.preprocesedJobIds.remove(batchJobId);
     }
+    removeStructuredResultAssembler(batchJobId);
     final BatchJob batchJob = getBatchJob(batchJobId);
     if (batchJob != null) {
       if (batchJob.cancelJob(this, this.scheduler)) {
@@ -372,16 +580,75 @@ public class BatchJobService implements ModuleEventListener {
     return cancelled;
   }
 
+  /**
+   * Cancel the groups that a pre-process that didn't complete has created, including any groups
+   * that are executing on the workers.
+   *
+   * @param batchJob The batch job.
+   */
+  public void cancelCreatedGroups(final BatchJob batchJob) {
+    final BatchJobScheduler scheduler = this.scheduler;
+    if (scheduler != null && batchJob.cancelCreatedGroups(scheduler)) {
+      final Identifier batchJobId = batchJob.getIdentifier();
+      synchronized (this.workersById) {
+        for (final Worker worker : this.workersById.values()) {
+          worker.cancelBatchJob(batchJobId);
+        }
+      }
+    }
+  }
+
+  /**
+   * Cancel a group that has been replaced by the other copy of a speculatively executed group.
+   *
+   * @param group The group to cancel.
+   */
+  private void cancelDuplicateGroup(final BatchJobRequestExecutionGroup group) {
+    group.cancelDuplicate();
+    group.getBatchJob().removeGroup(group);
+    removeScheduledGroup(group);
+    final String workerId = group.getWorkerId();
+    if (workerId != null) {
+      final Worker worker = getWorker(workerId);
+      if (worker != null) {
+        worker.cancelExecutingGroup(group);
+      }
+    }
+  }
+
+  /**
+   * Cancel the other copy of a speculatively executed group after the result of the group has
+   * been accepted.
+   *
+   * @param group The group that had its result accepted.
+   */
+  public void cancelDuplicateGroupExecution(final BatchJobRequestExecutionGroup group) {
+    final BatchJobRequestExecutionGroup duplicate = group.removeDuplicate();
+    if (duplicate != null) {
+      final AppLog log = group.getBusinessApplication().getLog();
+      log.info("Cancel\tSpeculative group execution\tgroupId=" + duplicate.getId()
+        + "\tacceptedGroupId=" + group.getId());
+      cancelDuplicateGroup(duplicate);
+    }
+  }
+
   public void cancelGroup(final Worker worker, final String groupId) {
     if (groupId != null) {
       final BatchJobRequestExecutionGroup group = worker.removeExecutingGroup(groupId);
       if (group != null) {
         final BusinessApplication businessApplication = group.getBusinessApplication();
         final AppLog log = businessApplication.getLog();
-        log.info("Reschedule\tGroup execution\tgroupId=" + groupId);
+        final BatchJobRequestExecutionGroup duplicate = group.removeDuplicate();
+        if (duplicate == null) {
+          log.info("Reschedule\tGroup execution\tgroupId=" + groupId);
 
-        group.resetId();
-        rescheduleGroup(group);
+          group.resetId();
+          rescheduleGroup(group);
+        } else {
+          // The speculative copy (or original) of the group is still executing
+          log.info("Cancel\tSpeculative group execution\tgroupId=" + groupId);
+          cancelDuplicateGroup(group);
+        }
       }
     }
   }
@@ -390,6 +657,7 @@ public class BatchJobService implements ModuleEventListener {
     if (groups != null) {
       for (final BatchJobRequestExecutionGroup group : groups) {
         group.cancel();
+        removeScheduledGroup(group);
       }
     }
   }
@@ -402,6 +670,7 @@ public class BatchJobService implements ModuleEventListener {
 
   public void deleteJob(final Identifier batchJobId) {
     cancelBatchJob(batchJobId);
+    removeStructuredResultAssembler(batchJobId);
     this.jobController.deleteJob(batchJobId);
   }
 
@@ -413,11 +682,17 @@ public class BatchJobService implements ModuleEventListener {
     this.connectedWorkerCounts.clear();
     this.dataAccessObject = null;
     this.recordStore = null;
+    if (this.groupDispatcher != null) {
+      this.groupDispatcher.stop();
+      this.groupDispatcher = null;
+    }
     if (this.groupsToSchedule != null) {
       this.groupsToSchedule.close();
       this.groupsToSchedule = null;
     }
+    this.workerAffinityScheduler = null;
     this.mailSender = null;
+    this.notificationDispatcher.close();
     if (this.postProcess != null) {
       this.postProcess.getIn().writeDisconnect();
       this.postProcess = null;
@@ -438,9 +713,33 @@ public class BatchJobService implements ModuleEventListener {
     this.securityServiceFactory = null;
     this.userClassBaseUrls.clear();
     this.workersById.clear();
+    this.structuredResultExecutor.shutdownNow();
+    synchronized (this.structuredResultAssemblers) {
+      for (final StructuredResultAssembler assembler : this.structuredResultAssemblers.values()) {
+        assembler.close();
+      }
+      this.structuredResultAssemblers.clear();
+    }
     this.jobController = null;
   }
 
+  /**
+   * Push the group to the worker over the web socket.
+   *
+   * @param worker The worker to execute the group.
+   * @param group The group.
+   * @return True if the group was sent to the worker.
+   */
+  public boolean dispatchGroup(final Worker worker, final BatchJobRequestExecutionGroup group) {
+    final MapEx message = new LinkedHashMapEx("type", "executeGroup");
+    if (startGroupExecution(worker.getId(), group, message)) {
+      worker.sendMessage(message);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
   public void downloadBatchJobResult(final HttpServletRequest request,
     final HttpServletResponse response, final Identifier batchJobIdentifier, final int resultId,
     final Record batchJobResult) throws IOException {
@@ -449,11 +748,14 @@ public class BatchJobService implements ModuleEventListener {
       response.setStatus(HttpServletResponse.SC_SEE_OTHER);
       response.setHeader("Location", resultDataUrl);
     } else {
-      final String etag = Integer.toString(resultId);
       long size = getBatchJobResultSize(batchJobIdentifier, resultId);
-      long fromIndex = 0;
-      long toIndex = size - 1;
-      boolean hasRange = false;
+      final java.util.Date lastModified = batchJobResult.getValue(Common.WHEN_CREATED);
+      long lastModifiedTime = 0;
+      if (lastModified != null) {
+        lastModifiedTime = lastModified.getTime();
+      }
+      final String etag = "\"" + batchJobIdentifier + "-" + resultId + "-" + size + "-"
+        + lastModifiedTime + "\"";
 
       String jsonCallback = null;
       final String resultDataContentType = batchJobResult
@@ -465,58 +767,102 @@ public class BatchJobService implements ModuleEventListener {
         }
       }
 
-      final String range = request.getHeader("Range");
-      if (jsonCallback == null && range != null) {
-        final Matcher matcher = RANGE_PATTERN.matcher(range);
-        if (matcher.matches()) {
-          hasRange = true;
-          response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
-          final String from = matcher.group(1);
-          if (Property.hasValue(from)) {
-            fromIndex = Integer.parseInt(from);
-          }
-          final String to = matcher.group(2);
-          if (Property.hasValue(to)) {
-            toIndex = Integer.parseInt(to);
-          }
-        }
-      }
-
+      List<long[]> ranges = null;
       if (jsonCallback == null) {
+        final String lastModifiedString = Dates.format("EEE, dd MMM yyyy HH:mm:ss z",
+          lastModified);
+        ranges = getRequestRanges(request.getHeader("Range"), request.getHeader("If-Range"),
+          size, etag, lastModifiedString);
         response.setHeader("Accept-Ranges", "bytes");
-        response.setHeader("Content-Length", Long.toString(size));
-        final java.util.Date lastModified = batchJobResult.getValue(Common.WHEN_CREATED);
-
-        final String lastModifiedString = Dates.format("EEE, dd MMM yyyy HH:mm:ss z", lastModified);
         response.setHeader("Last-Modified", lastModifiedString);
         response.setHeader("ETag", etag);
         response.setHeader("Connection", "keep-alive");
-        response.setHeader("Content-Range", "bytes " + fromIndex + "-" + toIndex + "/" + size);
+        if (ranges != null && ranges.isEmpty()) {
+          response.setHeader("Content-Range", "bytes */" + size);
+          response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+          return;
+        }
       }
-      try (
-        final InputStream in = getBatchJobResultData(batchJobIdentifier, resultId, batchJobResult,
-          hasRange, fromIndex, toIndex)) {
+
+      final RecordWriterFactory writerFactory = IoFactory
+        .factoryByMediaType(RecordWriterFactory.class, resultDataContentType);
+      if (writerFactory != null) {
+        final String fileExtension = writerFactory.getFileExtension(resultDataContentType);
+        final String fileName = "job-" + batchJobIdentifier + "-result-" + resultId + "."
+          + fileExtension;
+        response.setHeader("Content-Disposition",
+          "attachment; filename=" + fileName + ";size=" + size);
+      }
+      final File resultFile = this.jobController.getJobResultFile(batchJobIdentifier, resultId);
+      if (Property.hasValue(jsonCallback)) {
         response.setContentType(resultDataContentType);
-        final RecordWriterFactory writerFactory = IoFactory
-          .factoryByMediaType(RecordWriterFactory.class, resultDataContentType);
-        if (writerFactory != null) {
-          final String fileExtension = writerFactory.getFileExtension(resultDataContentType);
-          final String fileName = "job-" + batchJobIdentifier + "-result-" + resultId + "."
-            + fileExtension;
-          response.setHeader("Content-Disposition",
-            "attachment; filename=" + fileName + ";size=" + size);
-        }
-        final ServletOutputStream out = response.getOutputStream();
-        if (Property.hasValue(jsonCallback)) {
+        try (
+          final InputStream in = getBatchJobResultData(batchJobIdentifier, resultId,
+            batchJobResult, false, 0, size - 1)) {
+          final ServletOutputStream out = response.getOutputStream();
           out.write(jsonCallback.getBytes());
           out.write("(".getBytes());
           FileUtil.copy(in, out);
           out.write(");".getBytes());
-        } else if (hasRange) {
-          FileUtil.copy(in, out, toIndex - fromIndex + 1);
+        }
+      } else if (ranges == null || ranges.size() == 1) {
+        final boolean hasRange = ranges != null;
+        long fromIndex = 0;
+        long toIndex = size - 1;
+        if (hasRange) {
+          final long[] range = ranges.get(0);
+          fromIndex = range[0];
+          toIndex = range[1];
+          response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+          response.setHeader("Content-Range", "bytes " + fromIndex + "-" + toIndex + "/" + size);
+        }
+        response.setContentType(resultDataContentType);
+        response.setHeader("Content-Length", Long.toString(toIndex - fromIndex + 1));
+        if (resultFile != null
+          && Boolean.TRUE.equals(request.getAttribute("org.apache.tomcat.sendfile.support"))) {
+          request.setAttribute("org.apache.tomcat.sendfile.filename",
+            resultFile.getCanonicalPath());
+          request.setAttribute("org.apache.tomcat.sendfile.start", fromIndex);
+          request.setAttribute("org.apache.tomcat.sendfile.end", toIndex + 1);
         } else {
-          FileUtil.copy(in, out);
+          final ServletOutputStream out = response.getOutputStream();
+          writeBatchJobResult(out, batchJobIdentifier, resultId, batchJobResult, resultFile,
+            hasRange, fromIndex, toIndex);
         }
+      } else {
+        final String boundary = UUID.randomUUID().toString();
+        final List<String> partHeaders = new ArrayList<>();
+        long contentLength = 0;
+        for (final long[] range : ranges) {
+          final StringBuilder partHeader = new StringBuilder();
+          partHeader.append("\r\n--").append(boundary).append("\r\n");
+          if (resultDataContentType != null) {
+            partHeader.append("Content-Type: ").append(resultDataContentType).append("\r\n");
+          }
+          partHeader.append("Content-Range: bytes ")
+            .append(range[0])
+            .append('-')
+            .append(range[1])
+            .append('/')
+            .append(size)
+            .append("\r\n\r\n");
+          partHeaders.add(partHeader.toString());
+          contentLength += partHeader.length() + range[1] - range[0] + 1;
+        }
+        final String endBoundary = "\r\n--" + boundary + "--\r\n";
+        contentLength += endBoundary.length();
+
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setContentType("multipart/byteranges; boundary=" + boundary);
+        response.setHeader("Content-Length", Long.toString(contentLength));
+        final ServletOutputStream out = response.getOutputStream();
+        for (int i = 0; i < ranges.size(); i++) {
+          final long[] range = ranges.get(i);
+          out.write(partHeaders.get(i).getBytes(StandardCharsets.US_ASCII));
+          writeBatchJobResult(out, batchJobIdentifier, resultId, batchJobResult, resultFile, true,
+            range[0], range[1]);
+        }
+        out.write(endBoundary.getBytes(StandardCharsets.US_ASCII));
       }
     }
   }
@@ -694,6 +1040,30 @@ public class BatchJobService implements ModuleEventListener {
     return this.groupResultCount.get();
   }
 
+  /**
+   * Get the number of requests to include in each group of a new job. If a
+   * targetGroupExecutionTime is set the size is chosen so that a group takes about that long to
+   * execute, using the recent average request execution time of the business application. The
+   * business application's numRequestsPerWorker is used if adaptive group sizing is disabled or
+   * there aren't any recent statistics.
+   *
+   * @param businessApplication The business application.
+   * @return The group size.
+   */
+  public int getGroupSize(final BusinessApplication businessApplication) {
+    if (this.targetGroupExecutionTime > 0) {
+      final double averageTime = this.statisticsService
+        .getRecentRequestAverageTime(businessApplication.getName());
+      if (averageTime == 0) {
+        return this.maxAdaptiveGroupSize;
+      } else if (averageTime > 0) {
+        final long groupSize = Math.round(this.targetGroupExecutionTime / averageTime);
+        return (int)Math.max(1, Math.min(this.maxAdaptiveGroupSize, groupSize));
+      }
+    }
+    return businessApplication.getNumRequestsPerWorker();
+  }
+
   public JobController getJobController() {
     return this.jobController;
   }
@@ -730,71 +1100,19 @@ public class BatchJobService implements ModuleEventListener {
     final Map<String, Object> response = new HashMap<>();
     if (this.running) {
       BatchJobRequestExecutionGroup group = null;
-      try {
-        final long waitTime = Math.min(10000, endTime - startTime);
-        if (waitTime > 0) {
-          final NamedChannelBundle<BatchJobRequestExecutionGroup> groupsToSchedule = this.groupsToSchedule;
-          if (groupsToSchedule == null) {
-            return Collections.emptyMap();
-          } else {
-            group = groupsToSchedule.read(waitTime, moduleNames);
-          }
-        }
-      } catch (final ClosedException e) {
-        if (this.running) {
-          Logs.error(this, "Groups to schedule unexpectedly closed");
-        }
-      }
-      if (this.running && group != null && !group.isCancelled()) {
-        final BusinessApplication businessApplication = group.getBusinessApplication();
-        if (businessApplication == null) {
-          rescheduleGroup(group);
-        } else {
-          final String businessApplicationName = businessApplication.getName();
-          final Module module = businessApplication.getModule();
-          if (module == null || !module.isStarted()) {
-            scheduleGroup(group);
-          } else {
-            final String moduleName = group.getModuleName();
-            final long moduleStartTime = module.getStartedTime();
-            final Worker worker = getWorker(workerId);
-            if (worker == null || moduleStartTime == -1 || !module.isStarted()) {
-              scheduleGroup(group);
-            } else {
-              // Maps.addToSet(this.scheduledGroups, moduleName, group);
-              try {
-                response.put("workerId", workerId);
-                response.put("moduleName", moduleName);
-                response.put("moduleTime", moduleStartTime);
-                response.put("businessApplicationName", businessApplicationName);
-                response.put("logLevel", businessApplication.getLogLevel());
-
-                group.setExecutionStartTime(System.currentTimeMillis());
-                final String groupId = group.getId();
-                final Identifier batchJobId = group.getBatchJobId();
-                final String baseId = group.getBaseId();
-
-                response.put("batchJobId", batchJobId);
-                response.put("baseId", baseId);
-                response.put("groupId", groupId);
-                response.put("applicationParameters", group.getBusinessApplicationParameterMap());
-                if (businessApplication.isPerRequestResultData()) {
-                  response.put("resultDataContentType", group.getResultDataContentType());
-                }
-                final AppLog log = businessApplication.getLog();
-                log.info("Start\tGroup execution\tgroupId=" + groupId + "\tworkerId=" + workerId);
-                response.put("consumerKey", group.getconsumerKey());
-              } finally {
-                worker.addExecutingGroup(moduleName, moduleStartTime, group);
-              }
-            }
-          }
-        }
+      final long waitTime = Math.min(10000, endTime - startTime);
+      if (waitTime > 0) {
+        group = readGroupToSchedule(workerId, waitTime, moduleNames);
       }
+      startGroupExecution(workerId, group, response);
     }
     return response;
   }
 
+  public NotificationDispatcher getNotificationDispatcher() {
+    return this.notificationDispatcher;
+  }
+
   public BatchJobPostProcess getPostProcess() {
     return this.postProcess;
   }
@@ -803,10 +1121,31 @@ public class BatchJobService implements ModuleEventListener {
     return this.preProcess;
   }
 
+  /**
+   * Get the worker with the highest affinity for the group if worker affinity is enabled.
+   *
+   * @param workers The workers to choose from.
+   * @param group The group.
+   * @return The worker or null if there isn't a preferred worker.
+   */
+  public Worker getPreferredWorker(final List<Worker> workers,
+    final BatchJobRequestExecutionGroup group) {
+    final WorkerAffinityScheduler workerAffinityScheduler = this.workerAffinityScheduler;
+    if (workerAffinityScheduler == null) {
+      return null;
+    } else {
+      return workerAffinityScheduler.getPreferredWorker(workers, group);
+    }
+  }
+
   public RecordStore getRecordStore() {
     return this.recordStore;
   }
 
+  public BatchJobScheduler getScheduler() {
+    return this.scheduler;
+  }
+
   public SecurityService getSecurityService(final Module module, final String consumerKey) {
     return this.securityServiceFactory.getSecurityService(module, consumerKey);
   }
@@ -846,13 +1185,22 @@ public class BatchJobService implements ModuleEventListener {
   @PostConstruct
   public void init() {
     this.running = true;
+    this.structuredResultExecutor.allowCoreThreadTimeOut(true);
     this.securityServiceFactory = new AuthorizationServiceUserSecurityServiceFactory(
       this.authorizationService);
     this.businessApplicationRegistry.addModuleEventListener(this.securityServiceFactory);
     this.recordStore = this.dataAccessObject.getRecordStore();
+    this.groupDispatcher = new WorkerGroupDispatcher(this);
+    final File notificationsDirectory = FileUtil.getDirectory(this.appLogDirectory,
+      "notifications");
+    this.notificationDispatcher.start(notificationsDirectory);
     Logs.info(this, "Started");
   }
 
+  public boolean isAdaptiveGroupSize() {
+    return this.targetGroupExecutionTime > 0;
+  }
+
   public boolean isCompressData() {
     return this.compressData;
   }
@@ -873,6 +1221,59 @@ public class BatchJobService implements ModuleEventListener {
     return this.running;
   }
 
+  /**
+   * Check if the group has been executing for much longer than the recent groups of the
+   * business application. Only groups from jobs that have no more groups to schedule are
+   * checked, as there are other groups for the workers to execute until then. Business
+   * applications with per request result data aren't checked as the results are written as they
+   * are received.
+   */
+  private boolean isStraggler(final BatchJobRequestExecutionGroup group, final long currentTime) {
+    final BusinessApplication businessApplication = group.getBusinessApplication();
+    if (businessApplication == null || businessApplication.isPerRequestResultData()) {
+      return false;
+    } else if (group.isCancelled() || group.hasDuplicate()) {
+      return false;
+    } else if (group.getBatchJob().hasAvailableGroup()) {
+      return false;
+    } else {
+      final GroupExecutionTimes executionTimes = this.groupExecutionTimesByBusinessApplicationName
+        .get(businessApplication.getName());
+      if (executionTimes == null || executionTimes.getCount() < SPECULATIVE_MIN_GROUP_COUNT) {
+        return false;
+      } else {
+        final long executionTime = currentTime - group.getExecutionStartTime();
+        final long maxExecutionTime = Math
+          .round(executionTimes.getPercentile(0.9) * this.speculativeExecutionFactor);
+        return executionTime > Math.max(SPECULATIVE_MIN_EXECUTION_TIME, maxExecutionTime);
+      }
+    }
+  }
+
+  /**
+   * Lease up to maxGroups execution groups to the worker. Only the first read waits for a group
+   * to be available, the remaining groups are only included if they are already queued.
+   */
+  public List<Map<String, Object>> leaseBatchJobRequestExecutionGroups(final String workerId,
+    final List<String> moduleNames, final int maxGroups) {
+    final List<Map<String, Object>> groups = new ArrayList<>();
+    long waitTime = Math.min(10000, this.maxWorkerWaitTime);
+    for (int i = 0; i < maxGroups && this.running && waitTime > 0; i++) {
+      final BatchJobRequestExecutionGroup group = readGroupToSchedule(workerId, waitTime,
+        moduleNames);
+      if (group == null) {
+        break;
+      } else {
+        final Map<String, Object> response = new HashMap<>();
+        if (startGroupExecution(workerId, group, response)) {
+          groups.add(response);
+        }
+      }
+      waitTime = 1;
+    }
+    return groups;
+  }
+
   @Override
   public void moduleChanged(final ModuleEvent event) {
     try (
@@ -955,7 +1356,21 @@ public class BatchJobService implements ModuleEventListener {
     this.dataAccessObject.write(result);
   }
 
-  private RecordWriter newStructuredResultWriter(final BatchJob batchJob,
+  private void newJobController() {
+    if (this.dataAccessObject != null) {
+      if (this.segmentStoreDirectory != null) {
+        final SegmentStore segmentStore = new LocalDirectorySegmentStore(
+          this.segmentStoreDirectory);
+        this.jobController = new SegmentStoreJobController(this.dataAccessObject, segmentStore);
+      } else if (this.jobFileDirectory != null) {
+        this.jobController = new FileJobController(this, this.jobFileDirectory);
+      } else {
+        this.jobController = new DatabaseJobController(this.dataAccessObject);
+      }
+    }
+  }
+
+  RecordWriter newStructuredResultWriter(final BatchJob batchJob,
     final Identifier batchJobId, final BusinessApplication application,
     final com.revolsys.spring.resource.Resource resource,
     final RecordDefinition resultRecordDefinition, final String resultFormat) {
@@ -997,6 +1412,19 @@ public class BatchJobService implements ModuleEventListener {
     return this.dataAccessObject.newTransaction(options);
   }
 
+  private void notifyBatchJobStatusListeners(final Set<BatchJobStatusListener> listeners,
+    final BatchJob batchJob, final String jobStatus, final long time) {
+    if (listeners != null) {
+      for (final BatchJobStatusListener listener : listeners) {
+        try {
+          listener.batchJobStatusChanged(batchJob, jobStatus, time);
+        } catch (final Throwable e) {
+          Logs.error(this, "Unable to notify job status listener", e);
+        }
+      }
+    }
+  }
+
   public void postProcess(final Identifier batchJobId) {
     if (this.postProcess != null) {
       SendToChannelAfterCommit.send(this.postProcess.getIn(), batchJobId);
@@ -1147,6 +1575,26 @@ public class BatchJobService implements ModuleEventListener {
    */
   protected void postProcessCreateStructuredResults(final BusinessApplication businessApplication,
     final AppLog log, final BatchJob batchJob, final Identifier batchJobId) {
+    final StructuredResultAssembler assembler;
+    synchronized (this.structuredResultAssemblers) {
+      assembler = this.structuredResultAssemblers.remove(batchJobId);
+    }
+    if (assembler != null) {
+      try {
+        if (assembler.finish(batchJob.getNumSubmittedGroups())) {
+          if (assembler.hasResults() && !batchJob.isCancelled()) {
+            final String resultFormat = batchJob.getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
+            newBatchJobResult(batchJobId, BatchJobResult.STRUCTURED_RESULT_DATA, resultFormat,
+              assembler.getResultFile(), 1);
+          }
+          return;
+        }
+      } catch (final Throwable e) {
+        throw new RuntimeException("Unable to save results", e);
+      } finally {
+        assembler.close();
+      }
+    }
     if (!batchJob.isCancelled()) {
       final String resultFormat = batchJob.getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
       final String fileExtension = IoFactory.fileExtensionByMediaType(resultFormat);
@@ -1217,12 +1665,129 @@ public class BatchJobService implements ModuleEventListener {
     return jobPreProcessTask.process();
   }
 
+  /**
+   * Read the next group to schedule for one of the modules.
+   *
+   * @param waitTime The maximum time in milliseconds to wait for a group.
+   * @param moduleNames The names of the modules to read groups for.
+   * @return The group or null if there wasn't a group available.
+   */
+  public BatchJobRequestExecutionGroup readGroupToSchedule(final long waitTime,
+    final List<String> moduleNames) {
+    try {
+      final NamedChannelBundle<BatchJobRequestExecutionGroup> groupsToSchedule = this.groupsToSchedule;
+      if (groupsToSchedule != null) {
+        return groupsToSchedule.read(waitTime, moduleNames);
+      }
+    } catch (final ClosedException e) {
+      if (this.running) {
+        Logs.error(this, "Groups to schedule unexpectedly closed");
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Read the next group for the worker to execute. If worker affinity is enabled any group held
+   * for the worker is returned first, and groups that another worker has a higher affinity for
+   * are held for that worker.
+   *
+   * @param workerId The worker identifier.
+   * @param waitTime The maximum time in milliseconds to wait for a group.
+   * @param moduleNames The names of the modules to read groups for.
+   * @return The group or null if there wasn't a group available.
+   */
+  private BatchJobRequestExecutionGroup readGroupToSchedule(final String workerId,
+    final long waitTime, final List<String> moduleNames) {
+    final WorkerAffinityScheduler workerAffinityScheduler = this.workerAffinityScheduler;
+    final Worker worker = getWorker(workerId);
+    if (workerAffinityScheduler == null || worker == null) {
+      return readGroupToSchedule(waitTime, moduleNames);
+    } else {
+      final long endTime = System.currentTimeMillis() + waitTime;
+      long remainingTime = waitTime;
+      while (this.running && remainingTime > 0) {
+        workerAffinityScheduler.releaseExpiredGroups();
+        BatchJobRequestExecutionGroup group = workerAffinityScheduler.pollGroup(workerId,
+          moduleNames);
+        if (group == null) {
+          final long readWaitTime = workerAffinityScheduler.getWaitTime(remainingTime);
+          group = readGroupToSchedule(readWaitTime, moduleNames);
+          if (group != null && workerAffinityScheduler.holdGroup(worker, group)) {
+            group = null;
+            final NamedChannelBundle<BatchJobRequestExecutionGroup> groupsToSchedule = this.groupsToSchedule;
+            if (groupsToSchedule != null) {
+              groupsToSchedule.notifyReaders();
+            }
+          }
+        }
+        if (group != null) {
+          return group;
+        }
+        remainingTime = endTime - System.currentTimeMillis();
+      }
+      return null;
+    }
+  }
+
+  public void removeBatchJobStatusListener(final Identifier batchJobId,
+    final BatchJobStatusListener listener) {
+    this.batchJobStatusListenersByBatchJobId.computeIfPresent(batchJobId.getLong(0),
+      (key, listeners) -> {
+        listeners.remove(listener);
+        if (listeners.isEmpty()) {
+          return null;
+        } else {
+          return listeners;
+        }
+      });
+  }
+
+  public void removeBatchJobStatusListener(final String consumerKey,
+    final BatchJobStatusListener listener) {
+    this.batchJobStatusListenersByConsumerKey.computeIfPresent(consumerKey, (key, listeners) -> {
+      listeners.remove(listener);
+      if (listeners.isEmpty()) {
+        return null;
+      } else {
+        return listeners;
+      }
+    });
+  }
+
   protected void removePreProcessedJobId(final Identifier batchJobId) {
     synchronized (this.preprocesedJobIds) {
       this.preprocesedJobIds.remove(batchJobId);
     }
   }
 
+  /**
+   * Remove the cancelled group from the scheduler's count of concurrently scheduled groups.
+   *
+   * @param group The group.
+   */
+  private void removeScheduledGroup(final BatchJobRequestExecutionGroup group) {
+    final BatchJobScheduler scheduler = this.scheduler;
+    if (scheduler != null) {
+      scheduler.removeScheduledGroup(group);
+    }
+  }
+
+  /**
+   * Remove the job's structured result assembler and delete the partial result file.
+   *
+   * @param batchJobId The batch job identifier.
+   */
+  private void removeStructuredResultAssembler(final Identifier batchJobId) {
+    final StructuredResultAssembler assembler;
+    synchronized (this.structuredResultAssemblers) {
+      assembler = this.structuredResultAssemblers.remove(batchJobId);
+    }
+    if (assembler != null) {
+      assembler.close();
+    }
+  }
+
   public void rescheduleGroup(final BatchJobRequestExecutionGroup group) {
     if (this.running) {
       final BatchJob batchJob = group.getBatchJob();
@@ -1305,8 +1870,12 @@ public class BatchJobService implements ModuleEventListener {
                     final String groupId = group.getId();
                     Logs.debug(this, "Rescheduling group " + groupId + " from worker " + workerId);
                     worker.removeExecutingGroup(groupId);
-                    group.resetId();
-                    rescheduleGroup(group);
+                    if (group.removeDuplicate() == null) {
+                      group.resetId();
+                      rescheduleGroup(group);
+                    } else {
+                      cancelDuplicateGroup(group);
+                    }
                   }
                 }
               }
@@ -1455,6 +2024,32 @@ public class BatchJobService implements ModuleEventListener {
     }
   }
 
+  /**
+   * Schedule a speculative copy of any executing group that is taking much longer than the
+   * recent groups of the business application. The first result received for either copy is
+   * used and the other copy is cancelled.
+   */
+  public void scheduleSpeculativeGroups() {
+    if (this.running && this.speculativeExecutionFactor > 0) {
+      final long currentTime = System.currentTimeMillis();
+      final List<Worker> workers = getWorkers();
+      for (final Worker worker : workers) {
+        for (final BatchJobRequestExecutionGroup group : worker.getExecutingGroups()) {
+          if (isStraggler(group, currentTime)) {
+            final BatchJobRequestExecutionGroup speculativeGroup = group.newSpeculativeGroup();
+            if (speculativeGroup != null) {
+              final AppLog log = group.getBusinessApplication().getLog();
+              log.info("Schedule\tSpeculative group execution\tgroupId="
+                + speculativeGroup.getId() + "\tstragglerGroupId=" + group.getId() + "\tworkerId="
+                + worker.getId());
+              scheduleGroup(speculativeGroup);
+            }
+          }
+        }
+      }
+    }
+  }
+
   public void scheduleJob(final BatchJob batchJob) {
     if (this.running) {
       final BatchJobScheduler scheduler = this.scheduler;
@@ -1465,11 +2060,14 @@ public class BatchJobService implements ModuleEventListener {
   }
 
   /**
-   * @param batchJobId The Record identifier.
-   * @param batchJob The BatchJob.
+   * Queue the notification for the job to be sent by the {@link NotificationDispatcher} once
+   * the transaction has been committed.
+   *
+   * @param batchJobId The batch job identifier.
+   * @param batchJob The batch job.
    */
   public void sendNotification(final Identifier batchJobId, final BatchJob batchJob) {
-    String notificationUrl = batchJob.getValue(BatchJob.NOTIFICATION_URL);
+    final String notificationUrl = batchJob.getValue(BatchJob.NOTIFICATION_URL);
     if (Property.hasValue(notificationUrl)) {
       try {
         String baseUrl = this.getBaseUrl();
@@ -1493,30 +2091,17 @@ public class BatchJobService implements ModuleEventListener {
         final Map<String, Object> jobMap = toMap(batchJob, batchJobUrl, 0);
         final String subject = "CPF Job " + batchJobId + " status";
 
-        URI notificationUri = new URI(notificationUrl);
+        final URI notificationUri = new URI(notificationUrl);
         final String scheme = notificationUri.getScheme();
         if (scheme != null) {
+          final JsonObject notification = JsonObject.hash()
+            .add("batchJobId", batchJobId.toString());
           if (scheme.equals("mailto")) {
-            final StringWriter bodyOut = new StringWriter();
-
-            final MapWriter writer = new XhtmlMapWriter(bodyOut);
-            writer.setProperty("title", subject);
-            writer.write(jobMap);
-            writer.close();
-
-            final MimeMessage message = this.mailSender.createMimeMessage();
-
-            final MimeMessageHelper messageHelper = new MimeMessageHelper(message);
-            messageHelper.setTo(notificationUri.getSchemeSpecificPart());
-            messageHelper.setSubject(subject);
-            messageHelper.setFrom(this.fromEmail);
-            messageHelper.setText(bodyOut.toString(), true);
-            this.mailSender.send(message);
+            notification.add("notificationUrl", notificationUrl);
+            notification.add("job", jobMap);
+            Transaction
+              .afterCommit(() -> this.notificationDispatcher.addNotification(notification));
           } else if (scheme.equals("http") || scheme.equals("https")) {
-            notificationUrl = UrlUtil.getUrl(notificationUrl,
-              Collections.singletonMap("batchJobUrl", batchJobUrl));
-            notificationUri = new URI(notificationUrl);
-            final StringWriter bodyOut = new StringWriter();
             final String contentType = batchJob.getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
             final MapWriterFactory writerFactory = IoFactory
               .factoryByMediaType(MapWriterFactory.class, contentType);
@@ -1524,30 +2109,17 @@ public class BatchJobService implements ModuleEventListener {
               Logs.error(this,
                 "Media type not supported for Record #" + batchJobId + " to " + contentType);
             } else {
+              final StringWriter bodyOut = new StringWriter();
               final MapWriter writer = writerFactory.newMapWriter(bodyOut);
               writer.setProperty("title", subject);
               writer.write(jobMap);
               writer.close();
-              final HttpEntity body = new StringEntity(bodyOut.toString());
-              try (
-                @SuppressWarnings("deprecation")
-                final CloseableHttpClient client = new DefaultHttpClient()) {
-                final HttpPost request = new HttpPost(notificationUri);
-                request.setHeader("Content-type", contentType);
-                request.setEntity(body);
-                final HttpResponse response = client.execute(request);
-                final HttpEntity entity = response.getEntity();
-                try {
-                  final StatusLine statusLine = response.getStatusLine();
-                  if (statusLine.getStatusCode() >= 400) {
-                    Logs.error(this, "Unable to send notification for Record #" + batchJobId
-                      + " to " + notificationUrl + " response=" + statusLine);
-                  }
-                } finally {
-                  final InputStream content = entity.getContent();
-                  FileUtil.closeSilent(content);
-                }
-              }
+              notification.add("notificationUrl", UrlUtil.getUrl(notificationUrl,
+                Collections.singletonMap("batchJobUrl", batchJobUrl)));
+              notification.add("contentType", contentType);
+              notification.add("body", bodyOut.toString());
+              Transaction
+                .afterCommit(() -> this.notificationDispatcher.addNotification(notification));
             }
           }
         }
@@ -1589,9 +2161,7 @@ public class BatchJobService implements ModuleEventListener {
 
   public void setDataAccessObject(final CpfDataAccessObject dataAccessObject) {
     this.dataAccessObject = dataAccessObject;
-    this.jobController = new DatabaseJobController(dataAccessObject);
-    // this.jobController = new FileJobController(this, new
-    // File("/apps/data/cpf"));
+    newJobController();
   }
 
   public void setDaysToKeepOldJobs(final int daysToKeepOldJobs) {
@@ -1607,6 +2177,38 @@ public class BatchJobService implements ModuleEventListener {
     this.fromEmail = fromEmail;
   }
 
+  /**
+   * Set the directory used to store the job files as local files using a
+   * {@link FileJobController}. Job results are then sent using the container's sendfile support
+   * if available. Ignored if the segmentStoreDirectory is set. If neither is set the job files
+   * are stored in the CPF_BATCH_JOB_FILES table.
+   *
+   * @param jobFileDirectory The job file directory.
+   */
+  public void setJobFileDirectory(final File jobFileDirectory) {
+    this.jobFileDirectory = jobFileDirectory;
+    newJobController();
+  }
+
+  /**
+   * Set the maximum time in milliseconds a batch job update will wait before being written to the
+   * database.
+   *
+   * @param jobUpdateFlushInterval The flush interval in milliseconds.
+   */
+  public void setJobUpdateFlushInterval(final long jobUpdateFlushInterval) {
+    this.jobUpdator.setFlushInterval(jobUpdateFlushInterval);
+  }
+
+  /**
+   * Set the maximum number of batch job updates written in a single batch.
+   *
+   * @param jobUpdateMaxBatchSize The maximum batch size.
+   */
+  public void setJobUpdateMaxBatchSize(final int jobUpdateMaxBatchSize) {
+    this.jobUpdator.setMaxBatchSize(jobUpdateMaxBatchSize);
+  }
+
   public void setJsonpEnabled(final boolean jsonpEnabled) {
     this.jsonpEnabled = jsonpEnabled;
   }
@@ -1620,10 +2222,57 @@ public class BatchJobService implements ModuleEventListener {
     this.mailSender = mailSender;
   }
 
+  /**
+   * Set the maximum number of requests in a group when adaptive group sizing is enabled.
+   *
+   * @param maxAdaptiveGroupSize The maximum group size.
+   */
+  public void setMaxAdaptiveGroupSize(final int maxAdaptiveGroupSize) {
+    this.maxAdaptiveGroupSize = Math.max(1, maxAdaptiveGroupSize);
+  }
+
+  /**
+   * Set the maximum number of jobs that have their structured results assembled as the group
+   * results are received. Set to 0 to create all structured results in post-process.
+   *
+   * @param maxStructuredResultAssemblers The maximum number of jobs.
+   */
+  public void setMaxStructuredResultAssemblers(final int maxStructuredResultAssemblers) {
+    this.maxStructuredResultAssemblers = maxStructuredResultAssemblers;
+  }
+
   public void setMaxWorkerWaitTime(final long maxWorkerWaitTime) {
     this.maxWorkerWaitTime = maxWorkerWaitTime * 1000;
   }
 
+  public void setNotificationInitialRetryDelay(final long initialRetryDelay) {
+    this.notificationDispatcher.setInitialRetryDelay(initialRetryDelay);
+  }
+
+  public void setNotificationMailBatchInterval(final long mailBatchInterval) {
+    this.notificationDispatcher.setMailBatchInterval(mailBatchInterval);
+  }
+
+  public void setNotificationMaxAttempts(final int maxAttempts) {
+    this.notificationDispatcher.setMaxAttempts(maxAttempts);
+  }
+
+  public void setNotificationMaxConnections(final int maxConnections) {
+    this.notificationDispatcher.setMaxConnections(maxConnections);
+  }
+
+  public void setNotificationMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+    this.notificationDispatcher.setMaxConnectionsPerHost(maxConnectionsPerHost);
+  }
+
+  public void setNotificationMaxRetryDelay(final long maxRetryDelay) {
+    this.notificationDispatcher.setMaxRetryDelay(maxRetryDelay);
+  }
+
+  public void setNotificationTimeout(final int timeout) {
+    this.notificationDispatcher.setTimeout(timeout);
+  }
+
   public void setPostProcess(final BatchJobPostProcess postProcess) {
     this.postProcess = postProcess;
     postProcess.getIn().writeConnect();
@@ -1638,6 +2287,42 @@ public class BatchJobService implements ModuleEventListener {
     this.scheduler = scheduler;
   }
 
+  /**
+   * Set the directory used to store the job files in a {@link LocalDirectorySegmentStore}. If not
+   * set the job files are stored in the CPF_BATCH_JOB_FILES table.
+   *
+   * @param segmentStoreDirectory The segment store directory.
+   */
+  public void setSegmentStoreDirectory(final File segmentStoreDirectory) {
+    this.segmentStoreDirectory = segmentStoreDirectory;
+    newJobController();
+  }
+
+  /**
+   * Set the factor of the 90th percentile of the recent group execution times that a group can
+   * execute for before a speculative copy of the group is scheduled on another worker. Set to 0
+   * to disable speculative execution.
+   *
+   * @param speculativeExecutionFactor The factor.
+   */
+  public void setSpeculativeExecutionFactor(final double speculativeExecutionFactor) {
+    this.speculativeExecutionFactor = speculativeExecutionFactor;
+    if (speculativeExecutionFactor <= 0) {
+      this.groupExecutionTimesByBusinessApplicationName.clear();
+    }
+  }
+
+  /**
+   * Set the target time (in milliseconds) for a group to execute on a worker. If greater than 0
+   * the group size of each job is chosen from the recent average request execution time and the
+   * groups at the end of a job are made smaller.
+   *
+   * @param targetGroupExecutionTime The target group execution time.
+   */
+  public void setTargetGroupExecutionTime(final long targetGroupExecutionTime) {
+    this.targetGroupExecutionTime = targetGroupExecutionTime;
+  }
+
   public void setTimeoutForCapacityErrors(final long timeoutForCapacityErrors) {
     this.timeoutForCapacityErrors = timeoutForCapacityErrors * 60 * 1000;
   }
@@ -1646,6 +2331,25 @@ public class BatchJobService implements ModuleEventListener {
     this.userClassBaseUrls = userClassBaseUrls;
   }
 
+  /**
+   * Set the maximum time (in milliseconds) a group is held for the worker with the highest
+   * affinity for the group before any worker can execute it. Set to 0 to disable worker affinity.
+   *
+   * @param workerAffinitySpillOverTime The spill over time.
+   */
+  public void setWorkerAffinitySpillOverTime(final long workerAffinitySpillOverTime) {
+    final WorkerAffinityScheduler workerAffinityScheduler = this.workerAffinityScheduler;
+    if (workerAffinitySpillOverTime > 0) {
+      this.workerAffinityScheduler = new WorkerAffinityScheduler(this,
+        workerAffinitySpillOverTime);
+    } else {
+      this.workerAffinityScheduler = null;
+    }
+    if (workerAffinityScheduler != null) {
+      workerAffinityScheduler.clear();
+    }
+  }
+
   public void setWorkerConnected(final String workerId, final long workerStartTime,
     final Session session) {
     synchronized (this.workersById) {
@@ -1718,6 +2422,96 @@ public class BatchJobService implements ModuleEventListener {
     }
   }
 
+  /**
+   * Update the number of groups that can be pushed to the worker.
+   *
+   * @param worker The worker.
+   * @param message The groupCredits message from the worker.
+   */
+  public void setWorkerGroupCredits(final Worker worker, final MapEx message) {
+    final int credits = message.getInteger("credits", 0);
+    final int executingGroupCount = message.getInteger("executingGroupCount", 0);
+    final List<String> moduleNames = message.getValue("moduleNames");
+    worker.setGroupCredits(credits, executingGroupCount, moduleNames);
+    setWorkerConnectTime(worker.getId(), worker.getStartTime());
+    final WorkerGroupDispatcher groupDispatcher = this.groupDispatcher;
+    if (groupDispatcher != null) {
+      groupDispatcher.creditsChanged();
+    }
+    final NamedChannelBundle<BatchJobRequestExecutionGroup> groupsToSchedule = this.groupsToSchedule;
+    if (groupsToSchedule != null) {
+      groupsToSchedule.notifyReaders();
+    }
+  }
+
+  /**
+   * Record that the group is executing on the worker and add the group details the worker needs
+   * to the response. If the group can't be executed on the worker it is rescheduled.
+   *
+   * @param workerId The worker identifier.
+   * @param group The group to execute.
+   * @param response The response to add the group details to.
+   * @return True if the group was added to the worker.
+   */
+  private boolean startGroupExecution(final String workerId,
+    final BatchJobRequestExecutionGroup group, final Map<String, Object> response) {
+    if (this.running && group != null && !group.isCancelled()) {
+      final BusinessApplication businessApplication = group.getBusinessApplication();
+      if (businessApplication == null) {
+        rescheduleGroup(group);
+      } else {
+        final String businessApplicationName = businessApplication.getName();
+        final Module module = businessApplication.getModule();
+        if (module == null || !module.isStarted()) {
+          scheduleGroup(group);
+        } else {
+          final String moduleName = group.getModuleName();
+          final long moduleStartTime = module.getStartedTime();
+          final Worker worker = getWorker(workerId);
+          final BatchJobRequestExecutionGroup duplicate = group.getDuplicate();
+          if (worker == null || moduleStartTime == -1 || !module.isStarted()) {
+            scheduleGroup(group);
+          } else if (duplicate != null && workerId.equals(duplicate.getWorkerId())) {
+            // Don't execute a speculative copy on the same worker as the original group
+            group.removeDuplicate();
+            group.cancelDuplicate();
+            removeScheduledGroup(group);
+          } else {
+            // Maps.addToSet(this.scheduledGroups, moduleName, group);
+            group.setWorkerId(workerId);
+            try {
+              response.put("workerId", workerId);
+              response.put("moduleName", moduleName);
+              response.put("moduleTime", moduleStartTime);
+              response.put("businessApplicationName", businessApplicationName);
+              response.put("logLevel", businessApplication.getLogLevel());
+
+              group.setExecutionStartTime(System.currentTimeMillis());
+              final String groupId = group.getId();
+              final Identifier batchJobId = group.getBatchJobId();
+              final String baseId = group.getBaseId();
+
+              response.put("batchJobId", batchJobId);
+              response.put("baseId", baseId);
+              response.put("groupId", groupId);
+              response.put("applicationParameters", group.getBusinessApplicationParameterMap());
+              if (businessApplication.isPerRequestResultData()) {
+                response.put("resultDataContentType", group.getResultDataContentType());
+              }
+              final AppLog log = businessApplication.getLog();
+              log.info("Start\tGroup execution\tgroupId=" + groupId + "\tworkerId=" + workerId);
+              response.put("consumerKey", group.getconsumerKey());
+            } finally {
+              worker.addExecutingGroup(moduleName, moduleStartTime, group);
+            }
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
   public Map<String, Object> toMap(final BatchJob batchJob, final String jobUrl,
     final long timeUntilNextCheck) {
     try {
@@ -1777,13 +2571,17 @@ public class BatchJobService implements ModuleEventListener {
       final int sequenceNumber = group.getSequenceNumber();
       final Identifier batchJobId = batchJob.getIdentifier();
       final BusinessApplication businessApplication = group.getBusinessApplication();
-      if (!businessApplication.isPerRequestResultData()) {
+      if (in != null && !businessApplication.isPerRequestResultData()) {
         this.jobController.setGroupResult(batchJobId, sequenceNumber, in);
       }
       batchJob.addCompletedGroup(sequenceNumber);
+      if (!businessApplication.isPerRequestResultData()) {
+        appendStructuredResults(batchJob, businessApplication);
+      }
       if (batchJob.isCompleted()) {
-        batchJob.setStatus(this, BatchJobStatus.PROCESSING, BatchJobStatus.PROCESSED);
-        postProcess(batchJobId);
+        if (batchJob.setStatus(this, BatchJobStatus.PROCESSING, BatchJobStatus.PROCESSED)) {
+          postProcess(batchJobId);
+        }
       } else if (batchJob.hasAvailableGroup()) {
         scheduleJob(batchJob);
       }
@@ -1821,6 +2619,42 @@ public class BatchJobService implements ModuleEventListener {
     }
   }
 
+  /**
+   * Write the bytes fromIndex to toIndex (inclusive) of the result. If the result is stored in a
+   * file it is written using {@link FileChannel#transferTo(long, long, WritableByteChannel)}
+   * instead of being read from the job controller's input stream. The data is still copied through
+   * a buffer to the servlet output stream, only the container's sendfile support avoids that.
+   */
+  private void writeBatchJobResult(final OutputStream out, final Identifier batchJobId,
+    final int resultId, final Record batchJobResult, final File resultFile,
+    final boolean hasRange, final long fromIndex, final long toIndex) throws IOException {
+    if (resultFile == null) {
+      try (
+        final InputStream in = getBatchJobResultData(batchJobId, resultId, batchJobResult,
+          hasRange, fromIndex, toIndex)) {
+        if (hasRange) {
+          FileUtil.copy(in, out, toIndex - fromIndex + 1);
+        } else {
+          FileUtil.copy(in, out);
+        }
+      }
+    } else {
+      try (
+        FileChannel channel = FileChannel.open(resultFile.toPath(), StandardOpenOption.READ)) {
+        final WritableByteChannel target = Channels.newChannel(out);
+        final long endIndex = toIndex + 1;
+        long position = fromIndex;
+        while (position < endIndex) {
+          final long count = channel.transferTo(position, endIndex - position, target);
+          if (count <= 0) {
+            break;
+          }
+          position += count;
+        }
+      }
+    }
+  }
+
   public void writeErrorResults(final AppLog log, final BatchJob batchJob,
     final Identifier batchJobId, final MapWriter errorWriter) {
     if (!batchJob.isCancelled()) {
@@ -0,0 +1,26 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import ca.bc.gov.open.cpf.api.domain.BatchJob;
+
+/**
+ * A listener that is notified after a {@link BatchJob}'s status change has been committed.
+ */
+@FunctionalInterface
+public interface BatchJobStatusListener {
+  void batchJobStatusChanged(BatchJob batchJob, String jobStatus, long time);
+}
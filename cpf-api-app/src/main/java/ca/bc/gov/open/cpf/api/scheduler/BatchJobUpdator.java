@@ -1,71 +1,204 @@
 package ca.bc.gov.open.cpf.api.scheduler;
 
+import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.LinkedHashSet;
-import java.util.Set;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jeometry.common.data.identifier.Identifier;
+import org.jeometry.common.logging.Logs;
 
 import ca.bc.gov.open.cpf.api.domain.BatchJob;
 
+import com.revolsys.record.io.RecordWriter;
+import com.revolsys.record.schema.RecordStore;
 import com.revolsys.transaction.Propagation;
 import com.revolsys.transaction.Transaction;
 
+/**
+ * Write-behind updates of {@link BatchJob}s. Multiple updates to the same job are coalesced and
+ * the modified jobs are written using a batched {@link RecordWriter}. The jobs are written when
+ * maxBatchSize jobs are waiting or the oldest waiting update is flushInterval milliseconds old, so
+ * a job's row is never more than flushInterval (plus the write time) out of date. Any waiting
+ * updates are written when the updator is stopped.
+ */
 public class BatchJobUpdator implements Runnable {
 
-  private boolean running = true;
+  private volatile boolean running = true;
+
+  private final Map<Identifier, BatchJob> jobs = new LinkedHashMap<>();
+
+  private final Map<Identifier, Long> updateTimes = new LinkedHashMap<>();
 
-  private final Set<BatchJob> jobs = new LinkedHashSet<>();
+  private long flushInterval = 1000;
+
+  private int maxBatchSize = 100;
+
+  private final Thread thread;
 
   public BatchJobUpdator() {
-    final Thread thread = new Thread(this);
-    thread.setDaemon(true);
-    thread.start();
+    this.thread = new Thread(this, "cpf-batch-job-updator");
+    this.thread.setDaemon(true);
+    this.thread.start();
   }
 
-  private BatchJob getBatchJob() {
+  private void flush(final List<BatchJob> batchJobs) {
+    if (!batchJobs.isEmpty()) {
+      final RecordStore recordStore = batchJobs.get(0).getRecordStore();
+      try (
+        Transaction transaction = recordStore.newTransaction(Propagation.REQUIRED)) {
+        try (
+          RecordWriter writer = recordStore.newRecordWriter()) {
+          for (final BatchJob batchJob : batchJobs) {
+            batchJob.update(writer);
+          }
+          return;
+        } catch (final Throwable e) {
+          transaction.setRollbackOnly();
+          Logs.error(this,
+            "Unable to update " + batchJobs.size() + " batch jobs, updating individually", e);
+        }
+      }
+      for (final BatchJob batchJob : batchJobs) {
+        try (
+          Transaction transaction = recordStore.newTransaction(Propagation.REQUIRED)) {
+          try {
+            batchJob.update();
+          } catch (final Throwable e) {
+            transaction.setRollbackOnly();
+            Logs.error(this, "Unable to update batch job " + batchJob, e);
+          }
+        }
+      }
+    }
+  }
+
+  public long getFlushInterval() {
+    return this.flushInterval;
+  }
+
+  public int getMaxBatchSize() {
+    return this.maxBatchSize;
+  }
+
+  /**
+   * Wait until a batch is ready to write and remove up to maxBatchSize jobs.
+   *
+   * @return The jobs to write, an empty list if stopped and there are no jobs.
+   */
+  private List<BatchJob> nextBatch() {
     synchronized (this.jobs) {
-      while (this.running && this.jobs.isEmpty()) {
-        try {
-          this.jobs.wait();
-        } catch (final InterruptedException e) {
-          this.running = false;
+      while (this.running) {
+        if (this.jobs.isEmpty()) {
+          waitForUpdates(0);
+        } else {
+          final long oldestUpdateTime = this.updateTimes.values().iterator().next();
+          final long waitTime = oldestUpdateTime + this.flushInterval
+            - System.currentTimeMillis();
+          if (this.jobs.size() >= this.maxBatchSize || waitTime <= 0) {
+            break;
+          } else {
+            waitForUpdates(waitTime);
+          }
         }
       }
-      if (this.running) {
-        final Iterator<BatchJob> iterator = this.jobs.iterator();
-        final BatchJob job = iterator.next();
+      final List<BatchJob> batchJobs = new ArrayList<>();
+      final Iterator<BatchJob> iterator = this.jobs.values().iterator();
+      while (iterator.hasNext() && batchJobs.size() < this.maxBatchSize) {
+        final BatchJob batchJob = iterator.next();
         iterator.remove();
-        return job;
-      } else {
-        return null;
+        this.updateTimes.remove(batchJob.getIdentifier());
+        batchJobs.add(batchJob);
       }
+      return batchJobs;
     }
   }
 
   @Override
   public void run() {
     while (this.running) {
-      final BatchJob batchJob = getBatchJob();
-      if (batchJob != null) {
-        try (
-          Transaction transaction = batchJob.getRecordStore()
-            .newTransaction(Propagation.REQUIRED)) {
-          batchJob.update();
-        }
+      try {
+        final List<BatchJob> batchJobs = nextBatch();
+        flush(batchJobs);
+      } catch (final Throwable e) {
+        Logs.error(this, "Unable to update batch jobs", e);
       }
     }
+    writeRemaining();
+  }
+
+  /**
+   * Set the maximum time in milliseconds an update will wait before being written.
+   *
+   * @param flushInterval The flush interval in milliseconds.
+   */
+  public void setFlushInterval(final long flushInterval) {
+    if (flushInterval < 0) {
+      throw new IllegalArgumentException("flushInterval must be >= 0 not " + flushInterval);
+    }
+    synchronized (this.jobs) {
+      this.flushInterval = flushInterval;
+      this.jobs.notifyAll();
+    }
+  }
+
+  /**
+   * Set the number of waiting jobs that will cause the jobs to be written and the maximum number of
+   * jobs written in a single transaction.
+   *
+   * @param maxBatchSize The maximum batch size.
+   */
+  public void setMaxBatchSize(final int maxBatchSize) {
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("maxBatchSize must be >= 1 not " + maxBatchSize);
+    }
+    synchronized (this.jobs) {
+      this.maxBatchSize = maxBatchSize;
+      this.jobs.notifyAll();
+    }
   }
 
+  /**
+   * Stop the updator, waiting for any waiting updates to be written.
+   */
   public void stop() {
     this.running = false;
     synchronized (this.jobs) {
       this.jobs.notifyAll();
     }
+    try {
+      this.thread.join(this.flushInterval + 30000);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   public void updateJob(final BatchJob batchJob) {
     synchronized (this.jobs) {
-      this.jobs.add(batchJob);
-      this.jobs.notifyAll();
+      final Identifier batchJobId = batchJob.getIdentifier();
+      this.jobs.put(batchJobId, batchJob);
+      this.updateTimes.putIfAbsent(batchJobId, System.currentTimeMillis());
+      if (this.jobs.size() == 1 || this.jobs.size() >= this.maxBatchSize) {
+        this.jobs.notifyAll();
+      }
+    }
+    if (!this.running) {
+      writeRemaining();
+    }
+  }
+
+  private void waitForUpdates(final long waitTime) {
+    try {
+      this.jobs.wait(waitTime);
+    } catch (final InterruptedException e) {
+      this.running = false;
+    }
+  }
+
+  private void writeRemaining() {
+    for (List<BatchJob> batchJobs = nextBatch(); !batchJobs.isEmpty(); batchJobs = nextBatch()) {
+      flush(batchJobs);
     }
   }
 }
@@ -0,0 +1,210 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ToIntFunction;
+
+import org.jeometry.common.data.identifier.Identifier;
+
+import ca.bc.gov.open.cpf.api.domain.BatchJob;
+
+/**
+ * The queue of {@link BatchJob}s ready to have a group scheduled and the count of the groups
+ * currently scheduled for a business application.
+ *
+ * Jobs are queued per USER_ID and the users are served using deficit round robin. Each time a
+ * user reaches the head of the round they are given their weight in credits and a job is polled
+ * for each credit before moving on to the next user. A user with many queued jobs can't starve
+ * the other users of the business application.
+ */
+public class BusinessApplicationJobQueue {
+  private static class UserJobQueue {
+    private int deficit = 0;
+
+    private final Queue<BatchJob> jobs = new ArrayDeque<>();
+  }
+
+  private final String businessApplicationName;
+
+  private final Set<Identifier> jobIds = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, UserJobQueue> jobsByUserId = new LinkedHashMap<>();
+
+  private final Deque<String> activeUserIds = new ArrayDeque<>();
+
+  private final AtomicInteger scheduledGroupCount = new AtomicInteger();
+
+  private final Set<BatchJobRequestExecutionGroup> scheduledGroups = ConcurrentHashMap.newKeySet();
+
+  public BusinessApplicationJobQueue(final String businessApplicationName) {
+    this.businessApplicationName = businessApplicationName;
+  }
+
+  /**
+   * Add the job to the end of the user's queue if it isn't already queued.
+   *
+   * @param batchJob The batch job.
+   * @return True if the job was added.
+   */
+  public synchronized boolean addJob(final BatchJob batchJob) {
+    final Identifier batchJobId = batchJob.getIdentifier();
+    if (this.jobIds.add(batchJobId)) {
+      final String userId = getUserId(batchJob);
+      UserJobQueue userJobs = this.jobsByUserId.get(userId);
+      if (userJobs == null) {
+        userJobs = new UserJobQueue();
+        this.jobsByUserId.put(userId, userJobs);
+      }
+      if (userJobs.jobs.isEmpty()) {
+        this.activeUserIds.addLast(userId);
+      }
+      userJobs.jobs.add(batchJob);
+      return true;
+    } else {
+      return false;
+    }
+  }
+
+  public void addScheduledGroup(final BatchJobRequestExecutionGroup group) {
+    if (this.scheduledGroups.add(group)) {
+      this.scheduledGroupCount.incrementAndGet();
+    }
+  }
+
+  public void clear() {
+    clearJobs();
+    this.scheduledGroups.clear();
+    this.scheduledGroupCount.set(0);
+  }
+
+  public synchronized void clearJobs() {
+    this.jobsByUserId.clear();
+    this.activeUserIds.clear();
+    this.jobIds.clear();
+  }
+
+  public String getBusinessApplicationName() {
+    return this.businessApplicationName;
+  }
+
+  public int getJobCount() {
+    return this.jobIds.size();
+  }
+
+  public synchronized int getJobCount(final String userId) {
+    final UserJobQueue userJobs = this.jobsByUserId.get(userId);
+    if (userJobs == null) {
+      return 0;
+    } else {
+      return userJobs.jobs.size();
+    }
+  }
+
+  /**
+   * Get the number of queued jobs for each user that has queued jobs.
+   *
+   * @return The map from USER_ID to number of queued jobs.
+   */
+  public synchronized Map<String, Integer> getJobCountByUserId() {
+    final Map<String, Integer> jobCountByUserId = new TreeMap<>();
+    for (final String userId : this.activeUserIds) {
+      final UserJobQueue userJobs = this.jobsByUserId.get(userId);
+      jobCountByUserId.put(userId, userJobs.jobs.size());
+    }
+    return jobCountByUserId;
+  }
+
+  public int getScheduledGroupCount() {
+    return this.scheduledGroupCount.get();
+  }
+
+  private String getUserId(final BatchJob batchJob) {
+    final String userId = batchJob.getString(BatchJob.USER_ID);
+    if (userId == null) {
+      return "";
+    } else {
+      return userId;
+    }
+  }
+
+  /**
+   * Check if another group can be scheduled without exceeding the maximum number of concurrent
+   * groups. Groups are removed from the count when they finish or are cancelled.
+   *
+   * @param maxCount The maximum number of concurrent groups.
+   * @return True if another group can be scheduled.
+   */
+  public boolean hasScheduledGroupCapacity(final int maxCount) {
+    return this.scheduledGroupCount.get() < maxCount;
+  }
+
+  public boolean isEmpty() {
+    return this.jobIds.isEmpty();
+  }
+
+  /**
+   * Remove the next job using deficit round robin across the users with queued jobs.
+   *
+   * @param userWeight The function to get the weight (credits per round) for a USER_ID.
+   * @return The batch job or null if the queue is empty.
+   */
+  public synchronized BatchJob pollJob(final ToIntFunction<String> userWeight) {
+    while (!this.activeUserIds.isEmpty()) {
+      final String userId = this.activeUserIds.peekFirst();
+      final UserJobQueue userJobs = this.jobsByUserId.get(userId);
+      if (userJobs == null || userJobs.jobs.isEmpty()) {
+        this.activeUserIds.removeFirst();
+        this.jobsByUserId.remove(userId);
+      } else {
+        if (userJobs.deficit <= 0) {
+          userJobs.deficit += Math.max(1, userWeight.applyAsInt(userId));
+        }
+        final BatchJob batchJob = userJobs.jobs.remove();
+        this.jobIds.remove(batchJob.getIdentifier());
+        userJobs.deficit--;
+        if (userJobs.jobs.isEmpty()) {
+          this.activeUserIds.removeFirst();
+          this.jobsByUserId.remove(userId);
+        } else if (userJobs.deficit <= 0) {
+          this.activeUserIds.removeFirst();
+          this.activeUserIds.addLast(userId);
+        }
+        return batchJob;
+      }
+    }
+    return null;
+  }
+
+  public void removeScheduledGroup(final BatchJobRequestExecutionGroup group) {
+    if (this.scheduledGroups.remove(group)) {
+      this.scheduledGroupCount.decrementAndGet();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.businessApplicationName;
+  }
+}
@@ -18,6 +18,8 @@ package ca.bc.gov.open.cpf.api.scheduler;
 import java.io.File;
 import java.util.Map;
 
+import org.jeometry.common.exception.Exceptions;
+
 import ca.bc.gov.open.cpf.api.domain.BatchJob;
 import ca.bc.gov.open.cpf.api.domain.CpfDataAccessObject;
 import ca.bc.gov.open.cpf.api.web.controller.JobController;
@@ -44,6 +46,7 @@ public class DatabasePreProcessGroup extends PreProcessGroup {
     if (this.transaction != null) {
       this.transaction.setRollbackOnly();
       this.transaction.close();
+      this.transaction = null;
     }
   }
 
@@ -52,15 +55,17 @@ public class DatabasePreProcessGroup extends PreProcessGroup {
     try {
       super.commit();
     } catch (final Throwable e) {
-      if (this.transaction != null) {
-        this.transaction.setRollbackOnly(e);
+      if (this.transaction == null) {
+        throw Exceptions.wrap(e);
+      } else {
+        throw this.transaction.setRollbackOnly(e);
       }
     } finally {
       if (this.transaction != null) {
         this.transaction.close();
+        this.transaction = null;
       }
     }
-
   }
 
   @Override
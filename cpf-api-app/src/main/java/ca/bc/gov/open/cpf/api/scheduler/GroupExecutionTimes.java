@@ -0,0 +1,64 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.Arrays;
+
+/**
+ * The execution times of the most recently completed groups of a business application. Used to
+ * detect groups that are taking much longer to execute than the other groups.
+ */
+public class GroupExecutionTimes {
+
+  private final long[] times;
+
+  private int count = 0;
+
+  private int index = 0;
+
+  public GroupExecutionTimes(final int size) {
+    this.times = new long[size];
+  }
+
+  public synchronized void addTime(final long time) {
+    this.times[this.index] = time;
+    this.index = (this.index + 1) % this.times.length;
+    if (this.count < this.times.length) {
+      this.count++;
+    }
+  }
+
+  public synchronized int getCount() {
+    return this.count;
+  }
+
+  /**
+   * Get the execution time that the percentile of the recent groups took less than or equal to.
+   *
+   * @param percentile The percentile (e.g. 0.9).
+   * @return The time in milliseconds or 0 if there are no times.
+   */
+  public synchronized long getPercentile(final double percentile) {
+    if (this.count == 0) {
+      return 0;
+    } else {
+      final long[] sortedTimes = Arrays.copyOf(this.times, this.count);
+      Arrays.sort(sortedTimes);
+      final int percentileIndex = (int)Math.ceil(percentile * this.count) - 1;
+      return sortedTimes[Math.max(0, Math.min(this.count - 1, percentileIndex))];
+    }
+  }
+}
@@ -22,9 +22,19 @@ import java.io.StringWriter;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jeometry.common.data.identifier.Identifier;
 import org.jeometry.common.logging.Logs;
@@ -62,6 +72,31 @@ import com.revolsys.util.Property;
 
 public class JobPreProcessTask {
 
+  /**
+   * Get the sizes of the groups to split the requests at the end of a job into. Each group has half
+   * the remaining requests, but not more than maxGroupSize or less than a quarter of maxGroupSize.
+   * If less than the minimum group size would be left they are included in the current group.
+   *
+   * @param requestCount The number of requests to split.
+   * @param maxGroupSize The maximum number of requests in a group.
+   * @return The group sizes.
+   */
+  static List<Integer> getTailGroupSizes(final int requestCount, final int maxGroupSize) {
+    final List<Integer> groupSizes = new ArrayList<>();
+    final int minGroupSize = Math.max(1, maxGroupSize / 4);
+    int offset = 0;
+    while (offset < requestCount) {
+      final int remainingCount = requestCount - offset;
+      int groupSize = Math.min(maxGroupSize, Math.max(minGroupSize, (remainingCount + 1) / 2));
+      if (remainingCount - groupSize < minGroupSize) {
+        groupSize = Math.min(maxGroupSize, remainingCount);
+      }
+      groupSizes.add(groupSize);
+      offset += groupSize;
+    }
+    return groupSizes;
+  }
+
   private final Identifier batchJobId;
 
   private final long time;
@@ -78,6 +113,16 @@ public class JobPreProcessTask {
 
   private File errorFile;
 
+  private final AtomicInteger numFailedRequests = new AtomicInteger();
+
+  private final List<Future<?>> groupFutures = new ArrayList<>();
+
+  private boolean discardGroups = false;
+
+  private Semaphore groupPermits;
+
+  private volatile boolean groupsCancelled = false;
+
   public JobPreProcessTask(final BatchJobService batchJobService, final Identifier batchJobId,
     final long time, final long lastChangedTime) {
     this.batchJobService = batchJobService;
@@ -116,7 +161,10 @@ public class JobPreProcessTask {
       final byte[] errorBytes = errorWriter.toString().getBytes(StandardCharsets.UTF_8);
       this.batchJobService.newBatchJobResult(batchJobId, BatchJobResult.ERROR_RESULT_DATA,
         Csv.MIME_TYPE, errorBytes, 0);
-      dataAccessObject.setBatchJobFailed(batchJob);
+      if (dataAccessObject.setBatchJobFailed(batchJob)) {
+        this.batchJobService.batchJobStatusChanged(batchJob, BatchJobStatus.RESULTS_CREATED,
+          System.currentTimeMillis());
+      }
     }
     return false;
   }
@@ -127,7 +175,7 @@ public class JobPreProcessTask {
     return addJobValidationError(batchJob, validationErrorCode, exception.getMessage());
   }
 
-  public void addRequestError(final int sequenceNumber, final Object errorCode,
+  public synchronized void addRequestError(final int sequenceNumber, final Object errorCode,
     final String message, final CharSequence trace) {
     if (this.errorWriter == null) {
       this.errorFile = FileUtil.newTempFile("job-" + this.batchJobId.toString(), "tsv");
@@ -139,6 +187,36 @@ public class JobPreProcessTask {
     this.errorWriter.flush();
   }
 
+  /**
+   * Stop any groups that are still being written and wait for them to finish.
+   */
+  private void cancelGroups() {
+    this.groupsCancelled = true;
+    for (final Future<?> future : this.groupFutures) {
+      try {
+        future.get();
+      } catch (final Throwable e) {
+      }
+    }
+    this.groupFutures.clear();
+  }
+
+  /**
+   * Cancel and delete the groups written by a pre-process that was rolled back. The groups are
+   * committed separately from the pre-process transaction so they aren't removed by the rollback.
+   */
+  private void discardGroups(final BatchJob batchJob) {
+    this.batchJobService.cancelCreatedGroups(batchJob);
+    for (final String path : Arrays.asList(JobController.GROUP_INPUTS,
+      JobController.GROUP_RESULTS, JobController.GROUP_ERRORS)) {
+      try {
+        this.jobController.deleteJobFiles(this.batchJobId, path);
+      } catch (final Throwable e) {
+        Logs.error(this, "Unable to delete " + path + " for " + this.batchJobId, e);
+      }
+    }
+  }
+
   /**
    * Get a buffered reader for the job's input data. The input Data may be a
    * remote URL or a CLOB field.
@@ -146,6 +224,10 @@ public class JobPreProcessTask {
    *
    * @return BufferedReader or null if unable to connect to data
    */
+  public BatchJobService getBatchJobService() {
+    return this.batchJobService;
+  }
+
   private InputStream getJobInputDataStream(final Identifier batchJobId, final Record batchJob) {
     final String inputDataUrlString = batchJob.getString(BatchJob.STRUCTURED_INPUT_DATA_URL);
     if (Property.hasValue(inputDataUrlString)) {
@@ -164,6 +246,19 @@ public class JobPreProcessTask {
 
   public boolean process() {
     this.batchJobService.addPreProcessedJobId(this.batchJobId);
+    try {
+      return processJob();
+    } finally {
+      if (this.discardGroups) {
+        final BatchJob batchJob = this.dataAccessObject.getBatchJob(this.batchJobId);
+        if (batchJob != null) {
+          discardGroups(batchJob);
+        }
+      }
+    }
+  }
+
+  private boolean processJob() {
     AppLog log = null;
     BatchJob batchJob = null;
     int maxRequests = Integer.MAX_VALUE;
@@ -190,7 +285,8 @@ public class JobPreProcessTask {
             log.info("Start\tJob pre-process\tbatchJobId=" + this.batchJobId);
           }
           try {
-            final int maxGroupSize = businessApplication.getNumRequestsPerWorker();
+            final int maxGroupSize = this.batchJobService.getGroupSize(businessApplication);
+            final boolean shrinkTailGroups = this.batchJobService.isAdaptiveGroupSize();
             int numGroups = 0;
             boolean valid = true;
             final Map<String, Object> preProcessScheduledStatistics = new HashMap<>();
@@ -203,7 +299,7 @@ public class JobPreProcessTask {
               statisticsService.addStatistics(businessApplication, preProcessScheduledStatistics);
             });
 
-            int numFailedRequests = batchJob.getNumFailedRequests();
+            this.numFailedRequests.set(batchJob.getNumFailedRequests());
             try (
               final InputStream inputDataStream = getJobInputDataStream(this.batchJobId,
                 batchJob)) {
@@ -227,7 +323,6 @@ public class JobPreProcessTask {
                     valid = addJobValidationError(batchJob, ErrorCode.INPUT_DATA_UNREADABLE,
                       "Media type not supported:" + inputContentType);
                   } else {
-                    PreProcessGroup group = null;
                     final InputStreamResource resource = new InputStreamResource("input",
                       inputDataStream);
                     try (
@@ -236,10 +331,16 @@ public class JobPreProcessTask {
                         valid = addJobValidationError(batchJob, ErrorCode.INPUT_DATA_UNREADABLE,
                           "Media type not supported: " + inputContentType);
                       } else {
+                        maxRequests = businessApplication.getMaxRequestsPerJob();
+                        batchJob.startCreatingGroups();
                         try (
                           final RecordReader inputDataReader = new MapReaderRecordReader(
                             requestRecordDefinition, mapReader)) {
 
+                          List<Record> groupRecords = null;
+                          List<Integer> groupSequenceNumbers = null;
+                          List<Record> heldRecords = null;
+                          List<Integer> heldSequenceNumbers = null;
                           for (final Iterator<Record> iterator = inputDataReader
                             .iterator(); iterator.hasNext();) {
                             numSubmittedRequests++;
@@ -247,46 +348,74 @@ public class JobPreProcessTask {
                               final Record inputDataRecord = iterator.next();
                               if (!this.batchJobService
                                 .containsPreProcessedJobId(this.batchJobId)) {
-                                if (group != null) {
-                                  group.cancel();
-                                }
+                                cancelGroups();
                                 return true;
                               }
-                              if (group == null) {
-                                group = this.jobController.newPreProcessGroup(this,
-                                  businessApplication, batchJob, jobParameters, numGroups + 1);
-                                numGroups++;
-                              }
-                              if (!group.addRequest(inputDataRecord, numSubmittedRequests)) {
-                                numFailedRequests++;
-                              }
-                              if (group.getGroupSize() == maxGroupSize) {
-                                if (this.batchJobService
-                                  .containsPreProcessedJobId(this.batchJobId)) {
-                                  group.commit();
-                                } else {
-                                  group.cancel();
-                                  return true;
+                              if (numSubmittedRequests > maxRequests) {
+                                // Only count the rest of the requests for the error message
+                                if (numSubmittedRequests == maxRequests + 1) {
+                                  cancelGroups();
+                                  groupRecords = null;
+                                  heldRecords = null;
+                                }
+                              } else {
+                                if (groupRecords == null) {
+                                  groupRecords = new ArrayList<>(maxGroupSize);
+                                  groupSequenceNumbers = new ArrayList<>(maxGroupSize);
+                                }
+                                groupRecords.add(inputDataRecord);
+                                groupSequenceNumbers.add(numSubmittedRequests);
+                                if (groupRecords.size() == maxGroupSize) {
+                                  if (shrinkTailGroups) {
+                                    // Hold back the last full group so it can be split if it is
+                                    // at the end of the job
+                                    if (heldRecords != null) {
+                                      numGroups++;
+                                      submitGroup(businessApplication, batchJob, jobParameters,
+                                        numGroups, heldRecords, heldSequenceNumbers);
+                                    }
+                                    heldRecords = groupRecords;
+                                    heldSequenceNumbers = groupSequenceNumbers;
+                                  } else {
+                                    numGroups++;
+                                    submitGroup(businessApplication, batchJob, jobParameters,
+                                      numGroups, groupRecords, groupSequenceNumbers);
+                                  }
+                                  groupRecords = null;
+                                  groupSequenceNumbers = null;
                                 }
-                                group = null;
                               }
                             } catch (final FieldValueInvalidException e) {
-                              numFailedRequests++;
-                              addRequestError(numFailedRequests, ErrorCode.BAD_INPUT_DATA_VALUE,
+                              final int failedCount = this.numFailedRequests.incrementAndGet();
+                              addRequestError(failedCount, ErrorCode.BAD_INPUT_DATA_VALUE,
                                 e.getMessage(), "");
                             }
                           }
-                          if (group != null) {
-                            if (this.batchJobService.containsPreProcessedJobId(this.batchJobId)) {
-                              group.commit();
+                          if (heldRecords != null) {
+                            if (groupRecords != null) {
+                              heldRecords.addAll(groupRecords);
+                              heldSequenceNumbers.addAll(groupSequenceNumbers);
+                            }
+                            numGroups = submitTailGroups(businessApplication, batchJob,
+                              jobParameters, numGroups, maxGroupSize, heldRecords,
+                              heldSequenceNumbers);
+                          } else if (groupRecords != null) {
+                            if (shrinkTailGroups) {
+                              numGroups = submitTailGroups(businessApplication, batchJob,
+                                jobParameters, numGroups, maxGroupSize, groupRecords,
+                                groupSequenceNumbers);
                             } else {
-                              group.cancel();
-                              return true;
+                              numGroups++;
+                              submitGroup(businessApplication, batchJob, jobParameters,
+                                numGroups, groupRecords, groupSequenceNumbers);
                             }
                           }
+                          waitForGroups();
+                          if (!this.batchJobService.containsPreProcessedJobId(this.batchJobId)) {
+                            return true;
+                          }
                         }
 
-                        maxRequests = businessApplication.getMaxRequestsPerJob();
                         if (numSubmittedRequests == 0) {
                           valid = addJobValidationError(batchJob, ErrorCode.INPUT_DATA_UNREADABLE,
                             "No records specified");
@@ -296,9 +425,7 @@ public class JobPreProcessTask {
                         }
                       }
                     } catch (final Throwable e) {
-                      if (group != null) {
-                        group.cancel();
-                      }
+                      cancelGroups();
                       Logs.error(this, "Error pre-processing job " + this.batchJobId, e);
                       valid = addJobValidationError(batchJob, ErrorCode.ERROR_PROCESSING_REQUEST,
                         e);
@@ -307,6 +434,7 @@ public class JobPreProcessTask {
                 } catch (final Throwable e) {
                   if (BatchJobService.isDatabaseResourcesException(e)) {
                     Logs.error(this, "Tablespace error pre-processing job " + this.batchJobId, e);
+                    this.discardGroups = true;
                     return false;
                   } else {
                     Logs.error(this, "Error pre-processing job " + this.batchJobId, e);
@@ -318,18 +446,22 @@ public class JobPreProcessTask {
               Logs.error(this, "Error reading input data or writing groups for " + this.batchJobId,
                 e);
               transaction.setRollbackOnly(e);
+              this.discardGroups = true;
               return false;
             } finally {
+              cancelGroups();
               if (this.errorWriter != null) {
                 this.errorWriter.close();
                 this.jobController.setGroupError(this.batchJobId, 0, this.errorFile);
               }
             }
 
+            final int numFailedRequests = this.numFailedRequests.get();
             if (numSubmittedRequests == 0 || numSubmittedRequests > maxRequests) {
-
+              this.batchJobService.cancelCreatedGroups(batchJob);
             } else if (!valid || numSubmittedRequests == numFailedRequests) {
               valid = false;
+              this.batchJobService.cancelCreatedGroups(batchJob);
               if (this.dataAccessObject.setBatchJobRequestsFailed(this.batchJobId,
                 numSubmittedRequests, numFailedRequests, maxGroupSize, numGroups)) {
                 batchJob.setStatus(this.batchJobService, BatchJobStatus.CREATING_REQUESTS,
@@ -346,9 +478,19 @@ public class JobPreProcessTask {
                 batchJob.setValue(BatchJob.LAST_SCHEDULED_TIMESTAMP, now);
                 batchJob.setValue(BatchJob.NUM_SUBMITTED_REQUESTS, numSubmittedRequests);
                 batchJob.setValue(BatchJob.GROUP_SIZE, maxGroupSize);
-                batchJob.setGroupCount(numGroups);
+                batchJob.setGroupsCreated(numGroups);
                 batchJob.update();
-                this.batchJobService.scheduleJob(batchJob);
+                if (batchJob.isCompleted()) {
+                  // All the groups were executed while the job was being pre-processed
+                  if (batchJob.setStatus(this.batchJobService, BatchJobStatus.PROCESSING,
+                    BatchJobStatus.PROCESSED)) {
+                    this.batchJobService.postProcess(this.batchJobId);
+                  }
+                } else {
+                  this.batchJobService.scheduleJob(batchJob);
+                }
+              } else {
+                this.batchJobService.cancelCreatedGroups(batchJob);
               }
             }
             final Map<String, Object> preProcessStatistics = new HashMap<>();
@@ -385,6 +527,7 @@ public class JobPreProcessTask {
           }
         }
       } catch (final Throwable e) {
+        this.discardGroups = true;
         if (batchJob != null) {
           batchJob.setStatus(this.batchJobService, BatchJobStatus.CREATING_REQUESTS,
             BatchJobStatus.SUBMITTED);
@@ -397,4 +540,122 @@ public class JobPreProcessTask {
     }
     return true;
   }
+
+  /**
+   * Submit the records for a group to be validated and written by the pre-process group pool. The
+   * number of groups in memory for a job is limited to twice the pool size, the reader blocks
+   * until a group has been written if the limit is reached.
+   */
+  private void submitGroup(final BusinessApplication businessApplication, final BatchJob batchJob,
+    final Map<String, String> jobParameters, final int groupSequenceNumber,
+    final List<Record> records, final List<Integer> requestSequenceNumbers)
+    throws InterruptedException {
+    final ThreadPoolExecutor groupExecutor = this.batchJobService.getPreProcess()
+      .getGroupExecutor();
+    if (this.groupPermits == null) {
+      this.groupPermits = new Semaphore(groupExecutor.getMaximumPoolSize() * 2);
+    }
+    this.groupPermits.acquire();
+    final FutureTask<Void> future = new FutureTask<>(() -> {
+      try {
+        writeGroup(businessApplication, batchJob, jobParameters, groupSequenceNumber, records,
+          requestSequenceNumbers, true);
+      } finally {
+        this.groupPermits.release();
+      }
+      return null;
+    });
+    try {
+      groupExecutor.execute(future);
+      this.groupFutures.add(future);
+    } catch (final RejectedExecutionException e) {
+      // Written in the pre-process transaction so only scheduled once the job is committed
+      try {
+        writeGroup(businessApplication, batchJob, jobParameters, groupSequenceNumber, records,
+          requestSequenceNumbers, false);
+      } finally {
+        this.groupPermits.release();
+      }
+    }
+  }
+
+  /**
+   * Split the requests at the end of a job into groups that get smaller towards the end, so the
+   * last groups of the job finish sooner. See {@link #getTailGroupSizes(int, int)}.
+   *
+   * @return The number of groups in the job after the tail groups have been submitted.
+   */
+  private int submitTailGroups(final BusinessApplication businessApplication,
+    final BatchJob batchJob, final Map<String, String> jobParameters, final int numGroups,
+    final int maxGroupSize, final List<Record> records, final List<Integer> requestSequenceNumbers)
+    throws InterruptedException {
+    int groupSequenceNumber = numGroups;
+    int offset = 0;
+    for (final int groupSize : getTailGroupSizes(records.size(), maxGroupSize)) {
+      final int endOffset = offset + groupSize;
+      groupSequenceNumber++;
+      submitGroup(businessApplication, batchJob, jobParameters, groupSequenceNumber,
+        new ArrayList<>(records.subList(offset, endOffset)),
+        new ArrayList<>(requestSequenceNumbers.subList(offset, endOffset)));
+      offset = endOffset;
+    }
+    return groupSequenceNumber;
+  }
+
+  /**
+   * Wait for all the groups to be written, throwing the first error from any of the groups.
+   */
+  private void waitForGroups() throws Exception {
+    try {
+      for (final Future<?> future : this.groupFutures) {
+        try {
+          future.get();
+        } catch (final ExecutionException e) {
+          final Throwable cause = e.getCause();
+          if (cause instanceof Exception) {
+            throw (Exception)cause;
+          } else {
+            throw e;
+          }
+        }
+      }
+    } finally {
+      this.groupFutures.clear();
+    }
+  }
+
+  /**
+   * Validate and write the group input. Each group is committed in its own transaction and if
+   * scheduleGroup is true it is added to the job's groups to process as soon as it has been
+   * committed, so workers can execute it while the rest of the job is being split into groups.
+   */
+  private void writeGroup(final BusinessApplication businessApplication, final BatchJob batchJob,
+    final Map<String, String> jobParameters, final int groupSequenceNumber,
+    final List<Record> records, final List<Integer> requestSequenceNumbers,
+    final boolean scheduleGroup) {
+    final PreProcessGroup group = this.jobController.newPreProcessGroup(this, businessApplication,
+      batchJob, jobParameters, groupSequenceNumber);
+    try {
+      for (int i = 0; i < records.size(); i++) {
+        if (this.groupsCancelled
+          || !this.batchJobService.containsPreProcessedJobId(this.batchJobId)) {
+          group.cancel();
+          return;
+        }
+        final Record inputDataRecord = records.get(i);
+        final int requestSequenceNumber = requestSequenceNumbers.get(i);
+        if (!group.addRequest(inputDataRecord, requestSequenceNumber)) {
+          this.numFailedRequests.incrementAndGet();
+        }
+      }
+      group.commit();
+    } catch (final Throwable e) {
+      group.cancel();
+      throw e;
+    }
+    if (scheduleGroup && !this.groupsCancelled) {
+      batchJob.addCreatedGroup(groupSequenceNumber);
+      this.batchJobService.scheduleJob(batchJob);
+    }
+  }
 }
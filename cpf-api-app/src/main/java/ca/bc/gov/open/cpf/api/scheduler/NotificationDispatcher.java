@@ -0,0 +1,476 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.mail.internet.MimeMessage;
+
+import org.apache.http.StatusLine;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.jeometry.common.logging.Logs;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.MimeMessageHelper;
+
+import com.revolsys.collection.map.MapEx;
+import com.revolsys.io.FileUtil;
+import com.revolsys.io.map.MapWriter;
+import com.revolsys.parallel.NamedThreadFactory;
+import com.revolsys.record.io.format.html.XhtmlMapWriter;
+import com.revolsys.record.io.format.json.Json;
+
+/**
+ * Send the job completion notifications in the background so that post-process isn't delayed by
+ * slow or unavailable notification servers.
+ *
+ * Each notification is stored as a JSON file in the outbox directory until it has been sent or
+ * it has failed the maximum number of attempts, so pending notifications are sent after the
+ * master is restarted. HTTP notifications are POSTed using a pool of keep-alive connections, with
+ * a limit on the concurrent requests to each host, and are retried with an exponential back off
+ * if the server can't be reached or returns a 5xx or 429 status. Email notifications are sent in
+ * batches with a single email per recipient for all the jobs completed during the interval.
+ */
+public class NotificationDispatcher {
+  private static final long HOST_BUSY_DELAY = 1000;
+
+  private static final int SC_TOO_MANY_REQUESTS = 429;
+
+  private final BatchJobService batchJobService;
+
+  private final Map<String, AtomicInteger> activeRequestCountByHost = new ConcurrentHashMap<>();
+
+  private final Queue<MapEx> mailQueue = new ConcurrentLinkedQueue<>();
+
+  private File outboxDirectory;
+
+  private ScheduledExecutorService scheduler;
+
+  private ThreadPoolExecutor executor;
+
+  private PoolingHttpClientConnectionManager connectionManager;
+
+  private CloseableHttpClient httpClient;
+
+  private int maxConnections = 20;
+
+  private int maxConnectionsPerHost = 2;
+
+  private int maxAttempts = 10;
+
+  private long initialRetryDelay = 30000;
+
+  private long maxRetryDelay = 3600000;
+
+  private long mailBatchInterval = 60000;
+
+  private int timeout = 60000;
+
+  private boolean running = false;
+
+  public NotificationDispatcher(final BatchJobService batchJobService) {
+    this.batchJobService = batchJobService;
+  }
+
+  /**
+   * Add the notification to the outbox and schedule it to be sent.
+   *
+   * @param notification The notification.
+   */
+  public void addNotification(final MapEx notification) {
+    if (this.running) {
+      notification.put("attempt", 0);
+      notification.put("nextAttemptTime", System.currentTimeMillis());
+      writeNotification(notification);
+      schedule(notification);
+    }
+  }
+
+  public synchronized void close() {
+    this.running = false;
+    if (this.scheduler != null) {
+      this.scheduler.shutdownNow();
+      this.scheduler = null;
+    }
+    if (this.executor != null) {
+      this.executor.shutdownNow();
+      this.executor = null;
+    }
+    if (this.httpClient != null) {
+      FileUtil.closeSilent(this.httpClient);
+      this.httpClient = null;
+    }
+    this.connectionManager = null;
+    this.activeRequestCountByHost.clear();
+    this.mailQueue.clear();
+  }
+
+  private void deleteNotification(final MapEx notification) {
+    final File file = getFile(notification);
+    if (file.exists() && !file.delete()) {
+      Logs.error(this, "Unable to delete notification:" + file);
+    }
+  }
+
+  private File getFile(final MapEx notification) {
+    final String batchJobId = notification.getString("batchJobId");
+    return FileUtil.getFile(this.outboxDirectory, batchJobId + ".json");
+  }
+
+  private String getMailRecipient(final MapEx notification) {
+    final String notificationUrl = notification.getString("notificationUrl");
+    return URI.create(notificationUrl).getSchemeSpecificPart();
+  }
+
+  /**
+   * Get the time to wait before the next attempt, doubling the initial retry delay for each
+   * previous attempt up to the maximum retry delay.
+   *
+   * @param attempt The number of failed attempts.
+   * @return The delay in milliseconds.
+   */
+  private long getRetryDelay(final int attempt) {
+    final int shift = Math.min(Math.max(attempt - 1, 0), 30);
+    return Math.min(this.initialRetryDelay << shift, this.maxRetryDelay);
+  }
+
+  private boolean isMail(final MapEx notification) {
+    final String notificationUrl = notification.getString("notificationUrl");
+    return notificationUrl.startsWith("mailto:");
+  }
+
+  private void notificationFailed(final MapEx notification, final String message,
+    final Throwable e) {
+    final String batchJobId = notification.getString("batchJobId");
+    final String notificationUrl = notification.getString("notificationUrl");
+    final int attempt = notification.getInteger("attempt", 0) + 1;
+    if (attempt >= this.maxAttempts) {
+      Logs.error(this, "Unable to send notification for Record #" + batchJobId + " to "
+        + notificationUrl + " after " + attempt + " attempts " + message, e);
+      deleteNotification(notification);
+    } else if (this.running) {
+      final long delay = getRetryDelay(attempt);
+      Logs.debug(this, "Retrying notification for Record #" + batchJobId + " to "
+        + notificationUrl + " in " + delay + "ms " + message);
+      notification.put("attempt", attempt);
+      notification.put("nextAttemptTime", System.currentTimeMillis() + delay);
+      writeNotification(notification);
+      schedule(notification);
+    }
+  }
+
+  private void notificationNotSent(final MapEx notification, final String message) {
+    final String batchJobId = notification.getString("batchJobId");
+    final String notificationUrl = notification.getString("notificationUrl");
+    Logs.error(this,
+      "Unable to send notification for Record #" + batchJobId + " to " + notificationUrl + " "
+        + message);
+    deleteNotification(notification);
+  }
+
+  private MapEx readNotification(final File file) {
+    try {
+      final String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+      return Json.toMap(text);
+    } catch (final Throwable e) {
+      Logs.error(this, "Unable to read notification:" + file, e);
+      if (!file.delete()) {
+        Logs.error(this, "Unable to delete notification:" + file);
+      }
+      return null;
+    }
+  }
+
+  private synchronized void schedule(final MapEx notification) {
+    if (this.running) {
+      final long delay = notification.getLong("nextAttemptTime", 0L)
+        - System.currentTimeMillis();
+      final Runnable task;
+      if (isMail(notification)) {
+        task = () -> this.mailQueue.add(notification);
+      } else {
+        task = () -> submitRequest(notification);
+      }
+      if (delay > 0) {
+        this.scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+      } else {
+        task.run();
+      }
+    }
+  }
+
+  /**
+   * Send the queued email notifications, combining the jobs for each recipient into one email.
+   * The emails are sent using the executor so a slow mail server doesn't block the scheduler.
+   */
+  private void sendMail() {
+    final Map<String, List<MapEx>> notificationsByRecipient = new TreeMap<>();
+    MapEx notification;
+    while ((notification = this.mailQueue.poll()) != null) {
+      try {
+        final String recipient = getMailRecipient(notification);
+        notificationsByRecipient.computeIfAbsent(recipient, k -> new ArrayList<>())
+          .add(notification);
+      } catch (final Throwable e) {
+        notificationNotSent(notification, e.getMessage());
+      }
+    }
+    for (final Entry<String, List<MapEx>> entry : notificationsByRecipient.entrySet()) {
+      final String recipient = entry.getKey();
+      final List<MapEx> notifications = entry.getValue();
+      final ThreadPoolExecutor executor = this.executor;
+      if (executor != null) {
+        try {
+          executor.execute(() -> sendMail(recipient, notifications));
+        } catch (final RejectedExecutionException e) {
+          // Shutting down, the notifications are sent from the outbox after a restart
+        }
+      }
+    }
+  }
+
+  private void sendMail(final String recipient, final List<MapEx> notifications) {
+    try {
+      final String subject;
+      if (notifications.size() == 1) {
+        final String batchJobId = notifications.get(0).getString("batchJobId");
+        subject = "CPF Job " + batchJobId + " status";
+      } else {
+        subject = "CPF " + notifications.size() + " Jobs status";
+      }
+      final StringWriter bodyOut = new StringWriter();
+      final MapWriter writer = new XhtmlMapWriter(bodyOut);
+      writer.setProperty("title", subject);
+      for (final MapEx jobNotification : notifications) {
+        final Map<String, Object> jobMap = jobNotification.getValue("job");
+        writer.write(jobMap);
+      }
+      writer.close();
+
+      final JavaMailSender mailSender = this.batchJobService.getMailSender();
+      final MimeMessage message = mailSender.createMimeMessage();
+
+      final MimeMessageHelper messageHelper = new MimeMessageHelper(message);
+      messageHelper.setTo(recipient);
+      messageHelper.setSubject(subject);
+      messageHelper.setFrom(this.batchJobService.getFromEmail());
+      messageHelper.setText(bodyOut.toString(), true);
+      mailSender.send(message);
+      for (final MapEx jobNotification : notifications) {
+        deleteNotification(jobNotification);
+      }
+    } catch (final Throwable e) {
+      for (final MapEx jobNotification : notifications) {
+        notificationFailed(jobNotification, e.getMessage(), e);
+      }
+    }
+  }
+
+  private void sendRequest(final MapEx notification, final AtomicInteger activeRequestCount) {
+    try {
+      final String notificationUrl = notification.getString("notificationUrl");
+      final String contentType = notification.getString("contentType");
+      final String body = notification.getString("body");
+      final HttpPost request = new HttpPost(notificationUrl);
+      request.setHeader("Content-type", contentType);
+      request.setEntity(new StringEntity(body, StandardCharsets.UTF_8));
+      try (
+        CloseableHttpResponse response = this.httpClient.execute(request)) {
+        EntityUtils.consumeQuietly(response.getEntity());
+        final StatusLine statusLine = response.getStatusLine();
+        final int statusCode = statusLine.getStatusCode();
+        if (statusCode < 400) {
+          deleteNotification(notification);
+        } else if (statusCode >= 500 || statusCode == SC_TOO_MANY_REQUESTS) {
+          notificationFailed(notification, "response=" + statusLine, null);
+        } else {
+          notificationNotSent(notification, "response=" + statusLine);
+        }
+      }
+    } catch (final IOException e) {
+      notificationFailed(notification, e.getMessage(), e);
+    } catch (final Throwable e) {
+      if (this.running) {
+        notificationNotSent(notification, e.getMessage());
+      }
+    } finally {
+      activeRequestCount.decrementAndGet();
+    }
+  }
+
+  public void setInitialRetryDelay(final long initialRetryDelay) {
+    this.initialRetryDelay = initialRetryDelay;
+  }
+
+  public void setMailBatchInterval(final long mailBatchInterval) {
+    this.mailBatchInterval = mailBatchInterval;
+  }
+
+  public void setMaxAttempts(final int maxAttempts) {
+    this.maxAttempts = maxAttempts;
+  }
+
+  public void setMaxConnections(final int maxConnections) {
+    this.maxConnections = maxConnections;
+  }
+
+  public void setMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+    this.maxConnectionsPerHost = maxConnectionsPerHost;
+  }
+
+  public void setMaxRetryDelay(final long maxRetryDelay) {
+    this.maxRetryDelay = maxRetryDelay;
+  }
+
+  public void setTimeout(final int timeout) {
+    this.timeout = timeout;
+  }
+
+  /**
+   * Start sending notifications and schedule the notifications that were pending in the outbox
+   * directory.
+   *
+   * @param outboxDirectory The directory to store the pending notifications in.
+   */
+  public synchronized void start(final File outboxDirectory) {
+    this.outboxDirectory = outboxDirectory;
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      new NamedThreadFactory().setNamePrefix("cpf-notification-scheduler"));
+    this.executor = new ThreadPoolExecutor(this.maxConnections, this.maxConnections, 60,
+      TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+      new NamedThreadFactory().setNamePrefix("cpf-notification"));
+    this.executor.allowCoreThreadTimeOut(true);
+
+    this.connectionManager = new PoolingHttpClientConnectionManager();
+    this.connectionManager.setMaxTotal(this.maxConnections);
+    this.connectionManager.setDefaultMaxPerRoute(this.maxConnectionsPerHost);
+    final RequestConfig requestConfig = RequestConfig.custom()
+      .setConnectTimeout(this.timeout)
+      .setConnectionRequestTimeout(this.timeout)
+      .setSocketTimeout(this.timeout)
+      .build();
+    this.httpClient = HttpClientBuilder.create()
+      .setConnectionManager(this.connectionManager)
+      .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+      .setDefaultRequestConfig(requestConfig)
+      .evictExpiredConnections()
+      .evictIdleConnections(60, TimeUnit.SECONDS)
+      .build();
+    this.running = true;
+
+    this.scheduler.scheduleWithFixedDelay(this::sendMail, this.mailBatchInterval,
+      this.mailBatchInterval, TimeUnit.MILLISECONDS);
+
+    final File[] files = outboxDirectory.listFiles((dir, name) -> name.endsWith(".json"));
+    if (files != null) {
+      for (final File file : files) {
+        final MapEx notification = readNotification(file);
+        if (notification != null) {
+          schedule(notification);
+        }
+      }
+    }
+  }
+
+  /**
+   * Submit the HTTP notification to the executor, or wait if the maximum number of concurrent
+   * requests to the host are being sent so that a slow host doesn't use all the threads.
+   */
+  private void submitRequest(final MapEx notification) {
+    try {
+      final String notificationUrl = notification.getString("notificationUrl");
+      final String host = String.valueOf(URI.create(notificationUrl).getHost());
+      final AtomicInteger activeRequestCount = this.activeRequestCountByHost
+        .computeIfAbsent(host, k -> new AtomicInteger());
+      if (activeRequestCount.incrementAndGet() > this.maxConnectionsPerHost) {
+        activeRequestCount.decrementAndGet();
+        synchronized (this) {
+          if (this.running) {
+            this.scheduler.schedule(() -> submitRequest(notification), HOST_BUSY_DELAY,
+              TimeUnit.MILLISECONDS);
+          }
+        }
+      } else {
+        final ThreadPoolExecutor executor = this.executor;
+        if (executor == null) {
+          activeRequestCount.decrementAndGet();
+        } else {
+          try {
+            executor.execute(() -> sendRequest(notification, activeRequestCount));
+          } catch (final RejectedExecutionException e) {
+            activeRequestCount.decrementAndGet();
+          }
+        }
+      }
+    } catch (final IllegalArgumentException e) {
+      notificationNotSent(notification, e.getMessage());
+    }
+  }
+
+  /**
+   * Write the notification to a temporary file that is renamed to the notification file, so a
+   * partially written notification isn't read after a restart.
+   */
+  private void writeNotification(final MapEx notification) {
+    final File file = getFile(notification);
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile("notification", ".tmp", this.outboxDirectory);
+      final String text = Json.toString(notification);
+      Files.write(tempFile.toPath(), text.getBytes(StandardCharsets.UTF_8));
+      try {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+      } catch (final AtomicMoveNotSupportedException e) {
+        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    } catch (final Throwable e) {
+      Logs.error(this, "Unable to write notification:" + file, e);
+    } finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ package ca.bc.gov.open.cpf.api.scheduler;
 import java.io.File;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.Map;
 
 import org.jeometry.common.data.identifier.Identifier;
@@ -25,6 +26,7 @@ import org.jeometry.common.data.type.DataType;
 
 import ca.bc.gov.open.cpf.api.domain.BatchJob;
 import ca.bc.gov.open.cpf.api.domain.CpfDataAccessObject;
+import ca.bc.gov.open.cpf.api.web.controller.ContentEncoding;
 import ca.bc.gov.open.cpf.api.web.controller.JobController;
 import ca.bc.gov.open.cpf.client.api.ErrorCode;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
@@ -163,8 +165,14 @@ public abstract class PreProcessGroup {
   protected RecordWriter getWriter() {
     if (this.writer == null) {
       this.groupFile = newGroupFile();
-      this.writer = new CsvRecordWriter(this.recordDefinition,
-        FileUtil.newUtf8Writer(this.groupFile), Tsv.FIELD_SEPARATOR, true, true);
+      final Writer out;
+      if (this.preProcess.getBatchJobService().isCompressData()) {
+        out = ContentEncoding.newGzipUtf8Writer(this.groupFile);
+      } else {
+        out = FileUtil.newUtf8Writer(this.groupFile);
+      }
+      this.writer = new CsvRecordWriter(this.recordDefinition, out, Tsv.FIELD_SEPARATOR, true,
+        true);
     }
     return this.writer;
   }
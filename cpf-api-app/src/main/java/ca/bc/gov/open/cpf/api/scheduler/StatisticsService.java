@@ -16,6 +16,7 @@
 package ca.bc.gov.open.cpf.api.scheduler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
@@ -252,6 +253,34 @@ public class StatisticsService extends BaseInProcess<Map<String, ? extends Objec
     this.statisticsByAppAndId.clear();
   }
 
+  /**
+   * Get the average application execution time of a request from the current hour's statistics,
+   * or the current day's statistics if no requests have been executed in the current hour.
+   *
+   * @param businessApplicationName The business application name.
+   * @return The average time in milliseconds, or -1 if no requests have been executed today.
+   */
+  public double getRecentRequestAverageTime(final String businessApplicationName) {
+    synchronized (this.statisticsByAppAndId) {
+      final Map<String, BusinessApplicationStatistics> statisticsById = this.statisticsByAppAndId
+        .get(businessApplicationName);
+      if (statisticsById != null) {
+        for (final DurationType durationType : Arrays.asList(DurationType.HOUR,
+          DurationType.DAY)) {
+          final BusinessApplicationStatistics statistics = statisticsById
+            .get(durationType.getId());
+          if (statistics != null) {
+            final long requestCount = statistics.getApplicationExecutedRequestsCount();
+            if (requestCount > 0) {
+              return (double)statistics.getApplicationExecutedTime() / requestCount;
+            }
+          }
+        }
+      }
+      return -1;
+    }
+  }
+
   protected Map<String, BusinessApplicationStatistics> getStatistics(
     final Map<String, Map<String, BusinessApplicationStatistics>> statisticsByAppAndId,
     final String businessApplicationName) {
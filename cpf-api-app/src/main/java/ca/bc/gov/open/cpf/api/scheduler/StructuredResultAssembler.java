@@ -0,0 +1,233 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+
+import org.jeometry.common.data.identifier.Identifier;
+import org.jeometry.common.logging.Logs;
+
+import ca.bc.gov.open.cpf.api.domain.BatchJob;
+import ca.bc.gov.open.cpf.api.web.controller.JobController;
+import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
+
+import com.revolsys.collection.map.MapEx;
+import com.revolsys.io.FileUtil;
+import com.revolsys.io.IoFactory;
+import com.revolsys.io.map.MapReader;
+import com.revolsys.record.io.RecordWriter;
+import com.revolsys.record.schema.RecordDefinition;
+import com.revolsys.spring.resource.PathResource;
+import com.revolsys.transaction.Transaction;
+
+/**
+ * Assemble the structured result file for a {@link BatchJob} as the group results are received
+ * instead of reading every group result in post-process.
+ *
+ * The group results are appended in sequence order. A group received before the previous groups
+ * stays in the {@link JobController} and is appended once all the previous groups have been
+ * received, so the completed groups of the job act as the reorder buffer. Post-process only has to
+ * close the writer to write the footer.
+ */
+public class StructuredResultAssembler {
+  private final BatchJobService batchJobService;
+
+  private final BatchJob batchJob;
+
+  private final BusinessApplication businessApplication;
+
+  private final String name;
+
+  private final IntPredicate groupCompleted;
+
+  private final IntConsumer groupAppender;
+
+  private final File resultDirectory;
+
+  private final File resultFile;
+
+  private final ReentrantLock lock = new ReentrantLock();
+
+  private RecordWriter writer;
+
+  private RecordDefinition resultRecordDefinition;
+
+  private Map<String, Object> defaultProperties;
+
+  private volatile int nextSequenceNumber = 1;
+
+  private volatile boolean closed = false;
+
+  private boolean hasResults = false;
+
+  public StructuredResultAssembler(final BatchJobService batchJobService, final BatchJob batchJob,
+    final BusinessApplication businessApplication) {
+    this.batchJobService = batchJobService;
+    this.batchJob = batchJob;
+    this.businessApplication = businessApplication;
+    final Identifier batchJobId = batchJob.getIdentifier();
+    this.name = batchJobId.toString();
+    this.groupCompleted = batchJob::isCompleted;
+    this.groupAppender = this::appendGroup;
+    final String resultFormat = batchJob.getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
+    final String fileExtension = IoFactory.fileExtensionByMediaType(resultFormat);
+    this.resultDirectory = FileUtil.newTempDirectory("job-" + batchJobId, "-result");
+    this.resultFile = new File(this.resultDirectory, "result." + fileExtension);
+  }
+
+  /**
+   * Construct an assembler that uses the functions to check if a group is completed and to append
+   * a group, instead of a batch job and result file.
+   *
+   * @param name The name used in log messages.
+   * @param groupCompleted Check if the group with the sequence number is completed.
+   * @param groupAppender Append the group with the sequence number.
+   */
+  StructuredResultAssembler(final String name, final IntPredicate groupCompleted,
+    final IntConsumer groupAppender) {
+    this.batchJobService = null;
+    this.batchJob = null;
+    this.businessApplication = null;
+    this.name = name;
+    this.groupCompleted = groupCompleted;
+    this.groupAppender = groupAppender;
+    this.resultDirectory = null;
+    this.resultFile = null;
+  }
+
+  /**
+   * Append the completed groups that are next in sequence. If another thread is already appending
+   * groups this method returns immediately and that thread appends the groups.
+   */
+  public void appendCompletedGroups() {
+    while (!this.closed && this.groupCompleted.test(this.nextSequenceNumber)
+      && this.lock.tryLock()) {
+      try {
+        while (!this.closed && this.groupCompleted.test(this.nextSequenceNumber)) {
+          this.groupAppender.accept(this.nextSequenceNumber);
+          this.nextSequenceNumber++;
+        }
+      } catch (final Throwable e) {
+        Logs.error(this,
+          "Unable to assemble results, results will be created in post-process: " + this.name, e);
+        close();
+      } finally {
+        this.lock.unlock();
+      }
+    }
+  }
+
+  private void appendGroup(final int sequenceNumber) {
+    final Identifier batchJobId = this.batchJob.getIdentifier();
+    if (this.writer == null) {
+      final String resultFormat = this.batchJob.getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
+      this.resultRecordDefinition = this.businessApplication.getResultRecordDefinition();
+      this.writer = this.batchJobService.newStructuredResultWriter(this.batchJob, batchJobId,
+        this.businessApplication, new PathResource(this.resultFile), this.resultRecordDefinition,
+        resultFormat);
+      this.writer.open();
+      this.defaultProperties = new HashMap<>(this.writer.getProperties());
+    }
+    final JobController jobController = this.batchJobService.getJobController();
+    try (
+      Transaction transaction = this.batchJobService.newTransaction();
+      MapReader resultDataReader = jobController.getGroupResultReader(batchJobId,
+        sequenceNumber)) {
+      if (resultDataReader != null) {
+        for (final MapEx resultData : resultDataReader) {
+          this.batchJobService.postProcessWriteStructuredResult(this.writer,
+            this.resultRecordDefinition, this.defaultProperties, resultData);
+          this.hasResults = true;
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop assembling the results and delete the result file.
+   */
+  public void close() {
+    this.closed = true;
+    this.lock.lock();
+    try {
+      closeWriter();
+      if (this.resultDirectory != null) {
+        FileUtil.deleteDirectory(this.resultDirectory, true);
+      }
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  private void closeWriter() {
+    final RecordWriter writer = this.writer;
+    if (writer != null) {
+      this.writer = null;
+      writer.close();
+    }
+  }
+
+  /**
+   * Append any remaining groups and close the writer.
+   *
+   * @param numSubmittedGroups The number of groups in the job.
+   * @return True if all the groups were appended and the result file is complete.
+   */
+  public boolean finish(final int numSubmittedGroups) {
+    this.lock.lock();
+    try {
+      if (!this.closed) {
+        try {
+          while (this.nextSequenceNumber <= numSubmittedGroups
+            && this.groupCompleted.test(this.nextSequenceNumber)) {
+            this.groupAppender.accept(this.nextSequenceNumber);
+            this.nextSequenceNumber++;
+          }
+          if (this.nextSequenceNumber > numSubmittedGroups) {
+            closeWriter();
+            this.closed = true;
+            return true;
+          }
+        } catch (final Throwable e) {
+          Logs.error(this,
+            "Unable to assemble results, results will be created in post-process: " + this.name, e);
+        }
+        close();
+      }
+      return false;
+    } finally {
+      this.lock.unlock();
+    }
+  }
+
+  public File getResultFile() {
+    return this.resultFile;
+  }
+
+  public boolean hasResults() {
+    return this.hasResults;
+  }
+
+  @Override
+  public String toString() {
+    return this.name;
+  }
+}
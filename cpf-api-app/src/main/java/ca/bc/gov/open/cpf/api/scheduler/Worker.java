@@ -19,6 +19,9 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -36,6 +39,8 @@ import com.revolsys.util.Property;
 import com.revolsys.websocket.json.JsonAsyncSender;
 
 public class Worker implements Closeable {
+  public static final long AFFINITY_TIME = 10 * 60 * 1000;
+
   private final Map<String, BatchJobRequestExecutionGroup> executingGroupsById = new TreeMap<>();
 
   private final Map<String, Set<BatchJobRequestExecutionGroup>> executingGroupsIdByModule = new TreeMap<>();
@@ -52,6 +57,12 @@ public class Worker implements Closeable {
 
   private final String key;
 
+  private int groupCredits;
+
+  private int groupCreditsExecutingCount;
+
+  private Set<String> groupCreditModuleNames = Collections.emptySet();
+
   public Worker(final String id, final long startTime) {
     this.id = id;
     this.key = id.toLowerCase().replaceAll("[^0-9a-z]+", "_");
@@ -67,6 +78,11 @@ public class Worker implements Closeable {
       final String moduleNameAndTime = moduleName + ":" + moduleStartTime;
       Maps.addToSet(this.executingGroupsIdByModule, moduleNameAndTime, group);
     }
+    final WorkerModuleState moduleState = getModuleState(moduleName);
+    if (moduleState != null) {
+      final long time = System.currentTimeMillis();
+      moduleState.addExecutedGroup(group, time, time - AFFINITY_TIME);
+    }
   }
 
   public boolean cancelBatchJob(final Identifier batchJobId) {
@@ -89,6 +105,29 @@ public class Worker implements Closeable {
     }
   }
 
+  /**
+   * Remove the group from the worker and send a message to the worker to stop executing it.
+   *
+   * @param group The group.
+   */
+  public void cancelExecutingGroup(final BatchJobRequestExecutionGroup group) {
+    final String groupId = group.getId();
+    final boolean executing;
+    synchronized (this.executingGroupsById) {
+      executing = this.executingGroupsById.get(group.getBaseId()) == group;
+      if (executing) {
+        removeExecutingGroup(groupId);
+      }
+    }
+    if (executing) {
+      final MapEx message = new LinkedHashMapEx();
+      message.put("type", "cancelGroup");
+      message.put("batchJobId", group.getBatchJobId());
+      message.put("groupId", groupId);
+      sendMessage(message);
+    }
+  }
+
   public Set<BatchJobRequestExecutionGroup> cancelExecutingGroups(final String moduleNameAndTime) {
     synchronized (this.executingGroupsById) {
       final Set<BatchJobRequestExecutionGroup> groups = this.executingGroupsIdByModule
@@ -115,6 +154,46 @@ public class Worker implements Closeable {
     return this.executingGroupsById.get(baseId);
   }
 
+  /**
+   * Get the affinity of the worker for the group based on the groups the worker has executed
+   * since the group's module was started on the worker.
+   *
+   * @param group The group.
+   * @param minTime The time after which a group must have been executed.
+   * @return 2 if the worker executed a group from the same job, 1 if the worker executed a group
+   *         for the business application, 0 otherwise.
+   */
+  public int getAffinity(final BatchJobRequestExecutionGroup group, final long minTime) {
+    final WorkerModuleState moduleState;
+    synchronized (this.moduleStates) {
+      moduleState = this.moduleStates.get(group.getModuleName());
+    }
+    if (moduleState == null) {
+      return 0;
+    } else {
+      return moduleState.getAffinity(group, minTime);
+    }
+  }
+
+  /**
+   * Get the number of groups that can be pushed to the worker. This is the credits advertised by
+   * the worker less any groups pushed since the worker sent the credits.
+   *
+   * @return The available credits.
+   */
+  public int getAvailableGroupCredits() {
+    synchronized (this.executingGroupsById) {
+      final int pushedCount = this.executingGroupsById.size() - this.groupCreditsExecutingCount;
+      return this.groupCredits - Math.max(0, pushedCount);
+    }
+  }
+
+  public int getExecutingGroupCount() {
+    synchronized (this.executingGroupsById) {
+      return this.executingGroupsById.size();
+    }
+  }
+
   public List<BatchJobRequestExecutionGroup> getExecutingGroups() {
     synchronized (this.executingGroupsById) {
       return new ArrayList<>(this.executingGroupsById.values());
@@ -125,6 +204,10 @@ public class Worker implements Closeable {
     return this.executingGroupsById;
   }
 
+  public Set<String> getGroupCreditModuleNames() {
+    return this.groupCreditModuleNames;
+  }
+
   public String getId() {
     return this.id;
   }
@@ -160,6 +243,10 @@ public class Worker implements Closeable {
     return this.startTime;
   }
 
+  public boolean isGroupCreditModule(final String moduleName) {
+    return this.groupCreditModuleNames.contains(moduleName);
+  }
+
   public boolean isSession(final Session session) {
     return this.messageSender.isSession(session);
   }
@@ -184,6 +271,19 @@ public class Worker implements Closeable {
     this.messageSender.sendMessage(message);
   }
 
+  public void setGroupCredits(final int credits, final int executingGroupCount,
+    final Collection<String> moduleNames) {
+    synchronized (this.executingGroupsById) {
+      this.groupCredits = credits;
+      this.groupCreditsExecutingCount = executingGroupCount;
+      if (moduleNames == null) {
+        this.groupCreditModuleNames = Collections.emptySet();
+      } else {
+        this.groupCreditModuleNames = new HashSet<>(moduleNames);
+      }
+    }
+  }
+
   public void setLastConnectTime(final Timestamp lastConnectTime) {
     this.lastConnectTime = lastConnectTime;
   }
@@ -195,6 +295,7 @@ public class Worker implements Closeable {
   public synchronized void setSession(final Session session) {
     if (session == null) {
       this.messageSender.clearSession();
+      setGroupCredits(0, 0, null);
     } else {
       this.messageSender.setSession(session);
     }
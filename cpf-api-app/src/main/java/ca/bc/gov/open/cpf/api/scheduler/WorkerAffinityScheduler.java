@@ -0,0 +1,215 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Prefer to execute groups on the workers that have recently executed groups from the same job
+ * or business application, so that the plug-in's caches and JIT compiled code are reused.
+ *
+ * If a worker reads a group that another worker has a higher affinity for, the group is held for
+ * the other worker. If the other worker doesn't read the group within the spill over time the
+ * group is released so that any worker can execute it.
+ */
+public class WorkerAffinityScheduler {
+  private static class HeldGroup {
+    private final BatchJobRequestExecutionGroup group;
+
+    private final long releaseTime;
+
+    private HeldGroup(final BatchJobRequestExecutionGroup group, final long releaseTime) {
+      this.group = group;
+      this.releaseTime = releaseTime;
+    }
+  }
+
+  private final BatchJobService batchJobService;
+
+  private final Map<String, Deque<HeldGroup>> heldGroupsByWorkerId = new HashMap<>();
+
+  private final long spillOverTime;
+
+  public WorkerAffinityScheduler(final BatchJobService batchJobService,
+    final long spillOverTime) {
+    this.batchJobService = batchJobService;
+    this.spillOverTime = spillOverTime;
+  }
+
+  /**
+   * Release all the held groups so that any worker can execute them.
+   */
+  public void clear() {
+    final List<BatchJobRequestExecutionGroup> groups = new ArrayList<>();
+    synchronized (this) {
+      for (final Deque<HeldGroup> heldGroups : this.heldGroupsByWorkerId.values()) {
+        for (final HeldGroup heldGroup : heldGroups) {
+          groups.add(heldGroup.group);
+        }
+      }
+      this.heldGroupsByWorkerId.clear();
+    }
+    scheduleGroups(groups);
+  }
+
+  /**
+   * Get the worker with the highest affinity for the group. If workers have the same affinity the
+   * worker executing the fewest groups is used.
+   *
+   * @param workers The workers to choose from.
+   * @param group The group.
+   * @return The worker or null if none of the workers have an affinity for the group or the
+   *         group is a speculatively executed group.
+   */
+  public Worker getPreferredWorker(final Collection<Worker> workers,
+    final BatchJobRequestExecutionGroup group) {
+    Worker preferredWorker = null;
+    if (!group.hasDuplicate()) {
+      final long minTime = System.currentTimeMillis() - Worker.AFFINITY_TIME;
+      int preferredAffinity = 0;
+      for (final Worker worker : workers) {
+        final int affinity = worker.getAffinity(group, minTime);
+        if (affinity > preferredAffinity) {
+          preferredWorker = worker;
+          preferredAffinity = affinity;
+        } else if (affinity > 0 && affinity == preferredAffinity
+          && worker.getExecutingGroupCount() < preferredWorker.getExecutingGroupCount()) {
+          preferredWorker = worker;
+        }
+      }
+    }
+    return preferredWorker;
+  }
+
+  /**
+   * Get the time to wait for a new group, limited to the time until the next held group is
+   * released.
+   *
+   * @param waitTime The maximum time to wait.
+   * @return The time to wait.
+   */
+  public synchronized long getWaitTime(final long waitTime) {
+    final long currentTime = System.currentTimeMillis();
+    long minWaitTime = waitTime;
+    for (final Deque<HeldGroup> heldGroups : this.heldGroupsByWorkerId.values()) {
+      final HeldGroup heldGroup = heldGroups.peekFirst();
+      if (heldGroup != null) {
+        minWaitTime = Math.min(minWaitTime, heldGroup.releaseTime - currentTime);
+      }
+    }
+    return Math.max(1, minWaitTime);
+  }
+
+  /**
+   * Hold the group for another worker if that worker has a higher affinity for the group than
+   * the worker that read the group.
+   *
+   * @param worker The worker that read the group.
+   * @param group The group.
+   * @return True if the group was held for another worker.
+   */
+  public boolean holdGroup(final Worker worker, final BatchJobRequestExecutionGroup group) {
+    if (group.isAffinityHeld()) {
+      return false;
+    } else {
+      final Worker preferredWorker = getPreferredWorker(this.batchJobService.getWorkers(), group);
+      final long currentTime = System.currentTimeMillis();
+      final long minTime = currentTime - Worker.AFFINITY_TIME;
+      if (preferredWorker == null || preferredWorker == worker
+        || worker.getAffinity(group, minTime) >= preferredWorker.getAffinity(group, minTime)) {
+        return false;
+      } else {
+        final String preferredWorkerId = preferredWorker.getId();
+        synchronized (this) {
+          Deque<HeldGroup> heldGroups = this.heldGroupsByWorkerId.get(preferredWorkerId);
+          if (heldGroups == null) {
+            heldGroups = new ArrayDeque<>();
+            this.heldGroupsByWorkerId.put(preferredWorkerId, heldGroups);
+          }
+          heldGroups.addLast(new HeldGroup(group, currentTime + this.spillOverTime));
+        }
+        group.setAffinityHeld(true);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Remove the next group held for the worker.
+   *
+   * @param workerId The worker identifier.
+   * @param moduleNames The names of the modules the worker can execute groups for.
+   * @return The group or null if there isn't a group held for the worker.
+   */
+  public synchronized BatchJobRequestExecutionGroup pollGroup(final String workerId,
+    final Collection<String> moduleNames) {
+    final Deque<HeldGroup> heldGroups = this.heldGroupsByWorkerId.get(workerId);
+    BatchJobRequestExecutionGroup group = null;
+    if (heldGroups != null) {
+      for (final Iterator<HeldGroup> iterator = heldGroups.iterator(); group == null
+        && iterator.hasNext();) {
+        final HeldGroup heldGroup = iterator.next();
+        if (heldGroup.group.isCancelled()) {
+          iterator.remove();
+        } else if (moduleNames == null || moduleNames.contains(heldGroup.group.getModuleName())) {
+          iterator.remove();
+          group = heldGroup.group;
+        }
+      }
+      if (heldGroups.isEmpty()) {
+        this.heldGroupsByWorkerId.remove(workerId);
+      }
+    }
+    return group;
+  }
+
+  /**
+   * Release the groups that have been held for longer than the spill over time so that any
+   * worker can execute them.
+   */
+  public void releaseExpiredGroups() {
+    final List<BatchJobRequestExecutionGroup> groups = new ArrayList<>();
+    synchronized (this) {
+      final long currentTime = System.currentTimeMillis();
+      for (final Iterator<Deque<HeldGroup>> iterator = this.heldGroupsByWorkerId.values()
+        .iterator(); iterator.hasNext();) {
+        final Deque<HeldGroup> heldGroups = iterator.next();
+        while (!heldGroups.isEmpty() && heldGroups.peekFirst().releaseTime <= currentTime) {
+          groups.add(heldGroups.removeFirst().group);
+        }
+        if (heldGroups.isEmpty()) {
+          iterator.remove();
+        }
+      }
+    }
+    scheduleGroups(groups);
+  }
+
+  private void scheduleGroups(final List<BatchJobRequestExecutionGroup> groups) {
+    for (final BatchJobRequestExecutionGroup group : groups) {
+      if (!group.isCancelled()) {
+        this.batchJobService.scheduleGroup(group);
+      }
+    }
+  }
+}
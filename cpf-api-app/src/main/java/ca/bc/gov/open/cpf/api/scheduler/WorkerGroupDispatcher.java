@@ -0,0 +1,147 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.jeometry.common.logging.Logs;
+
+import com.revolsys.parallel.channel.ClosedException;
+
+/**
+ * Push {@link BatchJobRequestExecutionGroup}s to the workers that have advertised free group
+ * credits over the web socket, instead of waiting for the worker to poll for the next group.
+ */
+public class WorkerGroupDispatcher implements Runnable {
+
+  private final BatchJobService batchJobService;
+
+  private boolean running = true;
+
+  private boolean creditsChanged = false;
+
+  private final Object monitor = new Object();
+
+  private long maxWaitTime = 10000;
+
+  private int workerIndex = 0;
+
+  public WorkerGroupDispatcher(final BatchJobService batchJobService) {
+    this.batchJobService = batchJobService;
+    final Thread thread = new Thread(this, "cpf-worker-group-dispatcher");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public void creditsChanged() {
+    synchronized (this.monitor) {
+      this.creditsChanged = true;
+      this.monitor.notifyAll();
+    }
+  }
+
+  private boolean dispatchGroup(final List<Worker> workers,
+    final BatchJobRequestExecutionGroup group) {
+    final String moduleName = group.getModuleName();
+    final Worker preferredWorker = this.batchJobService.getPreferredWorker(workers, group);
+    if (preferredWorker != null && preferredWorker.isGroupCreditModule(moduleName)
+      && preferredWorker.getAvailableGroupCredits() > 0) {
+      this.batchJobService.dispatchGroup(preferredWorker, group);
+      return true;
+    }
+    final int workerCount = workers.size();
+    for (int i = 0; i < workerCount; i++) {
+      this.workerIndex = (this.workerIndex + 1) % workerCount;
+      final Worker worker = workers.get(this.workerIndex);
+      if (worker.isGroupCreditModule(moduleName) && worker.getAvailableGroupCredits() > 0) {
+        this.batchJobService.dispatchGroup(worker, group);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private List<Worker> getWorkersWithCredits() {
+    final List<Worker> workers = new ArrayList<>();
+    for (final Worker worker : this.batchJobService.getWorkers()) {
+      if (worker.getAvailableGroupCredits() > 0) {
+        workers.add(worker);
+      }
+    }
+    return workers;
+  }
+
+  @Override
+  public void run() {
+    while (this.running) {
+      try {
+        final List<Worker> workers = getWorkersWithCredits();
+        if (workers.isEmpty()) {
+          waitForCredits();
+        } else {
+          final Set<String> moduleNames = new TreeSet<>();
+          for (final Worker worker : workers) {
+            moduleNames.addAll(worker.getGroupCreditModuleNames());
+          }
+          if (moduleNames.isEmpty()) {
+            waitForCredits();
+          } else {
+            final BatchJobRequestExecutionGroup group = this.batchJobService
+              .readGroupToSchedule(this.maxWaitTime, new ArrayList<>(moduleNames));
+            if (group != null && !group.isCancelled()) {
+              if (!dispatchGroup(workers, group)) {
+                this.batchJobService.scheduleGroup(group);
+              }
+            }
+          }
+        }
+      } catch (final ClosedException e) {
+        this.running = false;
+      } catch (final Throwable e) {
+        if (this.running) {
+          Logs.error(this, "Error dispatching groups to workers", e);
+        }
+      }
+    }
+  }
+
+  public void setMaxWaitTime(final long maxWaitTime) {
+    this.maxWaitTime = maxWaitTime;
+  }
+
+  public void stop() {
+    this.running = false;
+    synchronized (this.monitor) {
+      this.monitor.notifyAll();
+    }
+  }
+
+  private void waitForCredits() {
+    synchronized (this.monitor) {
+      if (this.running && !this.creditsChanged) {
+        try {
+          this.monitor.wait(this.maxWaitTime);
+        } catch (final InterruptedException e) {
+          this.running = false;
+        }
+      }
+      this.creditsChanged = false;
+    }
+  }
+}
@@ -16,6 +16,10 @@
 package ca.bc.gov.open.cpf.api.scheduler;
 
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jeometry.common.data.identifier.Identifier;
 
 public class WorkerModuleState {
 
@@ -29,10 +33,62 @@ public class WorkerModuleState {
 
   private long startedTime;
 
+  private final Map<Identifier, Long> batchJobExecutionTimes = new HashMap<>();
+
+  private final Map<String, Long> businessApplicationExecutionTimes = new HashMap<>();
+
   public WorkerModuleState(final String name) {
     this.name = name;
   }
 
+  /**
+   * Record that a group for the job and business application was executed by the module on the
+   * worker. Records older than minTime are removed.
+   *
+   * @param group The group.
+   * @param time The time the group was started.
+   * @param minTime The time before which the records are removed.
+   */
+  public synchronized void addExecutedGroup(final BatchJobRequestExecutionGroup group,
+    final long time, final long minTime) {
+    this.batchJobExecutionTimes.values().removeIf(executionTime -> executionTime < minTime);
+    this.batchJobExecutionTimes.put(group.getBatchJobId(), time);
+    this.businessApplicationExecutionTimes.put(group.getBusinessApplicationName(), time);
+  }
+
+  /**
+   * Remove the records of the executed groups as the module was restarted or stopped on the
+   * worker.
+   */
+  public synchronized void clearExecutedGroups() {
+    this.batchJobExecutionTimes.clear();
+    this.businessApplicationExecutionTimes.clear();
+  }
+
+  /**
+   * Get the affinity of the module on the worker for the group.
+   *
+   * @param group The group.
+   * @param minTime The time after which a group must have been executed.
+   * @return 2 if a group from the same job was executed, 1 if a group for the business
+   *         application was executed, 0 otherwise.
+   */
+  public synchronized int getAffinity(final BatchJobRequestExecutionGroup group,
+    final long minTime) {
+    if (isStarted()) {
+      final Long batchJobTime = this.batchJobExecutionTimes.get(group.getBatchJobId());
+      if (batchJobTime != null && batchJobTime >= minTime) {
+        return 2;
+      }
+      final Long businessApplicationTime = this.businessApplicationExecutionTimes
+        .get(group.getBusinessApplicationName());
+      if (businessApplicationTime != null && businessApplicationTime >= minTime) {
+        return 1;
+      }
+    }
+    return 0;
+  }
+
   public String getModuleError() {
     return this.moduleError;
   }
@@ -76,6 +76,12 @@ public class RemoveOldBatchJobs {
         throw transaction.setRollbackOnly(e);
       }
     }
+    // The files are deleted after the jobs are committed so the transaction isn't held open
+    try {
+      this.batchJobService.getJobController().deleteUnreferencedFiles();
+    } catch (final Throwable e) {
+      Logs.error(this, "Unable to delete unreferenced job files", e);
+    }
   }
 
   public void setBatchJobService(final BatchJobService batchJobService) {
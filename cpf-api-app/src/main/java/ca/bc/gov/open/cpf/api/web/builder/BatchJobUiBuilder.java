@@ -22,6 +22,7 @@ import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Map.Entry;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -38,6 +39,7 @@ import ca.bc.gov.open.cpf.api.domain.BatchJob;
 import ca.bc.gov.open.cpf.api.domain.BatchJobFile;
 import ca.bc.gov.open.cpf.api.domain.BatchJobResult;
 import ca.bc.gov.open.cpf.api.domain.BatchJobStatusChange;
+import ca.bc.gov.open.cpf.api.scheduler.BatchJobScheduler;
 import ca.bc.gov.open.cpf.api.scheduler.BatchJobService;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
 import ca.bc.gov.open.cpf.plugin.impl.module.Module;
@@ -209,6 +211,7 @@ public class BatchJobUiBuilder extends CpfUiBuilder {
   protected void initLabels() {
     super.initLabels();
     addLabel("jobStatusDate", "Job Status as of");
+    addLabel("queuedJobsByUser", "Queued Jobs by User");
   }
 
   @Override
@@ -439,7 +442,8 @@ public class BatchJobUiBuilder extends CpfUiBuilder {
     "RESULT_DATA_CONTENT_TYPE", "WHEN_CREATED", "WHEN_UPDATED", "LAST_SCHEDULED_TIMESTAMP",
     "COMPLETED_TIMESTAMP", "expiryDate", "NOTIFICATION_URL", "NUM_SUBMITTED_REQUESTS",
     "completedRequests", "failedRequests", "GROUP_SIZE", "groupsToProcess", "scheduledGroups",
-    "completedGroups", "propertyMap", "WHO_CREATED", "WHO_UPDATED", "adminActions"
+    "completedGroups", "queuedJobsByUser", "propertyMap", "WHO_CREATED", "WHO_UPDATED",
+    "adminActions"
   })
   @ResponseBody
   public ElementContainer moduleAppView(final HttpServletRequest request,
@@ -487,6 +491,37 @@ public class BatchJobUiBuilder extends CpfUiBuilder {
     return tabs;
   }
 
+  /**
+   * Write the number of jobs for each user waiting to have a group scheduled for the job's
+   * business application.
+   */
+  public void queuedJobsByUser(final XmlWriter out, final Object object) {
+    final Record batchJob = (Record)object;
+    final String businessApplicationName = batchJob.getValue(BatchJob.BUSINESS_APPLICATION_NAME);
+    final BatchJobScheduler scheduler = getBatchJobService().getScheduler();
+    final Map<String, Integer> jobCountByUserId;
+    if (scheduler == null) {
+      jobCountByUserId = Collections.emptyMap();
+    } else {
+      jobCountByUserId = scheduler.getQueuedJobCountByUserId(businessApplicationName);
+    }
+    if (jobCountByUserId.isEmpty()) {
+      out.text('-');
+    } else {
+      boolean first = true;
+      for (final Entry<String, Integer> entry : jobCountByUserId.entrySet()) {
+        if (first) {
+          first = false;
+        } else {
+          out.text(", ");
+        }
+        out.text(entry.getKey());
+        out.text("=");
+        out.text(entry.getValue());
+      }
+    }
+  }
+
   public void scheduledGroups(final XmlWriter out, final Object object) {
     final BatchJob batchJob = (BatchJob)object;
     final String text = batchJob.getScheduledGroups();
@@ -17,6 +17,7 @@ package ca.bc.gov.open.cpf.api.web.builder;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
@@ -50,6 +51,7 @@ import com.revolsys.transaction.Transaction;
 import com.revolsys.ui.html.decorator.CollapsibleBox;
 import com.revolsys.ui.html.fields.Field;
 import com.revolsys.ui.html.fields.NumberField;
+import com.revolsys.ui.html.fields.TextAreaField;
 import com.revolsys.ui.html.form.Form;
 import com.revolsys.ui.html.form.UiBuilderObjectForm;
 import com.revolsys.ui.html.view.ButtonsToolbarElement;
@@ -114,8 +116,9 @@ public class TuningUiBuilder extends CpfUiBuilder {
   }, title = "Config Tuning Parameters", method = {
     RequestMethod.GET, RequestMethod.POST
   }, fieldNames = {
-    "preProcessPoolSize", "schedulerPoolSize", "groupResultPoolSize", "postProcessPoolSize",
-    "databaseConnectionPoolSize"
+    "preProcessPoolSize", "preProcessGroupPoolSize", "schedulerPoolSize", "groupResultPoolSize",
+    "postProcessPoolSize", "databaseConnectionPoolSize", "businessApplicationWeights",
+    "userWeights"
   }, permission = "hasRole('ROLE_ADMIN')")
   @ResponseBody
   public Object config(final HttpServletRequest request, final HttpServletResponse response)
@@ -125,7 +128,13 @@ public class TuningUiBuilder extends CpfUiBuilder {
 
     final Map<String, Object> updatedConfig = new HashMap<>();
     for (final String fieldName : fieldNames) {
-      updatedConfig.put(fieldName, Property.get(this.cpfConfig, fieldName));
+      Object value = Property.get(this.cpfConfig, fieldName);
+      if (CpfConfig.isWeightsProperty(fieldName)) {
+        @SuppressWarnings("unchecked")
+        final Map<String, Integer> weights = (Map<String, Integer>)value;
+        value = CpfConfig.formatWeights(weights);
+      }
+      updatedConfig.put(fieldName, value);
     }
     final Form form = newTableForm(updatedConfig, "config");
     form.initialize(request);
@@ -142,8 +151,16 @@ public class TuningUiBuilder extends CpfUiBuilder {
           Transaction transaction = recordStore.newTransaction()) {
           for (final String fieldName : fieldNames) {
             final Field field = form.getField(fieldName);
-            final Object value = field.getValue();
-            Property.setSimple(this.cpfConfig, fieldName, value);
+            Object value = field.getValue();
+            String valueType = "int";
+            if (CpfConfig.isWeightsProperty(fieldName)) {
+              final Map<String, Integer> weights = CpfConfig.parseWeights((String)value);
+              Property.setSimple(this.cpfConfig, fieldName, weights);
+              value = CpfConfig.formatWeights(weights);
+              valueType = "string";
+            } else {
+              Property.setSimple(this.cpfConfig, fieldName, value);
+            }
             final Query query = new Query(ConfigProperty.CONFIG_PROPERTY);
             final And condition = new And(
               Q.equal(ConfigProperty.ENVIRONMENT_NAME, ConfigProperty.DEFAULT),
@@ -161,7 +178,7 @@ public class TuningUiBuilder extends CpfUiBuilder {
               configProperty.setValue(ConfigProperty.PROPERTY_NAME, fieldName);
             }
             configProperty.setValue(ConfigProperty.PROPERTY_VALUE, value);
-            configProperty.setValue(ConfigProperty.PROPERTY_VALUE_TYPE, "int");
+            configProperty.setValue(ConfigProperty.PROPERTY_VALUE_TYPE, valueType);
             if (exists) {
               updateObject(configProperty);
             } else {
@@ -195,13 +212,23 @@ public class TuningUiBuilder extends CpfUiBuilder {
     return view;
   }
 
+  @Override
+  protected void initFields() {
+    super.initFields();
+    addField(new TextAreaField("businessApplicationWeights", 70, 3, 4000, false));
+    addField(new TextAreaField("userWeights", 70, 3, 4000, false));
+  }
+
   @Override
   protected void initLabels() {
     super.initLabels();
     addLabel("preProcessPoolSize", "Pre-Process Thread Pool Size");
+    addLabel("preProcessGroupPoolSize", "Pre-Process Group Thread Pool Size");
     addLabel("postProcessPoolSize", "Post-Process Thread Pool Size");
     addLabel("schedulerPoolSize", "Scheduler Thread Pool Size");
     addLabel("groupResultPoolSize", "Group Result Thread Pool Size");
+    addLabel("businessApplicationWeights", "Business Application Weights (name=weight,...)");
+    addLabel("userWeights", "User Weights (name=weight,...)");
   }
 
   @RequestMapping(value = {
@@ -219,6 +246,10 @@ public class TuningUiBuilder extends CpfUiBuilder {
     final int preProcessPoolSize = this.cpfConfig.getPreProcessPoolSize();
     addCounts(rows, "Pre Process Thread Pool Size", this.cpfJobPreProcess, preProcessPoolSize);
 
+    final int preProcessGroupPoolSize = this.cpfConfig.getPreProcessGroupPoolSize();
+    addCounts(rows, "Pre Process Group Thread Pool Size", this.cpfJobPreProcess.getGroupExecutor(),
+      preProcessGroupPoolSize);
+
     final int schedulerPoolSize = this.cpfConfig.getSchedulerPoolSize();
     addCounts(rows, "Scheduler Thread Pool Size", this.cpfJobScheduler, schedulerPoolSize);
 
@@ -242,18 +273,29 @@ public class TuningUiBuilder extends CpfUiBuilder {
   @Override
   public boolean validateForm(final UiBuilderObjectForm form) {
     final int preProcessPoolSize = form.getField("preProcessPoolSize").getValue(DataTypes.INT);
+    final int preProcessGroupPoolSize = form.getField("preProcessGroupPoolSize")
+      .getValue(DataTypes.INT);
     final int postProcessPoolSize = form.getField("postProcessPoolSize").getValue(DataTypes.INT);
     final int schedulerPoolSize = form.getField("schedulerPoolSize").getValue(DataTypes.INT);
     final int groupResultPoolSize = form.getField("groupResultPoolSize").getValue(DataTypes.INT);
     final Field databaseConnectionField = form.getField("databaseConnectionPoolSize");
     final int databaseConnectionPoolSize = databaseConnectionField.getValue(DataTypes.INT);
-    if (preProcessPoolSize + postProcessPoolSize + schedulerPoolSize + groupResultPoolSize > 0.9
-      * databaseConnectionPoolSize) {
+    if (preProcessPoolSize + preProcessGroupPoolSize + postProcessPoolSize + schedulerPoolSize
+      + groupResultPoolSize > 0.9 * databaseConnectionPoolSize) {
       databaseConnectionField.addValidationError(
-        "Not enough database connections, at least 10% must be available for handling web service requests. preProcessPoolSize + schedulerPoolSize + groupResultPoolSize + postProcessPoolSize > 90% * databaseConnectionPoolSize");
+        "Not enough database connections, at least 10% must be available for handling web service requests. preProcessPoolSize + preProcessGroupPoolSize + schedulerPoolSize + groupResultPoolSize + postProcessPoolSize > 90% * databaseConnectionPoolSize");
       return false;
     }
-
-    return true;
+    boolean valid = true;
+    for (final String fieldName : Arrays.asList("businessApplicationWeights", "userWeights")) {
+      final Field weightsField = form.getField(fieldName);
+      try {
+        CpfConfig.parseWeights((String)weightsField.getValue());
+      } catch (final IllegalArgumentException e) {
+        weightsField.addValidationError(e.getMessage());
+        valid = false;
+      }
+    }
+    return valid;
   }
 }
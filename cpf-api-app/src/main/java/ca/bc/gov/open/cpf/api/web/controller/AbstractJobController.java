@@ -59,7 +59,7 @@ public abstract class AbstractJobController implements JobController {
     if (in == null) {
       return null;
     } else {
-      return Tsv.mapReader(in);
+      return Tsv.mapReader(ContentEncoding.newDecodedInputStream(in));
     }
   }
 
@@ -79,7 +79,8 @@ public abstract class AbstractJobController implements JobController {
     if (inputStream == null) {
       return null;
     } else {
-      final String inputData = FileUtil.getString(inputStream);
+      final String inputData = FileUtil
+        .getString(ContentEncoding.newDecodedInputStream(inputStream));
       return inputData;
     }
   }
@@ -96,7 +97,8 @@ public abstract class AbstractJobController implements JobController {
 
   @Override
   public InputStream getGroupResultStream(final Identifier jobId, final int sequenceNumber) {
-    return getFileStream(jobId, GROUP_RESULTS, sequenceNumber);
+    final InputStream in = getFileStream(jobId, GROUP_RESULTS, sequenceNumber);
+    return ContentEncoding.newDecodedInputStream(in);
   }
 
   @Override
@@ -152,7 +154,8 @@ public abstract class AbstractJobController implements JobController {
   public void writeFile(final HttpServletResponse response, final Identifier jobId,
     final String path, final int sequenceNumber) throws IOException {
     try (
-      final InputStream in = getFileStream(jobId, path, sequenceNumber)) {
+      final InputStream in = ContentEncoding
+        .newDecodedInputStream(getFileStream(jobId, path, sequenceNumber))) {
       if (in == null) {
         response.sendError(HttpServletResponse.SC_NOT_FOUND);
       } else {
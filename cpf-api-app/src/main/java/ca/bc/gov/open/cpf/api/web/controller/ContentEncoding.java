@@ -0,0 +1,136 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.controller;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.jeometry.common.exception.Exceptions;
+
+/**
+ * Support for the gzip content encoding of group inputs, results and errors. The data is stored in
+ * the {@link JobController} in the encoding it was received and is only decoded when it is read.
+ * Compressed data is detected using the gzip header so data stored before compression was enabled
+ * can still be read.
+ */
+public class ContentEncoding {
+  public static final String GZIP = "gzip";
+
+  public static final String IDENTITY = "identity";
+
+  /**
+   * Check if the Accept-Encoding header value includes gzip with a non-zero quality.
+   *
+   * @param header The header value.
+   * @return True if gzip is accepted.
+   */
+  public static boolean isGzipAccepted(final String header) {
+    if (header != null) {
+      for (final String part : header.split(",")) {
+        final String[] parameters = part.split(";");
+        final String coding = parameters[0].trim();
+        if (GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding)
+          || "*".equals(coding)) {
+          boolean accepted = true;
+          for (int i = 1; i < parameters.length; i++) {
+            final String parameter = parameters[i].trim().replace(" ", "");
+            if (parameter.matches("q=0(\\.0*)?")) {
+              accepted = false;
+            }
+          }
+          if (accepted) {
+            return true;
+          }
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Check if the stream starts with the gzip header. The stream must support mark and reset.
+   *
+   * @param in The input stream.
+   * @return True if the data is gzip compressed.
+   */
+  public static boolean isGzipData(final InputStream in) throws IOException {
+    in.mark(2);
+    try {
+      final int byte1 = in.read();
+      final int byte2 = in.read();
+      return byte1 == (GZIPInputStream.GZIP_MAGIC & 0xff)
+        && byte2 == (GZIPInputStream.GZIP_MAGIC >> 8 & 0xff);
+    } finally {
+      in.reset();
+    }
+  }
+
+  /**
+   * Check if the Content-Encoding header value of a request can be stored.
+   *
+   * @param header The header value.
+   * @return True if the content is not encoded or gzip compressed.
+   */
+  public static boolean isSupported(final String header) {
+    if (header == null) {
+      return true;
+    } else {
+      final String coding = header.trim();
+      return coding.isEmpty() || IDENTITY.equalsIgnoreCase(coding)
+        || GZIP.equalsIgnoreCase(coding) || "x-gzip".equalsIgnoreCase(coding);
+    }
+  }
+
+  /**
+   * Get a stream of the decoded data, decompressing the data if it is gzip compressed.
+   *
+   * @param in The input stream.
+   * @return The decoded input stream or null if in was null.
+   */
+  public static InputStream newDecodedInputStream(final InputStream in) {
+    if (in == null) {
+      return null;
+    } else {
+      final BufferedInputStream bufferedIn = new BufferedInputStream(in);
+      try {
+        if (isGzipData(bufferedIn)) {
+          return new GZIPInputStream(bufferedIn, 8192);
+        } else {
+          return bufferedIn;
+        }
+      } catch (final IOException e) {
+        return Exceptions.throwUncheckedException(e);
+      }
+    }
+  }
+
+  public static Writer newGzipUtf8Writer(final File file) {
+    try {
+      final GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file), 8192);
+      return new OutputStreamWriter(out, StandardCharsets.UTF_8);
+    } catch (final IOException e) {
+      return Exceptions.throwUncheckedException(e);
+    }
+  }
+}
@@ -52,6 +52,21 @@ public class DatabaseJobController extends AbstractJobController {
     this.recordStore = dataAccessObject.getRecordStore();
   }
 
+  @Override
+  public void deleteJobFiles(final Identifier jobId, final String path) {
+    final CpfDataAccessObject dataAccessObject = getDataAccessObject();
+    try (
+      Transaction transaction = dataAccessObject.newTransaction(Propagation.REQUIRED)) {
+      final Query deleteQuery = new Query(BatchJobFile.BATCH_JOB_FILE, Q.and(//
+        Q.equal(BatchJobFile.BATCH_JOB_ID, jobId), //
+        Q.equal(BatchJobFile.FILE_TYPE, path) //
+      ));
+      this.recordStore.deleteRecords(deleteQuery);
+    } catch (final Throwable e) {
+      throw new RuntimeException("Unable to delete files", e);
+    }
+  }
+
   @Override
   protected String getFileContentType(final Identifier jobId, final String path,
     final int sequenceNumber) {
@@ -149,7 +164,8 @@ public class DatabaseJobController extends AbstractJobController {
     if (file != null) {
       try {
         final Blob resultData = file.getValue(BatchJobFile.DATA);
-        return resultData.getBinaryStream(fromIndex, toIndex - fromIndex);
+        final long length = Math.min(toIndex + 1, resultData.length()) - fromIndex;
+        return resultData.getBinaryStream(fromIndex + 1, length);
       } catch (final SQLException e) {
         throw Exceptions.wrap(e);
       }
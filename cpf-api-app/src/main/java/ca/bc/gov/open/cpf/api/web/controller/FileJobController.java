@@ -23,6 +23,7 @@ import java.io.InputStream;
 import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 
@@ -95,6 +96,16 @@ public class FileJobController extends AbstractJobController {
     }
   }
 
+  @Override
+  public void deleteJobFiles(final Identifier jobId, final String path) {
+    for (final String directoryPath : Arrays.asList(path, path + "_content_type")) {
+      final File directory = getJobDirectory(jobId, directoryPath);
+      if (directory.exists()) {
+        deleteDirectory(jobId, directory);
+      }
+    }
+  }
+
   @Override
   protected String getFileContentType(final Identifier jobId, final String path,
     final int sequenceNumber) {
@@ -175,11 +186,26 @@ public class FileJobController extends AbstractJobController {
     return file;
   }
 
+  @Override
+  public File getJobResultFile(final Identifier jobId, final int sequenceNumber) {
+    final File file = getJobFile(jobId, JOB_RESULTS, sequenceNumber);
+    if (file.exists()) {
+      return file;
+    } else {
+      return null;
+    }
+  }
+
   @Override
   public String getKey() {
     return "file";
   }
 
+  @Override
+  public boolean isGroupResultStreamed() {
+    return true;
+  }
+
   @Override
   public void newJobFile(final Identifier jobId, final String path, final long sequenceNumber,
     final String contentType, final Object data) {
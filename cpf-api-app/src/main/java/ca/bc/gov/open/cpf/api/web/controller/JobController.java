@@ -15,6 +15,7 @@
  */
 package ca.bc.gov.open.cpf.api.web.controller;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.List;
@@ -49,6 +50,20 @@ public interface JobController {
     dataAccessObject.deleteBatchJob(jobId);
   }
 
+  /**
+   * Delete all the files of a type for the job.
+   *
+   * @param jobId The job identifier.
+   * @param path The type of file (e.g. {@link #GROUP_INPUTS}).
+   */
+  void deleteJobFiles(Identifier jobId, String path);
+
+  /**
+   * Delete any stored data that is no longer referenced by a job.
+   */
+  default void deleteUnreferencedFiles() {
+  }
+
   CpfDataAccessObject getDataAccessObject();
 
   List<MapEx> getFiles(final Identifier jobId, final String path);
@@ -57,6 +72,11 @@ public interface JobController {
 
   String getGroupInputContentType(Identifier batchJobId, int sequenceNumber);
 
+  /**
+   * Get the group input data as it was stored, which may be gzip compressed.
+   *
+   * @see ContentEncoding
+   */
   InputStream getGroupInputStream(Identifier batchJobId, int sequenceNumber);
 
   String getGroupInputString(Identifier batchJobId, int sequenceNumber);
@@ -67,6 +87,16 @@ public interface JobController {
 
   InputStream getJobInputStream(Identifier batchJobId);
 
+  /**
+   * Get the file the job result is stored in so it can be sent without copying it through an
+   * {@link InputStream}.
+   *
+   * @return The file or null if the result isn't stored in a local file.
+   */
+  default File getJobResultFile(final Identifier batchJobId, final int sequenceNumber) {
+    return null;
+  }
+
   long getJobResultSize(Identifier batchJobId, int sequenceNumber);
 
   InputStream getJobResultStream(Identifier batchJobId, int sequenceNumber);
@@ -76,6 +106,18 @@ public interface JobController {
 
   String getKey();
 
+  /**
+   * Check if the group results streamed by a worker while the group is executing can be written
+   * directly to the job. Controllers that hold a database connection and transaction while a file
+   * is written return false, so the streamed results are spooled to a temporary file and written
+   * when the group completes.
+   *
+   * @return True if the streamed results can be written directly.
+   */
+  default boolean isGroupResultStreamed() {
+    return false;
+  }
+
   void newJobFile(Identifier batchJobId, String path, long sequenceNumber, String contentType,
     Object data);
 
@@ -0,0 +1,504 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.controller;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.jeometry.common.exception.Exceptions;
+
+import com.revolsys.io.FileUtil;
+
+/**
+ * A {@link SegmentStore} using a local (or network mounted) directory.
+ *
+ * <ul>
+ *   <li><code>segments/ab/abcdef...</code> The segment content named by the SHA-256 hash of the
+ *   content.</li>
+ *   <li><code>objects/{key}.manifest</code> The content type on the first line followed by the
+ *   hash and size of each segment in the object.</li>
+ *   <li><code>temp</code> The files being written before they are moved into place.</li>
+ * </ul>
+ */
+public class LocalDirectorySegmentStore implements SegmentStore {
+
+  private static class Manifest {
+    private final String contentType;
+
+    private final List<Segment> segments = new ArrayList<>();
+
+    private long size = 0;
+
+    private Manifest(final String contentType) {
+      this.contentType = contentType;
+    }
+
+    private void addSegment(final Segment segment) {
+      this.segments.add(new Segment(segment.hash, this.size, segment.size));
+      this.size += segment.size;
+    }
+  }
+
+  private static class Segment {
+    private final String hash;
+
+    private final long offset;
+
+    private final long size;
+
+    private Segment(final String hash, final long offset, final long size) {
+      this.hash = hash;
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  private class SegmentInputStream extends InputStream {
+    private final List<Segment> segments;
+
+    private int segmentIndex = 0;
+
+    private long position;
+
+    private final long endIndex;
+
+    private RandomAccessFile file;
+
+    private SegmentInputStream(final Manifest manifest, final long fromIndex,
+      final long endIndex) {
+      this.segments = manifest.segments;
+      this.position = fromIndex;
+      this.endIndex = Math.min(endIndex, manifest.size);
+      while (this.segmentIndex < this.segments.size()) {
+        final Segment segment = this.segments.get(this.segmentIndex);
+        if (segment.offset + segment.size <= this.position) {
+          this.segmentIndex++;
+        } else {
+          break;
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      closeFile();
+      this.segmentIndex = this.segments.size();
+    }
+
+    private void closeFile() throws IOException {
+      final RandomAccessFile file = this.file;
+      if (file != null) {
+        this.file = null;
+        file.close();
+      }
+    }
+
+    @Override
+    public int read() throws IOException {
+      final byte[] buffer = new byte[1];
+      if (read(buffer, 0, 1) == 1) {
+        return buffer[0] & 0xff;
+      } else {
+        return -1;
+      }
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      while (this.position < this.endIndex && this.segmentIndex < this.segments.size()) {
+        final Segment segment = this.segments.get(this.segmentIndex);
+        final long segmentEnd = Math.min(segment.offset + segment.size, this.endIndex);
+        final int count = (int)Math.min(length, segmentEnd - this.position);
+        if (count > 0) {
+          if (this.file == null) {
+            this.file = new RandomAccessFile(getSegmentFile(segment.hash), "r");
+            this.file.seek(this.position - segment.offset);
+          }
+          final int readCount = this.file.read(buffer, offset, count);
+          if (readCount < 0) {
+            throw new IOException("Unexpected end of segment " + segment.hash);
+          }
+          this.position += readCount;
+          if (this.position == segment.offset + segment.size) {
+            closeFile();
+            this.segmentIndex++;
+          }
+          return readCount;
+        } else {
+          closeFile();
+          this.segmentIndex++;
+        }
+      }
+      return -1;
+    }
+  }
+
+  private static final String MANIFEST_EXTENSION = ".manifest";
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static void move(final File source, final File target) throws IOException {
+    try {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    } catch (final AtomicMoveNotSupportedException e) {
+      Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      final int value = bytes[i] & 0xff;
+      chars[i * 2] = HEX_DIGITS[value >>> 4];
+      chars[i * 2 + 1] = HEX_DIGITS[value & 0x0f];
+    }
+    return new String(chars);
+  }
+
+  private final File rootDirectory;
+
+  private final File objectDirectory;
+
+  private final File segmentDirectory;
+
+  private final File tempDirectory;
+
+  public LocalDirectorySegmentStore(final File rootDirectory) {
+    this.rootDirectory = rootDirectory;
+    this.objectDirectory = new File(rootDirectory, "objects");
+    this.segmentDirectory = new File(rootDirectory, "segments");
+    this.tempDirectory = new File(rootDirectory, "temp");
+    this.objectDirectory.mkdirs();
+    this.segmentDirectory.mkdirs();
+    this.tempDirectory.mkdirs();
+  }
+
+  private void addKeys(final List<String> keys, final File directory, final String path,
+    final String prefix) {
+    final File[] files = directory.listFiles();
+    if (files != null) {
+      for (final File file : files) {
+        final String name = file.getName();
+        if (file.isDirectory()) {
+          final String childPath = path + name + "/";
+          if (childPath.startsWith(prefix) || prefix.startsWith(childPath)) {
+            addKeys(keys, file, childPath, prefix);
+          }
+        } else if (name.endsWith(MANIFEST_EXTENSION)) {
+          final String key = path + name.substring(0, name.length() - MANIFEST_EXTENSION.length());
+          if (key.startsWith(prefix)) {
+            keys.add(key);
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public String appendObject(final String key, final String contentType, final InputStream in) {
+    final Segment segment = writeSegment(in);
+    synchronized (this) {
+      Manifest manifest = readManifest(key);
+      if (manifest == null) {
+        manifest = new Manifest(contentType);
+      }
+      manifest.addSegment(segment);
+      writeManifest(key, manifest);
+    }
+    return segment.hash;
+  }
+
+  @Override
+  public synchronized boolean deleteObject(final String key) {
+    final File manifestFile = getManifestFile(key);
+    return manifestFile.delete();
+  }
+
+  @Override
+  public synchronized int deleteObjects(final String prefix) {
+    int count = 0;
+    for (final String key : getKeys(prefix)) {
+      if (deleteObject(key)) {
+        count++;
+      }
+    }
+    if (prefix.endsWith("/")) {
+      final File directory = new File(this.objectDirectory, prefix);
+      if (directory.isDirectory()) {
+        FileUtil.deleteDirectory(directory);
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public int deleteUnreferencedSegments(final long minAge) {
+    final Set<String> hashes = new HashSet<>();
+    synchronized (this) {
+      for (final String key : getKeys("")) {
+        final Manifest manifest = readManifest(key);
+        if (manifest != null) {
+          for (final Segment segment : manifest.segments) {
+            hashes.add(segment.hash);
+          }
+        }
+      }
+    }
+    final long maxLastModified = System.currentTimeMillis() - minAge;
+    int count = 0;
+    final File[] directories = this.segmentDirectory.listFiles();
+    if (directories != null) {
+      for (final File directory : directories) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+          for (final File file : files) {
+            if (!hashes.contains(file.getName())) {
+              // Check the last modified time while locked so a concurrent write of the same
+              // segment either updates the time first or writes a new copy after the delete
+              synchronized (this) {
+                if (file.lastModified() < maxLastModified && file.delete()) {
+                  count++;
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public boolean exists(final String key) {
+    return getManifestFile(key).exists();
+  }
+
+  @Override
+  public List<String> getKeys(final String prefix) {
+    final List<String> keys = new ArrayList<>();
+    final int slashIndex = prefix.lastIndexOf('/');
+    if (slashIndex == -1) {
+      addKeys(keys, this.objectDirectory, "", prefix);
+    } else {
+      final String path = prefix.substring(0, slashIndex + 1);
+      final File directory = new File(this.objectDirectory, path);
+      addKeys(keys, directory, path, prefix);
+    }
+    Collections.sort(keys);
+    return keys;
+  }
+
+  private File getManifestFile(final String key) {
+    if (key == null || key.isEmpty() || key.startsWith("/") || key.endsWith("/")
+      || key.contains("..")) {
+      throw new IllegalArgumentException("Invalid key: " + key);
+    }
+    return new File(this.objectDirectory, key + MANIFEST_EXTENSION);
+  }
+
+  @Override
+  public InputStream getObject(final String key) {
+    final Manifest manifest = readManifest(key);
+    if (manifest == null) {
+      return null;
+    } else {
+      return new SegmentInputStream(manifest, 0, manifest.size);
+    }
+  }
+
+  @Override
+  public InputStream getObject(final String key, final long fromIndex, final long toIndex) {
+    final Manifest manifest = readManifest(key);
+    if (manifest == null) {
+      return null;
+    } else {
+      final long endIndex = Math.min(toIndex, manifest.size - 1) + 1;
+      return new SegmentInputStream(manifest, fromIndex, endIndex);
+    }
+  }
+
+  @Override
+  public File getObjectFile(final String key) {
+    final Manifest manifest = readManifest(key);
+    if (manifest == null || manifest.segments.size() != 1) {
+      return null;
+    } else {
+      final Segment segment = manifest.segments.get(0);
+      return getSegmentFile(segment.hash);
+    }
+  }
+
+  @Override
+  public String getObjectContentType(final String key) {
+    final Manifest manifest = readManifest(key);
+    if (manifest == null) {
+      return null;
+    } else {
+      return manifest.contentType;
+    }
+  }
+
+  @Override
+  public long getObjectSize(final String key) {
+    final Manifest manifest = readManifest(key);
+    if (manifest == null) {
+      return 0;
+    } else {
+      return manifest.size;
+    }
+  }
+
+  public File getRootDirectory() {
+    return this.rootDirectory;
+  }
+
+  private File getSegmentFile(final String hash) {
+    return new File(this.segmentDirectory, hash.substring(0, 2) + "/" + hash);
+  }
+
+  @Override
+  public String putObject(final String key, final String contentType, final InputStream in) {
+    final Segment segment = writeSegment(in);
+    synchronized (this) {
+      final Manifest manifest = new Manifest(contentType);
+      manifest.addSegment(segment);
+      writeManifest(key, manifest);
+    }
+    return segment.hash;
+  }
+
+  private Manifest readManifest(final String key) {
+    final File manifestFile = getManifestFile(key);
+    try (
+      BufferedReader reader = Files.newBufferedReader(manifestFile.toPath(),
+        StandardCharsets.UTF_8)) {
+      final String contentType = reader.readLine();
+      final Manifest manifest;
+      if (contentType == null || contentType.isEmpty()) {
+        manifest = new Manifest(null);
+      } else {
+        manifest = new Manifest(contentType);
+      }
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        final int tabIndex = line.indexOf('\t');
+        if (tabIndex != -1) {
+          final String hash = line.substring(0, tabIndex);
+          final long size = Long.parseLong(line.substring(tabIndex + 1));
+          manifest.addSegment(new Segment(hash, 0, size));
+        }
+      }
+      return manifest;
+    } catch (final NoSuchFileException e) {
+      return null;
+    } catch (final IOException e) {
+      return Exceptions.throwUncheckedException(e);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.rootDirectory.toString();
+  }
+
+  private void writeManifest(final String key, final Manifest manifest) {
+    final File manifestFile = getManifestFile(key);
+    manifestFile.getParentFile().mkdirs();
+    File tempFile = null;
+    try {
+      tempFile = File.createTempFile("manifest", ".tmp", this.tempDirectory);
+      try (
+        Writer writer = Files.newBufferedWriter(tempFile.toPath(), StandardCharsets.UTF_8)) {
+        if (manifest.contentType != null) {
+          writer.write(manifest.contentType);
+        }
+        writer.write('\n');
+        for (final Segment segment : manifest.segments) {
+          writer.write(segment.hash);
+          writer.write('\t');
+          writer.write(Long.toString(segment.size));
+          writer.write('\n');
+        }
+      }
+      move(tempFile, manifestFile);
+    } catch (final IOException e) {
+      Exceptions.throwUncheckedException(e);
+    } finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+
+  /**
+   * Write the data to a new segment. If a segment with the same hash already exists the temporary
+   * file is discarded and the last modified time of the existing segment is updated so that it is
+   * not deleted by {@link #deleteUnreferencedSegments(long)}. The time is updated while locked
+   * so it can't race with the delete of the segment.
+   */
+  private Segment writeSegment(final InputStream in) {
+    File tempFile = null;
+    try {
+      final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      tempFile = File.createTempFile("segment", ".tmp", this.tempDirectory);
+      long size = 0;
+      try (
+        OutputStream out = new DigestOutputStream(new FileOutputStream(tempFile), digest)) {
+        final byte[] buffer = new byte[8192];
+        for (int count = in.read(buffer); count != -1; count = in.read(buffer)) {
+          out.write(buffer, 0, count);
+          size += count;
+        }
+      }
+      final String hash = toHex(digest.digest());
+      final File segmentFile = getSegmentFile(hash);
+      synchronized (this) {
+        if (!segmentFile.setLastModified(System.currentTimeMillis())) {
+          segmentFile.getParentFile().mkdirs();
+          move(tempFile, segmentFile);
+        }
+      }
+      return new Segment(hash, 0, size);
+    } catch (final IOException | NoSuchAlgorithmException e) {
+      return Exceptions.throwUncheckedException(e);
+    } finally {
+      if (tempFile != null && tempFile.exists()) {
+        FileUtil.delete(tempFile);
+      }
+    }
+  }
+}
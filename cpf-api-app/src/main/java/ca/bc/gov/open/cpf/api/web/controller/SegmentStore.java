@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.controller;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * An S3 style object store where the content of each object is stored as one or more
+ * content-addressed segments. Objects are written with {@link #putObject(String, String, InputStream)}
+ * and can be extended with {@link #appendObject(String, String, InputStream)}, each append adding a
+ * new segment (part) to the object. Identical segments are only stored once.
+ */
+public interface SegmentStore {
+
+  /**
+   * Append the data as a new segment at the end of the object, creating the object if it doesn't
+   * exist.
+   *
+   * @param key The object key.
+   * @param contentType The content type used if the object is created.
+   * @param in The data to append.
+   * @return The hash of the segment.
+   */
+  String appendObject(String key, String contentType, InputStream in);
+
+  boolean deleteObject(String key);
+
+  /**
+   * Delete all the objects with the key prefix.
+   *
+   * @param prefix The key prefix.
+   * @return The number of objects deleted.
+   */
+  int deleteObjects(String prefix);
+
+  /**
+   * Delete the segments that are not referenced by any object and were last written more than
+   * minAge milliseconds ago.
+   *
+   * @param minAge The minimum age in milliseconds.
+   * @return The number of segments deleted.
+   */
+  int deleteUnreferencedSegments(long minAge);
+
+  boolean exists(String key);
+
+  List<String> getKeys(String prefix);
+
+  /**
+   * Get the local file the object's content is stored in, so it can be sent without being read
+   * through an {@link InputStream}. This is only possible if the object has a single segment
+   * stored in a local file.
+   *
+   * @param key The object key.
+   * @return The file or null if the object isn't stored in a single local file.
+   */
+  default File getObjectFile(final String key) {
+    return null;
+  }
+
+  InputStream getObject(String key);
+
+  /**
+   * Get the bytes fromIndex to toIndex (inclusive) of the object.
+   *
+   * @param key The object key.
+   * @param fromIndex The index of the first byte.
+   * @param toIndex The index of the last byte.
+   * @return The input stream or null if the object doesn't exist.
+   */
+  InputStream getObject(String key, long fromIndex, long toIndex);
+
+  String getObjectContentType(String key);
+
+  long getObjectSize(String key);
+
+  /**
+   * Create or replace the object with a single segment containing the data.
+   *
+   * @param key The object key.
+   * @param contentType The content type.
+   * @param in The data.
+   * @return The hash of the segment.
+   */
+  String putObject(String key, String contentType, InputStream in);
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jeometry.common.data.identifier.Identifier;
+import org.jeometry.common.exception.Exceptions;
+import org.jeometry.common.logging.Logs;
+
+import ca.bc.gov.open.cpf.api.domain.BatchJob;
+import ca.bc.gov.open.cpf.api.domain.CpfDataAccessObject;
+import ca.bc.gov.open.cpf.api.scheduler.JobPreProcessTask;
+import ca.bc.gov.open.cpf.api.scheduler.PreProcessGroup;
+import ca.bc.gov.open.cpf.api.scheduler.SegmentStorePreProcessGroup;
+import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
+
+import com.revolsys.collection.map.LinkedHashMapEx;
+import com.revolsys.collection.map.MapEx;
+import com.revolsys.io.FileUtil;
+import com.revolsys.record.io.format.tsv.Tsv;
+import com.revolsys.spring.resource.Resource;
+
+/**
+ * Store the job files in a {@link SegmentStore} instead of the CPF_BATCH_JOB_FILES table. Each file
+ * is stored as an object with the key <code>jobs/{jobIdPath}/{path}/{sequenceNumber}</code>.
+ */
+public class SegmentStoreJobController extends AbstractJobController {
+
+  /**
+   * Read up to a maximum number of bytes from a stream. Closing the part doesn't close the stream.
+   */
+  private static class PartInputStream extends InputStream {
+    private final InputStream in;
+
+    private long remaining;
+
+    private PartInputStream(final InputStream in, final long size) {
+      this.in = in;
+      this.remaining = size;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      } else {
+        final int b = this.in.read();
+        if (b != -1) {
+          this.remaining--;
+        }
+        return b;
+      }
+    }
+
+    @Override
+    public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+      if (this.remaining <= 0) {
+        return -1;
+      } else {
+        final int count = this.in.read(buffer, offset, (int)Math.min(length, this.remaining));
+        if (count > 0) {
+          this.remaining -= count;
+        }
+        return count;
+      }
+    }
+  }
+
+  private static final long GROUP_RESULT_PART_SIZE = 8 * 1024 * 1024;
+
+  private static final long UNREFERENCED_SEGMENT_AGE = 60 * 60 * 1000;
+
+  private final SegmentStore segmentStore;
+
+  public SegmentStoreJobController(final CpfDataAccessObject dataAccessObject,
+    final SegmentStore segmentStore) {
+    super(dataAccessObject);
+    this.segmentStore = segmentStore;
+  }
+
+  /**
+   * Append the data to the end of the job file as a new segment, creating the file if it doesn't
+   * exist.
+   */
+  public void appendJobFile(final Identifier jobId, final String path, final long sequenceNumber,
+    final String contentType, final Object data) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    try (
+      InputStream in = newInputStream(data)) {
+      this.segmentStore.appendObject(key, contentType, in);
+    } catch (final IOException e) {
+      Exceptions.throwUncheckedException(e);
+    }
+  }
+
+  @Override
+  public void deleteJob(final Identifier jobId) {
+    try {
+      super.deleteJob(jobId);
+    } finally {
+      final String jobKey = getJobKey(jobId);
+      this.segmentStore.deleteObjects(jobKey + "/");
+    }
+  }
+
+  @Override
+  public void deleteJobFiles(final Identifier jobId, final String path) {
+    final String jobKey = getJobKey(jobId);
+    this.segmentStore.deleteObjects(jobKey + "/" + path + "/");
+  }
+
+  @Override
+  public void deleteUnreferencedFiles() {
+    final int count = this.segmentStore.deleteUnreferencedSegments(UNREFERENCED_SEGMENT_AGE);
+    if (count > 0) {
+      Logs.info(this, count + " unreferenced segments deleted from " + this.segmentStore);
+    }
+  }
+
+  @Override
+  protected String getFileContentType(final Identifier jobId, final String path,
+    final int sequenceNumber) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    return this.segmentStore.getObjectContentType(key);
+  }
+
+  private String getFileKey(final Identifier jobId, final String path,
+    final long sequenceNumber) {
+    return getJobKey(jobId) + "/" + path + "/" + sequenceNumber;
+  }
+
+  @Override
+  public List<MapEx> getFiles(final Identifier jobId, final String path) {
+    final String prefix = getJobKey(jobId) + "/" + path + "/";
+    final List<MapEx> files = new ArrayList<>();
+    for (final String key : this.segmentStore.getKeys(prefix)) {
+      final String name = key.substring(prefix.length());
+      try {
+        final int sequenceNumber = Integer.parseInt(name);
+        final MapEx file = new LinkedHashMapEx();
+        file.put("batchJobId", jobId);
+        file.put("filePath", path);
+        file.put("sequenceNumber", sequenceNumber);
+        file.put("contentType", this.segmentStore.getObjectContentType(key));
+        file.put("size", this.segmentStore.getObjectSize(key));
+        files.add(file);
+      } catch (final NumberFormatException e) {
+        Logs.error(this, "Invalid job file key: " + key);
+      }
+    }
+    files.sort((file1, file2) -> Integer.compare(file1.getInteger("sequenceNumber"),
+      file2.getInteger("sequenceNumber")));
+    return files;
+  }
+
+  @Override
+  protected long getFileSize(final Identifier jobId, final String path, final int sequenceNumber) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    return this.segmentStore.getObjectSize(key);
+  }
+
+  @Override
+  protected InputStream getFileStream(final Identifier jobId, final String path,
+    final int sequenceNumber) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    return this.segmentStore.getObject(key);
+  }
+
+  @Override
+  protected InputStream getFileStream(final Identifier jobId, final String path,
+    final int sequenceNumber, final long fromIndex, final long toIndex) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    return this.segmentStore.getObject(key, fromIndex, toIndex);
+  }
+
+  @Override
+  public File getJobResultFile(final Identifier jobId, final int sequenceNumber) {
+    final String key = getFileKey(jobId, JOB_RESULTS, sequenceNumber);
+    return this.segmentStore.getObjectFile(key);
+  }
+
+  private String getJobKey(final Identifier jobId) {
+    return "jobs/" + FileJobController.toPath(jobId.getLong(0));
+  }
+
+  @Override
+  public String getKey() {
+    return "segmentStore";
+  }
+
+  public SegmentStore getSegmentStore() {
+    return this.segmentStore;
+  }
+
+  @Override
+  public boolean isGroupResultStreamed() {
+    return true;
+  }
+
+  private InputStream newInputStream(final Object data) throws IOException {
+    if (data instanceof File) {
+      final File file = (File)data;
+      return FileUtil.getInputStream(file);
+    } else if (data instanceof InputStream) {
+      return (InputStream)data;
+    } else if (data instanceof byte[]) {
+      final byte[] bytes = (byte[])data;
+      return new ByteArrayInputStream(bytes);
+    } else if (data instanceof CharSequence) {
+      final String string = data.toString();
+      return new ByteArrayInputStream(string.getBytes(StandardCharsets.UTF_8));
+    } else if (data instanceof Resource) {
+      final Resource resource = (Resource)data;
+      return resource.newInputStream();
+    } else {
+      throw new IllegalArgumentException("Unsupported data: " + data.getClass());
+    }
+  }
+
+  @Override
+  public void newJobFile(final Identifier jobId, final String path, final long sequenceNumber,
+    final String contentType, final Object data) {
+    final String key = getFileKey(jobId, path, sequenceNumber);
+    try (
+      InputStream in = newInputStream(data)) {
+      this.segmentStore.putObject(key, contentType, in);
+    } catch (final IOException e) {
+      Exceptions.throwUncheckedException(e);
+    }
+  }
+
+  @Override
+  public PreProcessGroup newPreProcessGroup(final JobPreProcessTask preProcess,
+    final BusinessApplication businessApplication, final BatchJob batchJob,
+    final Map<String, String> jobParameters, final int groupSequenceNumber) {
+    return new SegmentStorePreProcessGroup(preProcess, this, businessApplication, batchJob,
+      jobParameters, groupSequenceNumber);
+  }
+
+  /**
+   * Write the group result as a multipart object, appending a segment for each
+   * {@link #GROUP_RESULT_PART_SIZE} bytes. Results streamed from a worker are written as they
+   * arrive without being buffered and identical parts are only stored once.
+   */
+  @Override
+  public void setGroupResult(final Identifier jobId, final int sequenceNumber,
+    final InputStream in) {
+    try {
+      final PushbackInputStream resultIn = new PushbackInputStream(in);
+      // The first part replaces the result of any previous execution of the group
+      newJobFile(jobId, GROUP_RESULTS, sequenceNumber, Tsv.MIME_TYPE,
+        new PartInputStream(resultIn, GROUP_RESULT_PART_SIZE));
+      for (int b = resultIn.read(); b != -1; b = resultIn.read()) {
+        resultIn.unread(b);
+        appendJobFile(jobId, GROUP_RESULTS, sequenceNumber, Tsv.MIME_TYPE,
+          new PartInputStream(resultIn, GROUP_RESULT_PART_SIZE));
+      }
+    } catch (final IOException e) {
+      Exceptions.throwUncheckedException(e);
+    }
+  }
+}
@@ -0,0 +1,223 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.service;
+
+import java.io.IOException;
+import java.security.Principal;
+import java.util.ArrayDeque;
+import java.util.Date;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import javax.websocket.CloseReason;
+import javax.websocket.CloseReason.CloseCodes;
+import javax.websocket.OnClose;
+import javax.websocket.OnError;
+import javax.websocket.OnOpen;
+import javax.websocket.SendResult;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import org.jeometry.common.data.identifier.Identifier;
+import org.jeometry.common.date.Dates;
+import org.jeometry.common.logging.Logs;
+import org.springframework.web.context.ContextLoader;
+import org.springframework.web.context.WebApplicationContext;
+
+import ca.bc.gov.open.cpf.api.domain.BatchJob;
+import ca.bc.gov.open.cpf.api.scheduler.BatchJobService;
+import ca.bc.gov.open.cpf.api.scheduler.BatchJobStatusListener;
+
+import com.revolsys.collection.map.LinkedHashMapEx;
+import com.revolsys.collection.map.MapEx;
+import com.revolsys.websocket.json.JsonEncoder;
+
+/**
+ * Push the job status changes for the user's jobs to the client over a web socket, instead of the
+ * client polling the job status. If the batchJobId parameter is specified only the status
+ * changes for that job are sent, starting with the job's current status.
+ */
+@ServerEndpoint(value = "/ws/jobs/events", encoders = JsonEncoder.class)
+public class BatchJobStatusEventHandler implements BatchJobStatusListener {
+  private static final String DATE_TIME_FORMAT = "yyyy-MM-dd HH:mm:ss";
+
+  private static final int MAX_PENDING_EVENTS = 1000;
+
+  private BatchJobService batchJobService;
+
+  private Long batchJobId;
+
+  private String consumerKey;
+
+  private final Deque<MapEx> pendingEvents = new ArrayDeque<>();
+
+  private boolean sending = false;
+
+  private Session session;
+
+  private String jobsUrl;
+
+  @Override
+  public void batchJobStatusChanged(final BatchJob batchJob, final String jobStatus,
+    final long time) {
+    final Identifier jobId = batchJob.getIdentifier();
+    if (this.batchJobId == null || this.batchJobId.equals(jobId.getLong(0))) {
+      final MapEx event = new LinkedHashMapEx("type", "jobStatus");
+      event.put("id", this.jobsUrl + jobId + "/");
+      event.put("batchJobId", jobId.getLong(0));
+      event.put("businessApplicationName", batchJob.getValue(BatchJob.BUSINESS_APPLICATION_NAME));
+      event.put("jobStatus", jobStatus);
+      event.put("jobStatusDate", Dates.format(DATE_TIME_FORMAT, new Date(time)));
+      event.put("numSubmittedRequests", batchJob.getValue(BatchJob.NUM_SUBMITTED_REQUESTS));
+      event.put("numCompletedRequests", batchJob.getNumCompletedRequests());
+      event.put("numFailedRequests", batchJob.getNumFailedRequests());
+      sendEvent(event);
+    }
+  }
+
+  private void close(final CloseCodes closeCode, final String message) {
+    try {
+      this.session.close(new CloseReason(closeCode, message));
+    } catch (final IOException e) {
+    }
+  }
+
+  private String getParameter(final Session session, final String name) {
+    final Map<String, List<String>> parameters = session.getRequestParameterMap();
+    final List<String> values = parameters.get(name);
+    if (values == null || values.isEmpty()) {
+      return null;
+    } else {
+      return values.get(0);
+    }
+  }
+
+  @OnClose
+  public void onClose(final Session session) {
+    if (this.batchJobService != null) {
+      if (this.batchJobId != null) {
+        this.batchJobService.removeBatchJobStatusListener(Identifier.newIdentifier(this.batchJobId),
+          this);
+      } else if (this.consumerKey != null) {
+        this.batchJobService.removeBatchJobStatusListener(this.consumerKey, this);
+      }
+    }
+  }
+
+  @OnError
+  public void onError(final Session session, final Throwable e) {
+    Logs.debug(this, "Job status event error " + this.consumerKey, e);
+  }
+
+  @OnOpen
+  public void onOpen(final Session session) {
+    this.session = session;
+    final WebApplicationContext wac = (WebApplicationContext)ContextLoader
+      .getCurrentWebApplicationContext()
+      .getServletContext()
+      .getAttribute("org.springframework.web.servlet.FrameworkServlet.CONTEXT.cpf");
+    this.batchJobService = wac.getBean(BatchJobService.class);
+
+    final String requestUri = session.getRequestURI().toString();
+    this.jobsUrl = requestUri.replaceFirst("^ws", "http").replaceFirst("events(\\?.*)?$", "");
+
+    final Principal principal = session.getUserPrincipal();
+    if (principal == null) {
+      close(CloseCodes.VIOLATED_POLICY, "Authentication required");
+    } else {
+      this.consumerKey = principal.getName();
+      final String batchJobIdString = getParameter(session, "batchJobId");
+      if (batchJobIdString == null) {
+        this.batchJobService.addBatchJobStatusListener(this.consumerKey, this);
+      } else if (!batchJobIdString.matches("\\d{1,18}")) {
+        close(CloseCodes.CANNOT_ACCEPT, "Invalid batchJobId " + batchJobIdString);
+      } else {
+        this.batchJobId = Long.valueOf(batchJobIdString);
+        final Identifier batchJobId = Identifier.newIdentifier(this.batchJobId);
+        this.batchJobService.addBatchJobStatusListener(batchJobId, this);
+        final BatchJob batchJob = this.batchJobService.getBatchJob(batchJobId, this.consumerKey);
+        if (batchJob == null) {
+          this.batchJobService.removeBatchJobStatusListener(batchJobId, this);
+          close(CloseCodes.CANNOT_ACCEPT, "Batch Job " + this.batchJobId + " does not exist.");
+        } else {
+          final String jobStatus = batchJob.getValue(BatchJob.JOB_STATUS);
+          final Date whenStatusChanged = batchJob.getValue(BatchJob.WHEN_STATUS_CHANGED);
+          long time = System.currentTimeMillis();
+          if (whenStatusChanged != null) {
+            time = whenStatusChanged.getTime();
+          }
+          batchJobStatusChanged(batchJob, jobStatus, time);
+        }
+      }
+    }
+  }
+
+  private void sendCompleted(final SendResult result) {
+    if (!result.isOK()) {
+      Logs.debug(this, "Unable to send job status event " + this.consumerKey,
+        result.getException());
+    }
+    final MapEx event;
+    synchronized (this.pendingEvents) {
+      event = this.pendingEvents.pollFirst();
+      if (event == null) {
+        this.sending = false;
+        return;
+      }
+    }
+    sendEventAsync(event);
+  }
+
+  /**
+   * Queue the event to be sent. Only one event is sent at a time without blocking the thread that
+   * changed the job status. If the client can't keep up the oldest events are discarded.
+   *
+   * @param event The event.
+   */
+  private void sendEvent(final MapEx event) {
+    synchronized (this.pendingEvents) {
+      if (this.sending) {
+        if (this.pendingEvents.size() >= MAX_PENDING_EVENTS) {
+          this.pendingEvents.removeFirst();
+        }
+        this.pendingEvents.addLast(event);
+        return;
+      } else {
+        this.sending = true;
+      }
+    }
+    sendEventAsync(event);
+  }
+
+  private void sendEventAsync(final MapEx event) {
+    if (this.session.isOpen()) {
+      try {
+        this.session.getAsyncRemote().sendObject(event, this::sendCompleted);
+      } catch (final Throwable e) {
+        synchronized (this.pendingEvents) {
+          this.pendingEvents.clear();
+          this.sending = false;
+        }
+      }
+    } else {
+      synchronized (this.pendingEvents) {
+        this.pendingEvents.clear();
+        this.sending = false;
+      }
+    }
+  }
+}
@@ -67,6 +67,7 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
   public WorkerServerMessageHandler() {
     this.messageHandlers.put("executingGroupIds", this::executingGroupIds);
     this.messageHandlers.put("failedGroupId", this::failedGroupId);
+    this.messageHandlers.put("groupCredits", this::groupCredits);
     this.messageHandlers.put("moduleConfigLoad", this::moduleConfigLoad);
     this.messageHandlers.put("moduleDisabled", this::moduleDisabled);
     this.messageHandlers.put("moduleStarted", this::moduleStarted);
@@ -105,6 +106,10 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
     return configProperiesByName.values();
   }
 
+  private void groupCredits(final MapEx message, final Worker worker) {
+    this.batchJobService.setWorkerGroupCredits(worker, message);
+  }
+
   public boolean isModuleEnabled(final String moduleName) {
     final Module module = this.batchJobService.getModule(moduleName);
     final boolean enabled = module != null && module.isEnabled();
@@ -148,6 +153,7 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
     final WorkerModuleState moduleState = worker.getModuleState(moduleName);
     moduleState.setEnabled(enabled);
     moduleState.setStatus("Disabled");
+    moduleState.clearExecutedGroups();
     moduleState.setStartedTime(0);
   }
 
@@ -158,6 +164,7 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
     moduleState.setEnabled(enabled);
     moduleState.setStatus("Started");
     final long moduleTime = Maps.getLong(message, "moduleTime");
+    moduleState.clearExecutedGroups();
     moduleState.setStartedTime(moduleTime);
   }
 
@@ -169,6 +176,7 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
     moduleState.setStatus("Start Failed");
     final String moduleError = (String)message.get("moduleError");
     moduleState.setModuleError(moduleError);
+    moduleState.clearExecutedGroups();
     moduleState.setStartedTime(0);
   }
 
@@ -182,6 +190,7 @@ public class WorkerServerMessageHandler implements ModuleEventListener {
     } else {
       moduleState.setStatus("Disabled");
     }
+    moduleState.clearExecutedGroups();
     moduleState.setStartedTime(0);
   }
 
@@ -15,15 +15,25 @@
  */
 package ca.bc.gov.open.cpf.api.web.service;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.GZIPInputStream;
 
 import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
@@ -31,8 +41,10 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.jeometry.common.data.identifier.Identifier;
+import org.jeometry.common.exception.Exceptions;
 import org.jeometry.common.logging.Logs;
 import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.security.crypto.codec.Hex;
 import org.springframework.stereotype.Controller;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestMethod;
@@ -46,6 +58,7 @@ import ca.bc.gov.open.cpf.api.scheduler.BatchJobRequestExecutionGroup;
 import ca.bc.gov.open.cpf.api.scheduler.BatchJobService;
 import ca.bc.gov.open.cpf.api.scheduler.StatisticsService;
 import ca.bc.gov.open.cpf.api.scheduler.Worker;
+import ca.bc.gov.open.cpf.api.web.controller.ContentEncoding;
 import ca.bc.gov.open.cpf.api.web.controller.JobController;
 import ca.bc.gov.open.cpf.plugin.api.log.AppLog;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
@@ -58,6 +71,7 @@ import com.revolsys.collection.range.RangeSet;
 import com.revolsys.io.FileUtil;
 import com.revolsys.record.Record;
 import com.revolsys.record.io.format.csv.Csv;
+import com.revolsys.record.io.format.json.JsonParser;
 import com.revolsys.spring.resource.InputStreamResource;
 import com.revolsys.transaction.Transaction;
 import com.revolsys.ui.web.annotation.RequestMapping;
@@ -79,6 +93,9 @@ public class WorkerWebService {
   @Resource
   private StatisticsService statisticsService;
 
+  /** The SHA-256 digest of the module jars by moduleName/moduleTime/jarIndex. */
+  private final Map<String, String> moduleJarDigests = new ConcurrentHashMap<>();
+
   private void checkRunning() {
     if (!this.batchJobService.isRunning()) {
       throw new IllegalStateException("Application is not running");
@@ -157,6 +174,7 @@ public class WorkerWebService {
       } else {
         final int groupSequenceNumber = group.getSequenceNumber();
         response.setContentType(Csv.MIME_TYPE);
+        response.setHeader("Accept-Encoding", ContentEncoding.GZIP);
         try (
           final OutputStream out = response.getOutputStream()) {
           if (businessApplication.isPerRequestInputData()) {
@@ -172,7 +190,15 @@ public class WorkerWebService {
               InputStream in = this.jobController.getGroupInputStream(batchJobId,
                 groupSequenceNumber)) {
               if (in != null) {
-                FileUtil.copy(in, out);
+                final BufferedInputStream bufferedIn = new BufferedInputStream(in);
+                if (!ContentEncoding.isGzipData(bufferedIn)) {
+                  FileUtil.copy(bufferedIn, out);
+                } else if (ContentEncoding.isGzipAccepted(request.getHeader("Accept-Encoding"))) {
+                  response.setHeader("Content-Encoding", ContentEncoding.GZIP);
+                  FileUtil.copy(bufferedIn, out);
+                } else {
+                  FileUtil.copy(new GZIPInputStream(bufferedIn), out);
+                }
                 return;
               }
             }
@@ -198,10 +224,20 @@ public class WorkerWebService {
     } else {
       final URL url = module.getJarUrl(jarIndex);
       if (url != null) {
-        try (
-          final InputStream in = UrlUtil.getInputStream(url);
-          final OutputStream out = response.getOutputStream()) {
-          FileUtil.copy(in, out);
+        try {
+          final String digest = getModuleJarDigest(moduleName, moduleTime, jarIndex, url);
+          final String etag = "\"" + digest + "\"";
+          response.setHeader("ETag", etag);
+          final String ifNoneMatch = request.getHeader("If-None-Match");
+          if (ifNoneMatch != null && ifNoneMatch.contains(etag)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+          } else {
+            try (
+              final InputStream in = UrlUtil.getInputStream(url);
+              final OutputStream out = response.getOutputStream()) {
+              FileUtil.copy(in, out);
+            }
+          }
         } catch (final IllegalArgumentException e) {
           module.addModuleError("Error loading jar " + jarIndex + ": " + url, e);
         }
@@ -210,6 +246,34 @@ public class WorkerWebService {
 
   }
 
+  /**
+   * Get the SHA-256 digest of the module jar, used as the ETag so workers can reuse a cached copy
+   * of the jar. The digests for older versions of the module are removed.
+   */
+  private String getModuleJarDigest(final String moduleName, final long moduleTime,
+    final int jarIndex, final URL url) throws IOException {
+    final String modulePrefix = moduleName + "/";
+    final String moduleTimePrefix = modulePrefix + moduleTime + "/";
+    final String key = moduleTimePrefix + jarIndex;
+    String digest = this.moduleJarDigests.get(key);
+    if (digest == null) {
+      this.moduleJarDigests.keySet()
+        .removeIf(name -> name.startsWith(modulePrefix) && !name.startsWith(moduleTimePrefix));
+      try (
+        DigestInputStream in = new DigestInputStream(UrlUtil.getInputStream(url),
+          MessageDigest.getInstance("SHA-256"))) {
+        final byte[] buffer = new byte[8192];
+        while (in.read(buffer) != -1) {
+        }
+        digest = new String(Hex.encode(in.getMessageDigest().digest()));
+      } catch (final NoSuchAlgorithmException e) {
+        return Exceptions.throwUncheckedException(e);
+      }
+      this.moduleJarDigests.put(key, digest);
+    }
+    return digest;
+  }
+
   @RequestMapping(value = {
     "/worker/modules/{moduleName}/{moduleTime}/urls"
   }, method = RequestMethod.GET)
@@ -241,21 +305,16 @@ public class WorkerWebService {
   }
 
   @RequestMapping("/worker/workers/{workerId}/jobs/{batchJobId}/groups/{groupId}/error")
-  public void postBatchJobExecutionGroupError(@PathVariable final String workerId, //
+  public void postBatchJobExecutionGroupError(final HttpServletRequest request,
+    final HttpServletResponse response, @PathVariable final String workerId, //
     @PathVariable final Identifier batchJobId, //
     @PathVariable final String groupId, //
-    final InputStream in) {
+    final InputStream in) throws IOException {
     checkRunning();
-    final BatchJobRequestExecutionGroup group = this.batchJobService
-      .getBatchJobRequestExecutionGroup(workerId, groupId);
-
-    if (group != null) {
-      synchronized (group) {
-        if (!group.isCancelled()) {
-          final int sequenceNumber = group.getSequenceNumber();
-          this.jobController.setGroupError(batchJobId, sequenceNumber, in);
-        }
-      }
+    if (ContentEncoding.isSupported(request.getHeader("Content-Encoding"))) {
+      setGroupError(workerId, groupId, in);
+    } else {
+      response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
     }
   }
 
@@ -270,34 +329,42 @@ public class WorkerWebService {
     final BatchJobRequestExecutionGroup group = this.batchJobService
       .getBatchJobRequestExecutionGroup(workerId, groupId);
 
-    if (group != null) {
-      synchronized (group) {
-        if (!group.isCancelled()) {
-          final Record batchJob = this.dataAccessObject.getBatchJob(batchJobId);
-          if (batchJob != null) {
-            final String businessApplicationName = batchJob
-              .getValue(BatchJob.BUSINESS_APPLICATION_NAME);
-            final BusinessApplication businessApplication = this.batchJobService
-              .getBusinessApplication(businessApplicationName);
-            if (businessApplication != null && businessApplication.isPerRequestResultData()) {
-              final String resultDataContentType = batchJob
-                .getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
-
-              try (
-                InputStream in = request.getInputStream()) {
-                final int conentLegth = request.getContentLength();
-                final com.revolsys.spring.resource.Resource resource = new InputStreamResource(in,
-                  conentLegth);
-                if (!group.isCancelled()) {
-                  this.batchJobService.newBatchJobResultOpaque(batchJobId, sequenceNumber,
-                    resultDataContentType, resource);
-                }
-              } catch (final IOException e) {
-                this.batchJobService.rescheduleGroup(group);
+    if (group != null && !group.isCancelled()) {
+      File resultFile = null;
+      try (
+        InputStream in = request.getInputStream()) {
+        final int conentLegth = request.getContentLength();
+        final Object resultData;
+        if (conentLegth < 0) {
+          // The worker streams the data while the plugin is executing. Spool it to a file so the
+          // group lock and a database transaction aren't held while the plugin executes
+          resultFile = FileUtil.newTempFile("group-" + groupId + "-" + sequenceNumber, ".bin");
+          FileUtil.copy(in, resultFile);
+          resultData = resultFile;
+        } else {
+          resultData = new InputStreamResource(in, conentLegth);
+        }
+        synchronized (group) {
+          if (!group.isCancelled()) {
+            final Record batchJob = this.dataAccessObject.getBatchJob(batchJobId);
+            if (batchJob != null) {
+              final String businessApplicationName = batchJob
+                .getValue(BatchJob.BUSINESS_APPLICATION_NAME);
+              final BusinessApplication businessApplication = this.batchJobService
+                .getBusinessApplication(businessApplicationName);
+              if (businessApplication != null && businessApplication.isPerRequestResultData()) {
+                final String resultDataContentType = batchJob
+                  .getValue(BatchJob.RESULT_DATA_CONTENT_TYPE);
+                this.batchJobService.newBatchJobResultOpaque(batchJobId, sequenceNumber,
+                  resultDataContentType, resultData);
               }
             }
           }
         }
+      } catch (final IOException e) {
+        this.batchJobService.rescheduleGroup(group);
+      } finally {
+        FileUtil.delete(resultFile);
       }
     }
     final MapEx map = new NamedLinkedHashMapEx("OpaqueOutputDataResults");
@@ -306,8 +373,8 @@ public class WorkerWebService {
 
   @RequestMapping(value = "/worker/workers/{workerId}/jobs/{batchJobId}/groups/{groupId}/results",
       method = RequestMethod.POST)
-  public void postBatchJobRequestExecutionGroupResults(
-    @PathVariable("workerId") final String workerId, //
+  public void postBatchJobRequestExecutionGroupResults(final HttpServletRequest request,
+    final HttpServletResponse response, @PathVariable("workerId") final String workerId, //
     @PathVariable("batchJobId") final String batchJobId, //
     @PathVariable("groupId") final String groupId, //
     @RequestParam(value = "completedRequestRange",
@@ -316,35 +383,109 @@ public class WorkerWebService {
     @RequestParam(value = "groupExecutedTime", defaultValue = "0") final Long groupExecutedTime, //
     @RequestParam(value = "applicationExecutedTime",
         defaultValue = "0") final Long applicationExecutedTime, //
-    final InputStream in) {
+    @RequestParam(value = "resultsStreamed", defaultValue = "false") final boolean resultsStreamed, //
+    final InputStream in) throws IOException {
     checkRunning();
-    final Worker worker = this.batchJobService.getWorker(workerId);
-    if (worker != null) {
-      final BatchJobRequestExecutionGroup group = worker.removeExecutingGroup(groupId);
-      if (group != null && !group.isCancelled()) {
-        synchronized (group) {
-          final BatchJob batchJob = group.getBatchJob();
-          if (!batchJob.isCompleted()) {
-            final RangeSet completedRequests = batchJob.addCompletedRequests(completedRequestRange);
-            final RangeSet failedRequests = batchJob.addFailedRequests(failedRequestRange);
-            if (in != null) {
-              this.batchJobService.updateBatchJobExecutionGroupFromResponse(worker, batchJob, group,
-                in);
+    if (ContentEncoding.isSupported(request.getHeader("Content-Encoding"))) {
+      if (resultsStreamed) {
+        setGroupResults(workerId, groupId, completedRequestRange, failedRequestRange,
+          groupExecutedTime, applicationExecutedTime, null);
+      } else {
+        setGroupResults(workerId, groupId, completedRequestRange, failedRequestRange,
+          groupExecutedTime, applicationExecutedTime, in);
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+    }
+  }
+
+  /**
+   * Save the results of a group streamed by the worker using chunked transfer encoding while the
+   * group is being executed. The worker then posts the completed and failed request ranges to the
+   * results resource with resultsStreamed=true to complete the group. If the job controller
+   * can't write the results directly they are spooled to a temporary file and written when the
+   * group completes.
+   */
+  @RequestMapping(
+      value = "/worker/workers/{workerId}/jobs/{batchJobId}/groups/{groupId}/resultStream",
+      method = RequestMethod.POST)
+  public void postBatchJobRequestExecutionGroupResultStream(final HttpServletRequest request,
+    final HttpServletResponse response, @PathVariable("workerId") final String workerId, //
+    @PathVariable("batchJobId") final String batchJobId, //
+    @PathVariable("groupId") final String groupId, //
+    final InputStream in) throws IOException {
+    checkRunning();
+    if (ContentEncoding.isSupported(request.getHeader("Content-Encoding"))) {
+      final BatchJobRequestExecutionGroup group = this.batchJobService
+        .getBatchJobRequestExecutionGroup(workerId, groupId);
+      if (group == null || group.isCancelled()) {
+        response.sendError(HttpServletResponse.SC_NOT_FOUND);
+      } else {
+        final Identifier groupBatchJobId = group.getBatchJobId();
+        final int sequenceNumber = group.getSequenceNumber();
+        if (this.jobController.isGroupResultStreamed() && group.startResultWrite()) {
+          this.jobController.setGroupResult(groupBatchJobId, sequenceNumber, in);
+        } else {
+          // Keep the results until the group completes so a database transaction isn't held
+          // while the group executes, or until a result of a speculatively executed group is
+          // accepted
+          final File resultFile = FileUtil.newTempFile("group-" + groupId, "tsv");
+          FileUtil.copy(in, resultFile);
+          group.setResultFile(resultFile);
+        }
+      }
+    } else {
+      response.sendError(HttpServletResponse.SC_UNSUPPORTED_MEDIA_TYPE);
+    }
+  }
+
+  /**
+   * Lease up to maxGroups execution groups to the worker in a single request. The request body
+   * can optionally contain a JSON object with a groupResults list of the results for groups the
+   * worker has completed. Each group result contains the same values as the parameters for the
+   * group results request with the results and errors TSV as strings.
+   */
+  @RequestMapping(value = "/worker/workers/{workerId}/{workerStartTime}/jobs/groups/lease",
+      method = RequestMethod.POST)
+  @ResponseBody
+  public Map<String, Object> postLeaseBatchJobExecutionGroups(final HttpServletRequest request,
+    @PathVariable("workerId") final String workerId,
+    @PathVariable("workerStartTime") final long workerStartTime, //
+    @RequestParam(value = "moduleName", required = false) final List<String> moduleNames,
+    @RequestParam(value = "maxGroups", required = false,
+        defaultValue = "1") final int maxGroups)
+    throws IOException {
+    final MapEx response = new NamedLinkedHashMapEx("GroupLease");
+    final BatchJobService batchJobService = this.batchJobService;
+    if (batchJobService != null) {
+      checkRunning();
+      batchJobService.setWorkerConnectTime(workerId, workerStartTime);
+      if (request.getContentLength() > 0) {
+        try (
+          InputStream in = request.getInputStream()) {
+          final MapEx body = JsonParser.read(in);
+          if (body != null) {
+            final List<MapEx> groupResults = body.getValue("groupResults");
+            if (groupResults != null) {
+              for (final MapEx groupResult : groupResults) {
+                setGroupResults(workerId, groupResult);
+              }
             }
-            batchJob.removeGroup(group);
-            this.batchJobService.updateBatchJob(batchJob);
-            final BusinessApplication businessApplication = group.getBusinessApplication();
-            final String moduleName = businessApplication.getModuleName();
-            final long executionTime = this.statisticsService.updateGroupStatistics(group,
-              businessApplication, moduleName, applicationExecutedTime, groupExecutedTime,
-              completedRequests.size(), failedRequests.size());
-            final AppLog appLog = businessApplication.getLog();
-            appLog.info("End\tGroup execution\tgroupId=" + groupId + "\tworkerId=" + workerId
-              + "\ttime=" + executionTime / 1000.0);
           }
         }
       }
+      try {
+        final List<Map<String, Object>> groups = batchJobService
+          .leaseBatchJobRequestExecutionGroups(workerId, moduleNames, maxGroups);
+        response.put("groups", groups);
+      } catch (final Throwable e) {
+        Logs.error(WorkerWebService.class, e.getMessage(), e);
+        throw new HttpMessageNotWritableException("Unable to lease execution groups", e);
+      } finally {
+        batchJobService.setWorkerConnectTime(workerId, workerStartTime);
+      }
     }
+    return response;
   }
 
   @RequestMapping(value = "/worker/workers/{workerId}/{workerStartTime}/jobs/groups/nextId",
@@ -380,4 +521,105 @@ public class WorkerWebService {
     this.dataAccessObject = batchJobService.getDataAccessObject();
     this.jobController = batchJobService.getJobController();
   }
+
+  private void setGroupError(final String workerId, final String groupId, final InputStream in) {
+    final BatchJobRequestExecutionGroup group = this.batchJobService
+      .getBatchJobRequestExecutionGroup(workerId, groupId);
+
+    if (group != null) {
+      synchronized (group) {
+        if (!group.isCancelled()) {
+          final Identifier batchJobId = group.getBatchJobId();
+          final int sequenceNumber = group.getSequenceNumber();
+          if (group.startResultWrite()) {
+            this.jobController.setGroupError(batchJobId, sequenceNumber, in);
+          } else {
+            // Keep the errors of a speculatively executed group until a result is accepted
+            final File errorFile = FileUtil.newTempFile("group-" + groupId, "tsv");
+            FileUtil.copy(in, errorFile);
+            group.setErrorFile(errorFile);
+          }
+        }
+      }
+    }
+  }
+
+  private void setGroupResults(final String workerId, final MapEx groupResult) {
+    final String groupId = groupResult.getString("groupId");
+    try {
+      final String errors = groupResult.getString("errors");
+      if (Property.hasValue(errors)) {
+        final InputStream errorIn = new ByteArrayInputStream(
+          errors.getBytes(StandardCharsets.UTF_8));
+        setGroupError(workerId, groupId, errorIn);
+      }
+      final String completedRequestRange = groupResult.getString("completedRequestRange", "");
+      final String failedRequestRange = groupResult.getString("failedRequestRange", "");
+      final long groupExecutedTime = groupResult.getLong("groupExecutedTime", 0);
+      final long applicationExecutedTime = groupResult.getLong("applicationExecutedTime", 0);
+      final String results = groupResult.getString("results", "");
+      final InputStream resultIn = new ByteArrayInputStream(
+        results.getBytes(StandardCharsets.UTF_8));
+      setGroupResults(workerId, groupId, completedRequestRange, failedRequestRange,
+        groupExecutedTime, applicationExecutedTime, resultIn);
+    } catch (final Throwable e) {
+      Logs.error(this, "Unable to save group results " + groupId, e);
+      final Worker worker = this.batchJobService.getWorker(workerId);
+      if (worker != null) {
+        this.batchJobService.cancelGroup(worker, groupId);
+      }
+    }
+  }
+
+  private void setGroupResults(final String workerId, final String groupId,
+    final String completedRequestRange, final String failedRequestRange,
+    final long groupExecutedTime, final long applicationExecutedTime, final InputStream in) {
+    final Worker worker = this.batchJobService.getWorker(workerId);
+    if (worker != null) {
+      final BatchJobRequestExecutionGroup group = worker.removeExecutingGroup(groupId);
+      if (group != null && !group.isCancelled()) {
+        synchronized (group.getResultLock()) {
+          final BatchJob batchJob = group.getBatchJob();
+          final int sequenceNumber = group.getSequenceNumber();
+          // The result of a speculative copy of the group may have already been accepted
+          if (!batchJob.isCompleted() && !batchJob.isCompleted(sequenceNumber)) {
+            final File errorFile = group.getErrorFile();
+            if (errorFile != null) {
+              this.jobController.setGroupError(group.getBatchJobId(), sequenceNumber, errorFile);
+            }
+            final RangeSet completedRequests = batchJob.addCompletedRequests(completedRequestRange);
+            final RangeSet failedRequests = batchJob.addFailedRequests(failedRequestRange);
+            final File resultFile = group.getResultFile();
+            if (in == null && resultFile != null) {
+              try (
+                InputStream resultIn = new FileInputStream(resultFile)) {
+                this.batchJobService.updateBatchJobExecutionGroupFromResponse(worker, batchJob,
+                  group, resultIn);
+              } catch (final IOException e) {
+                throw Exceptions.wrap(e);
+              }
+            } else {
+              this.batchJobService.updateBatchJobExecutionGroupFromResponse(worker, batchJob,
+                group, in);
+            }
+            if (batchJob.isCompleted(sequenceNumber)) {
+              this.batchJobService.cancelDuplicateGroupExecution(group);
+            }
+            batchJob.removeGroup(group);
+            this.batchJobService.updateBatchJob(batchJob);
+            final BusinessApplication businessApplication = group.getBusinessApplication();
+            final String moduleName = businessApplication.getModuleName();
+            final long executionTime = this.statisticsService.updateGroupStatistics(group,
+              businessApplication, moduleName, applicationExecutedTime, groupExecutedTime,
+              completedRequests.size(), failedRequests.size());
+            this.batchJobService.addGroupExecutionTime(businessApplication, executionTime);
+            final AppLog appLog = businessApplication.getLog();
+            appLog.info("End\tGroup execution\tgroupId=" + groupId + "\tworkerId=" + workerId
+              + "\ttime=" + executionTime / 1000.0);
+          }
+          group.deleteResultFiles();
+        }
+      }
+    }
+  }
 }
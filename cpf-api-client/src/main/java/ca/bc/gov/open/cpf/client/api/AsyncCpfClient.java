@@ -0,0 +1,386 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.client.api;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import javax.annotation.PreDestroy;
+
+import com.revolsys.io.BaseCloseable;
+import com.revolsys.parallel.NamedThreadFactory;
+
+/**
+ * <p>An asynchronous version of the {@link CpfClient} API. Each method returns a
+ * {@link CompletableFuture} instead of blocking the calling thread.</p>
+ *
+ * <p>The requests to the CPF web services are executed on a fixed size pool of threads. Waiting
+ * for jobs to be completed doesn't use a thread per job, a single scheduler thread schedules the
+ * next status check for each job after the secondsToWaitForStatusCheck returned in the
+ * <a href="../../jobStatus.html">job status</a>. This allows thousands of jobs to be tracked
+ * using a few threads.</p>
+ *
+ * <p>The following code fragment shows an example of using the API.</p>
+ *
+ * <pre class="prettyprint language-java">  String url = "https://apps.gov.bc.ca/pub/cpf";
+  String consumerKey = "cpftest";
+  String consumerSecret = "cpftest";
+  try (AsyncCpfClient client = new AsyncCpfClient(url, consumerKey, consumerSecret)) {
+    Map&lt;String, Object&gt; parameters = new HashMap&lt;String, Object&gt;();
+    parameters.put("mapGridName", "BCGS 1:20 000");
+    parameters.put("mapTileId", "92j025");
+    client.createJobWithStructuredSingleRequest("MapTileByTileId", parameters, "application/json")
+      .thenCompose(jobId -&gt; client.getJobStructuredResults(jobId, 60000))
+      .thenAccept(results -&gt; results.forEach(System.out::println))
+      .join();
+  }</pre>
+ */
+public class AsyncCpfClient implements BaseCloseable {
+  /** The default number of threads used to execute requests. */
+  public static final int DEFAULT_THREAD_COUNT = 10;
+
+  private final CpfClient client;
+
+  private final boolean ownsClient;
+
+  private final ExecutorService executor;
+
+  private final ScheduledExecutorService scheduler;
+
+  /**
+   * Construct a new AsyncCpfClient using an existing client to connect to the server.
+   *
+   * @param client The client used to connect to the server.
+   * @param threadCount The number of threads used to execute requests.
+   */
+  public AsyncCpfClient(final CpfClient client, final int threadCount) {
+    this(client, threadCount, false);
+  }
+
+  private AsyncCpfClient(final CpfClient client, final int threadCount,
+    final boolean ownsClient) {
+    this.client = client;
+    this.ownsClient = ownsClient;
+    this.executor = Executors.newFixedThreadPool(threadCount,
+      new NamedThreadFactory().setNamePrefix("cpfClient-request"));
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(
+      new NamedThreadFactory().setNamePrefix("cpfClient-status"));
+  }
+
+  /**
+   * Construct a new AsyncCpfClient connected to the specified server using the consumerKey and
+   * consumerSecret for authentication. See {@link CpfClient#CpfClient(String, String, String)}.
+   *
+   * @param url The full URL of the CPF Web Services.
+   * @param consumerKey The application's OAuth Consumer Key (user name).
+   * @param consumerSecret The OAuth Consumer Secret (encryption key).
+   */
+  public AsyncCpfClient(final String url, final String consumerKey,
+    final String consumerSecret) {
+    this(new CpfClient(url, consumerKey, consumerSecret), DEFAULT_THREAD_COUNT, true);
+  }
+
+  /**
+   * Execute the action using the client on one of the request threads.
+   *
+   * @param action The action to execute.
+   * @return The future for the action's result.
+   */
+  public <V> CompletableFuture<V> call(final Function<CpfClient, V> action) {
+    return CompletableFuture.supplyAsync(() -> action.apply(this.client), this.executor);
+  }
+
+  /**
+   * Cancel the job. See {@link CpfClient#cancelJob(String)}.
+   *
+   * @param jobUrl The URL of the job to be cancelled.
+   * @return The future completed once the job was cancelled.
+   */
+  public CompletableFuture<Void> cancelJob(final String jobUrl) {
+    return CompletableFuture.runAsync(() -> this.client.cancelJob(jobUrl), this.executor);
+  }
+
+  private void checkJobCompleted(final String jobIdUrl, final long maxEnd,
+    final CompletableFuture<Boolean> future) {
+    if (!future.isDone()) {
+      try {
+        final Map<String, Object> jobStatusMap = this.client.getJobStatus(jobIdUrl);
+        final long currentTime = System.currentTimeMillis();
+        if (CpfClient.isJobStatusCompleted(jobStatusMap)) {
+          future.complete(true);
+        } else if (currentTime >= maxEnd) {
+          future.complete(false);
+        } else {
+          long sleepTime = 0;
+          final Object secondsToWait = jobStatusMap.get("secondsToWaitForStatusCheck");
+          if (secondsToWait instanceof Number) {
+            sleepTime = ((Number)secondsToWait).intValue() * 1000L;
+          }
+          if (sleepTime <= 0) {
+            sleepTime = 1000;
+          }
+          sleepTime = Math.min(sleepTime, maxEnd - currentTime);
+          scheduleJobCompletedCheck(jobIdUrl, maxEnd, future, sleepTime);
+        }
+      } catch (final Throwable e) {
+        future.completeExceptionally(e);
+      }
+    }
+  }
+
+  /**
+   * Stop the request and status check threads. The client is also closed if it was created by
+   * this AsyncCpfClient.
+   */
+  @Override
+  @PreDestroy
+  public void close() {
+    this.scheduler.shutdownNow();
+    this.executor.shutdownNow();
+    if (this.ownsClient) {
+      this.client.close();
+    }
+  }
+
+  /**
+   * Close the job. See {@link CpfClient#closeJob(String)}.
+   *
+   * @param jobUrl The URL of the job to be closed.
+   * @return The future completed once the job was closed.
+   */
+  public CompletableFuture<Void> closeJob(final String jobUrl) {
+    return CompletableFuture.runAsync(() -> this.client.closeJob(jobUrl), this.executor);
+  }
+
+  /**
+   * Create a job with opaque input data URLs. See
+   * {@link CpfClient#createJobWithOpaqueUrlRequests(String, Map, String, String, Collection)}.
+   *
+   * @param businessApplicationName The name of the business application.
+   * @param jobParameters The global job parameters.
+   * @param inputDataContentType The content type of the input data.
+   * @param resultContentType The content type of the result data.
+   * @param inputDataUrls The URLs of the input data.
+   * @return The future for the job id (URL) of the created job.
+   */
+  public CompletableFuture<String> createJobWithOpaqueUrlRequests(
+    final String businessApplicationName, final Map<String, ? extends Object> jobParameters,
+    final String inputDataContentType, final String resultContentType,
+    final Collection<String> inputDataUrls) {
+    return call(client -> client.createJobWithOpaqueUrlRequests(businessApplicationName,
+      jobParameters, inputDataContentType, resultContentType, inputDataUrls));
+  }
+
+  /**
+   * Create a job with a list of structured data requests. See
+   * {@link CpfClient#createJobWithStructuredMultipleRequestsList(String, Map, List, String)}.
+   *
+   * @param businessApplicationName The name of the business application.
+   * @param jobParameters The global job parameters.
+   * @param requests The list of requests.
+   * @param resultContentType The content type of the result data.
+   * @return The future for the job id (URL) of the created job.
+   */
+  public CompletableFuture<String> createJobWithStructuredMultipleRequestsList(
+    final String businessApplicationName, final Map<String, ? extends Object> jobParameters,
+    final List<? extends Map<String, ? extends Object>> requests, final String resultContentType) {
+    return call(client -> client.createJobWithStructuredMultipleRequestsList(
+      businessApplicationName, jobParameters, requests, resultContentType));
+  }
+
+  /**
+   * Create a job with a single structured data request. See
+   * {@link CpfClient#createJobWithStructuredSingleRequest(String, Map, String)}.
+   *
+   * @param businessApplicationName The name of the business application.
+   * @param parameters The request parameters.
+   * @param resultContentType The content type of the result data.
+   * @return The future for the job id (URL) of the created job.
+   */
+  public CompletableFuture<String> createJobWithStructuredSingleRequest(
+    final String businessApplicationName, final Map<String, ? extends Object> parameters,
+    final String resultContentType) {
+    return call(client -> client.createJobWithStructuredSingleRequest(businessApplicationName,
+      parameters, resultContentType));
+  }
+
+  public CpfClient getClient() {
+    return this.client;
+  }
+
+  /**
+   * Get the stream of job id URLs for the jobs in the order they are completed. Jobs that aren't
+   * completed within maxWait or where the status check failed are not included. Reading the
+   * stream blocks until the next job is completed.
+   *
+   * @param jobIdUrls The job id URLs.
+   * @param maxWait The maximum number of milliseconds to wait for each job to be completed.
+   * @return The stream of completed job id URLs.
+   */
+  public Stream<String> getCompletedJobs(final Collection<String> jobIdUrls,
+    final long maxWait) {
+    final BlockingQueue<Optional<String>> completedJobs = new LinkedBlockingQueue<>();
+    for (final String jobIdUrl : jobIdUrls) {
+      isJobCompleted(jobIdUrl, maxWait).whenComplete((completed, e) -> {
+        if (completed != null && completed) {
+          completedJobs.add(Optional.of(jobIdUrl));
+        } else {
+          completedJobs.add(Optional.empty());
+        }
+      });
+    }
+    final int jobCount = jobIdUrls.size();
+    final Iterator<String> iterator = new Iterator<String>() {
+      private int remainingCount = jobCount;
+
+      private String next;
+
+      @Override
+      public boolean hasNext() {
+        while (this.next == null && this.remainingCount > 0) {
+          try {
+            final Optional<String> completedJob = completedJobs.take();
+            this.remainingCount--;
+            this.next = completedJob.orElse(null);
+          } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+          }
+        }
+        return this.next != null;
+      }
+
+      @Override
+      public String next() {
+        if (hasNext()) {
+          final String jobIdUrl = this.next;
+          this.next = null;
+          return jobIdUrl;
+        } else {
+          throw new NoSuchElementException();
+        }
+      }
+    };
+    final Spliterator<String> spliterator = Spliterators.spliteratorUnknownSize(iterator,
+      Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false);
+  }
+
+  /**
+   * Get the list of result files for the job once it has been completed. See
+   * {@link CpfClient#getJobResultFileList(String, long)}.
+   *
+   * @param jobIdUrl The job id URL.
+   * @param maxWait The maximum number of milliseconds to wait for the job to be completed.
+   * @return The future for the list of maps that describe each of the result files.
+   */
+  public CompletableFuture<List<Map<String, Object>>> getJobResultFileList(final String jobIdUrl,
+    final long maxWait) {
+    return thenIfCompleted(jobIdUrl, maxWait,
+      client -> client.getJobResultFileList(jobIdUrl, 0));
+  }
+
+  /**
+   * Get the job status. See {@link CpfClient#getJobStatus(String)}.
+   *
+   * @param jobUrl The WS URL of the job.
+   * @return The future for the <a href="../../jobStatus.html">job status</a>.
+   */
+  public CompletableFuture<Map<String, Object>> getJobStatus(final String jobUrl) {
+    return call(client -> client.getJobStatus(jobUrl));
+  }
+
+  /**
+   * Get the list of structured data results for the job once it has been completed. See
+   * {@link CpfClient#getJobStructuredResults(String, long)}.
+   *
+   * @param jobIdUrl The job id (URL) of the job.
+   * @param maxWait The maximum number of milliseconds to wait for the job to be completed.
+   * @return The future for the list of results.
+   */
+  public CompletableFuture<List<Map<String, Object>>> getJobStructuredResults(
+    final String jobIdUrl, final long maxWait) {
+    return thenIfCompleted(jobIdUrl, maxWait, client -> {
+      final List<Map<String, Object>> results = new ArrayList<>();
+      client.processJobStructuredResults(jobIdUrl, 0, results::add);
+      return results;
+    });
+  }
+
+  /**
+   * Check the job status until the job has been completed or maxWait milliseconds have elapsed.
+   * The status is checked again after the secondsToWaitForStatusCheck returned by the server.
+   * Cancelling the future stops checking the status.
+   *
+   * @param jobIdUrl The job id URL.
+   * @param maxWait The maximum number of milliseconds to wait.
+   * @return The future that is completed with true if the job was completed, false otherwise.
+   */
+  public CompletableFuture<Boolean> isJobCompleted(final String jobIdUrl, final long maxWait) {
+    final CompletableFuture<Boolean> future = new CompletableFuture<>();
+    final long maxEnd = System.currentTimeMillis() + Math.max(0, maxWait);
+    scheduleJobCompletedCheck(jobIdUrl, maxEnd, future, 0);
+    return future;
+  }
+
+  private void scheduleJobCompletedCheck(final String jobIdUrl, final long maxEnd,
+    final CompletableFuture<Boolean> future, final long delay) {
+    final Runnable check = () -> checkJobCompleted(jobIdUrl, maxEnd, future);
+    try {
+      if (delay <= 0) {
+        this.executor.execute(check);
+      } else {
+        this.scheduler.schedule(() -> {
+          try {
+            this.executor.execute(check);
+          } catch (final Throwable e) {
+            future.completeExceptionally(e);
+          }
+        }, delay, TimeUnit.MILLISECONDS);
+      }
+    } catch (final Throwable e) {
+      future.completeExceptionally(e);
+    }
+  }
+
+  private <V> CompletableFuture<V> thenIfCompleted(final String jobIdUrl, final long maxWait,
+    final Function<CpfClient, V> action) {
+    return isJobCompleted(jobIdUrl, maxWait).thenApplyAsync(completed -> {
+      if (completed) {
+        return action.apply(this.client);
+      } else {
+        throw new IllegalStateException("Job results have not yet been created");
+      }
+    }, this.executor);
+  }
+}
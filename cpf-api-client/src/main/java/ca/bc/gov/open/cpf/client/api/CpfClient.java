@@ -24,6 +24,10 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.annotation.PreDestroy;
 
@@ -99,6 +103,11 @@ import com.revolsys.util.UrlUtil;
  * a .cpf file is provided in the shpz archive.</p>
  */
 public class CpfClient implements BaseCloseable {
+  static boolean isJobStatusCompleted(final Map<String, Object> jobStatusMap) {
+    final String jobStatus = (String)jobStatusMap.get("jobStatus");
+    return "resultsCreated".equals(jobStatus) || "downloadInitiated".equals(jobStatus);
+  }
+
   /** DigestHttpClient using OAuth credentials */
   private CpfHttpClientPool httpClientPool;
 
@@ -122,7 +131,7 @@ public class CpfClient implements BaseCloseable {
    */
   public CpfClient(String url, final String consumerKey, final String consumerSecret) {
     url = url.replaceAll("(/ws)?/*$", "");
-    this.httpClientPool = new CpfHttpClientPool(url, consumerKey, consumerSecret, 1);
+    this.httpClientPool = new CpfHttpClientPool(url, consumerKey, consumerSecret, 10);
   }
 
   private String addIntermediate(String resultUrl, final boolean intermediate) {
@@ -173,7 +182,8 @@ public class CpfClient implements BaseCloseable {
   public void cancelJob(final String jobUrl) {
     final CpfHttpClient httpClient = this.httpClientPool.getClient();
     try {
-      httpClient.postResource(jobUrl + "cancel");
+      final HttpResponse response = httpClient.postResource(jobUrl + "cancel");
+      EntityUtils.consumeQuietly(response.getEntity());
     } catch (final IOException e) {
       throw new RuntimeException("Unable to cancel job " + jobUrl, e);
     } finally {
@@ -908,6 +918,27 @@ public class CpfClient implements BaseCloseable {
     }
   }
 
+  /**
+   * <p>Get a stream of the error results for a job. The error result files are read from the
+   * server as the stream is consumed so only the current record is kept in memory. If the
+   * connection is dropped the download is resumed from the last byte read. See
+   * {@link #getJobErrorResults(String, long)} for the fields in each record.</p>
+   *
+   * <p><b>NOTE: The stream must be closed to release the connection to the server.</b></p>
+   *
+   * <pre class="prettyprint language-java">  try (Stream&lt;Map&lt;String, Object&gt;&gt; errors = client.getJobErrorResultStream(jobId, 2000)) {
+    errors.forEach(System.out::println);
+  }</pre>
+   *
+   * @param jobIdUrl The job id URL.
+   * @param maxWait The maximum number of milliseconds to wait for the job to be completed.
+   * @return The stream of error results.
+   */
+  public Stream<Map<String, Object>> getJobErrorResultStream(final String jobIdUrl,
+    final long maxWait) {
+    return getJobResultStream(jobIdUrl, maxWait, false, "errorResultData");
+  }
+
   /**
    * <p>Get the list of error results for a job using the
    * using the <a href="../rest-api/#ca.bc.gov.open.cpf.api.web.rest.ConcurrentProcessingFramework.getUsersJobsResults">Get Users Job Results</a>  and
@@ -1120,6 +1151,24 @@ public class CpfClient implements BaseCloseable {
     }
   }
 
+  private Stream<Map<String, Object>> getJobResultStream(final String jobIdUrl,
+    final long maxWait, final boolean intermediate, final String expectedResultType) {
+    final List<String> resultUrls = new ArrayList<>();
+    for (final Map<String, Object> resultFile : getJobResultFileList(jobIdUrl, maxWait,
+      intermediate)) {
+      final String resultType = (String)resultFile.get("batchJobResultType");
+      if (expectedResultType.equals(resultType)) {
+        final String resultUrl = addIntermediate((String)resultFile.get("resourceUri"),
+          intermediate);
+        resultUrls.add(resultUrl);
+      }
+    }
+    final JobResultIterator iterator = new JobResultIterator(this.httpClientPool, resultUrls);
+    final Spliterator<Map<String, Object>> spliterator = Spliterators
+      .spliteratorUnknownSize(iterator, Spliterator.ORDERED | Spliterator.NONNULL);
+    return StreamSupport.stream(spliterator, false).onClose(iterator::close);
+  }
+
   /**
    * <p>Get the <a href="../../jobStatus.html">job status</a> using the
    * <a href="../rest-api/#ca.bc.gov.open.cpf.api.web.rest.ConcurrentProcessingFramework.getUsersJobsInfo">Get Users Jobs Info</a> REST API.</p>
@@ -1164,6 +1213,42 @@ public class CpfClient implements BaseCloseable {
     }
   }
 
+  /**
+   * <p>Get a stream of the structured data results for a job. See
+   * {@link #getJobStructuredResultStream(String, long, boolean)}.</p>
+   *
+   * @param jobIdUrl The job id (URL) of the job.
+   * @param maxWait The maximum number of milliseconds to wait for the job to be completed.
+   * @return The stream of results.
+   */
+  public Stream<Map<String, Object>> getJobStructuredResultStream(final String jobIdUrl,
+    final long maxWait) {
+    return getJobStructuredResultStream(jobIdUrl, maxWait, false);
+  }
+
+  /**
+   * <p>Get a stream of the structured data results for a job. The result files are read from the
+   * server as the stream is consumed so only the current record is kept in memory. If the
+   * connection is dropped the download is resumed from the last byte read. Use
+   * {@link Stream#iterator()} to iterate through the results. See
+   * {@link #getJobStructuredResults(String, long, boolean)} for the fields in each record.</p>
+   *
+   * <p><b>NOTE: The stream must be closed to release the connection to the server.</b></p>
+   *
+   * <pre class="prettyprint language-java">  try (Stream&lt;Map&lt;String, Object&gt;&gt; results = client.getJobStructuredResultStream(jobId, 2000, false)) {
+    results.forEach(System.out::println);
+  }</pre>
+   *
+   * @param jobIdUrl The job id (URL) of the job.
+   * @param maxWait The maximum number of milliseconds to wait for the job to be completed.
+   * @param intermediate True if partial results for running jobs should be returned.
+   * @return The stream of results.
+   */
+  public Stream<Map<String, Object>> getJobStructuredResultStream(final String jobIdUrl,
+    final long maxWait, final boolean intermediate) {
+    return getJobResultStream(jobIdUrl, maxWait, intermediate, "structuredResultData");
+  }
+
   /**
    * <p>Get the list of structured data results for a job. See {@link #getJobStructuredResults(String, long, boolean)}.
    *
@@ -1212,7 +1297,8 @@ public class CpfClient implements BaseCloseable {
    *
    * <p><b>NOTE: This method loads all the structured data results into memory. If a larger number of
    * results were generated use the <a href="#ca.bc.gov.open.cpf.client.api.CpfClient.processJobStructuredResults(String,long,ca.bc.gov.open.cpf.client.api.Callback)">processJobErrorResults</a>
-   * method.</b></p>
+   * or <a href="#ca.bc.gov.open.cpf.client.api.CpfClient.getJobStructuredResultStream(String,long,boolean)">getJobStructuredResultStream</a>
+   * methods.</b></p>
    *
    * <p>The following code fragment shows an example of using the API.</p>
    *
@@ -1370,8 +1456,7 @@ public class CpfClient implements BaseCloseable {
       long currentTime = startTime;
       while (currentTime < maxEnd) {
         final Map<String, Object> jobStatusMap = getJobStatus(jobIdUrl);
-        final String jobStatus = (String)jobStatusMap.get("jobStatus");
-        if ("resultsCreated".equals(jobStatus) || "downloadInitiated".equals(jobStatus)) {
+        if (isJobStatusCompleted(jobStatusMap)) {
           return true;
         }
         long sleepTime = ((Number)jobStatusMap.get("secondsToWaitForStatusCheck")).intValue()
@@ -1393,8 +1478,7 @@ public class CpfClient implements BaseCloseable {
       }
     }
     final Map<String, Object> jobStatusMap = getJobStatus(jobIdUrl);
-    final String jobStatus = (String)jobStatusMap.get("jobStatus");
-    return "resultsCreated".equals(jobStatus);
+    return isJobStatusCompleted(jobStatusMap);
   }
 
   /**
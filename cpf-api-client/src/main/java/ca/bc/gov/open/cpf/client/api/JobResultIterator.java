@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.client.api;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import ca.bc.gov.open.cpf.client.httpclient.CpfHttpClient;
+import ca.bc.gov.open.cpf.client.httpclient.CpfHttpClientPool;
+
+import com.revolsys.io.BaseCloseable;
+import com.revolsys.io.map.MapReader;
+
+/**
+ * Iterate through the records in a job's result files, reading one result file at a time from the
+ * server. Only the current record is kept in memory. The HTTP client is held until the iterator
+ * is closed.
+ */
+class JobResultIterator implements Iterator<Map<String, Object>>, BaseCloseable {
+  private CpfHttpClient httpClient;
+
+  private final CpfHttpClientPool httpClientPool;
+
+  private Iterator<? extends Map<String, Object>> recordIterator = Collections.emptyIterator();
+
+  private MapReader reader;
+
+  private final Iterator<String> resultUrlIterator;
+
+  JobResultIterator(final CpfHttpClientPool httpClientPool, final List<String> resultUrls) {
+    this.httpClientPool = httpClientPool;
+    this.httpClient = httpClientPool.getClient();
+    this.resultUrlIterator = resultUrls.iterator();
+  }
+
+  @Override
+  public void close() {
+    closeReader();
+    final CpfHttpClient httpClient = this.httpClient;
+    this.httpClient = null;
+    if (httpClient != null) {
+      this.httpClientPool.releaseClient(httpClient);
+    }
+  }
+
+  private void closeReader() {
+    final MapReader reader = this.reader;
+    this.reader = null;
+    this.recordIterator = Collections.emptyIterator();
+    if (reader != null) {
+      reader.close();
+    }
+  }
+
+  @Override
+  public boolean hasNext() {
+    try {
+      while (!this.recordIterator.hasNext()) {
+        closeReader();
+        if (this.httpClient != null && this.resultUrlIterator.hasNext()) {
+          final String resultUrl = this.resultUrlIterator.next();
+          this.reader = this.httpClient.getMapReader(resultUrl);
+          this.recordIterator = this.reader.iterator();
+        } else {
+          close();
+          return false;
+        }
+      }
+      return true;
+    } catch (final RuntimeException | Error e) {
+      close();
+      throw e;
+    }
+  }
+
+  @Override
+  public Map<String, Object> next() {
+    if (hasNext()) {
+      return this.recordIterator.next();
+    } else {
+      throw new NoSuchElementException();
+    }
+  }
+}
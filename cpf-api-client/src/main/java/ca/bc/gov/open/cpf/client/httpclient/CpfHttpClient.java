@@ -19,7 +19,6 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -31,27 +30,20 @@ import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
-import org.apache.http.auth.AuthScope;
-import org.apache.http.auth.Credentials;
-import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.ResponseHandler;
-import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.client.protocol.HttpClientContext;
 import org.apache.http.client.utils.URIUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClientBuilder;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.protocol.BasicHttpContext;
 import org.apache.http.util.EntityUtils;
 import org.jeometry.common.exception.Exceptions;
 import org.jeometry.common.logging.Logs;
@@ -83,60 +75,27 @@ public class CpfHttpClient {
     return target;
   }
 
-  private BasicHttpContext context;
+  private final HttpClientContext context = HttpClientContext.create();
 
   private final CpfHttpClientPool pool;
 
-  private String webServiceUrl;
+  private final String webServiceUrl;
 
-  private CloseableHttpClient httpClient;
+  private final CloseableHttpClient httpClient;
 
-  public CpfHttpClient(final CpfHttpClientPool pool, final String serviceUrl, final String username,
-    final String password) {
+  /**
+   * Construct a new client using the pool's shared HTTP client. The client has its own context so
+   * that the digest authentication state is cached for the requests made using this client.
+   *
+   * @param pool The pool the client is returned to when closed.
+   * @param httpClient The shared HTTP client.
+   * @param webServiceUrl The base URL of the web services.
+   */
+  public CpfHttpClient(final CpfHttpClientPool pool, final CloseableHttpClient httpClient,
+    final String webServiceUrl) {
     this.pool = pool;
-    try {
-      this.context = new BasicHttpContext();
-
-      final HttpClientBuilder clientBuilder = HttpClients.custom();
-      if (username != null) {
-        final URI uri = new URI(serviceUrl);
-        final String hostName = uri.getHost();
-        int port = uri.getPort();
-
-        final String wsPath = uri.getPath().replaceAll("/+$", "");
-        final String protocol = uri.getScheme();
-        if (port == -1) {
-          this.webServiceUrl = protocol + "://" + hostName + wsPath;
-        } else {
-          this.webServiceUrl = protocol + "://" + hostName + ":" + port + wsPath;
-        }
-        if (port == -1) {
-          if ("https".equals(protocol)) {
-            port = 443;
-          } else {
-            port = 80;
-          }
-        }
-
-        clientBuilder.setDefaultRequestConfig(//
-          RequestConfig.custom() //
-            .setConnectTimeout(5 * 60 * 1000) //
-            .setSocketTimeout(5 * 60 * 1000)
-            .build()//
-        );
-
-        final AuthScope authscope = new AuthScope(hostName, port);
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        final Credentials credentials = new UsernamePasswordCredentials(username, password);
-        credentialsProvider.setCredentials(authscope, credentials);
-        clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
-
-      }
-      this.httpClient = clientBuilder.build();
-
-    } catch (final URISyntaxException e) {
-      throw new IllegalArgumentException("Invalid URL: " + serviceUrl, e);
-    }
+    this.httpClient = httpClient;
+    this.webServiceUrl = webServiceUrl;
   }
 
   public void close() {
@@ -150,6 +109,10 @@ public class CpfHttpClient {
     EntityUtils.consume(entity);
   }
 
+  CloseableHttpResponse execute(final HttpUriRequest request) throws IOException {
+    return this.httpClient.execute(request, this.context);
+  }
+
   public CloseableHttpClient getHttpClient() {
     return this.httpClient;
   }
@@ -204,31 +167,27 @@ public class CpfHttpClient {
     return getMapReader(fileName, url);
   }
 
+  /**
+   * Get a reader for the resource. The resource is downloaded using a
+   * {@link ResumableHttpInputStream} so a dropped connection resumes from the last byte read.
+   *
+   * @param fileName The file name of the resource.
+   * @param url The URL of the resource.
+   * @return The reader.
+   */
   public MapReader getMapReader(final String fileName, final String url) {
     try {
-      final HttpGet request = new HttpGet(url);
-      final HttpResponse response = this.httpClient.execute(request, this.context);
-      final StatusLine statusLine = response.getStatusLine();
-      final int httpStatusCode = statusLine.getStatusCode();
-      final HttpEntity entity = response.getEntity();
-
-      if (httpStatusCode == HttpStatus.SC_OK) {
-        final InputStream in = entity.getContent();
-        final Header contentTypeHeader = entity.getContentType();
-
-        final String contentType = contentTypeHeader.getValue();
-        final MapReaderFactory factory = IoFactory.factoryByMediaType(MapReaderFactory.class,
-          contentType);
-        if (factory == null) {
-          throw new RuntimeException("Unable to read " + contentType);
-        }
-
-        final InputStreamResource resource = new InputStreamResource(fileName, in);
-        return factory.newMapReader(resource);
-      } else {
-        logException(entity, statusLine);
-        throw new HttpStatusCodeException(httpStatusCode, statusLine.getReasonPhrase());
+      final ResumableHttpInputStream in = new ResumableHttpInputStream(this, url);
+      final String contentType = in.getContentType();
+      final MapReaderFactory factory = IoFactory.factoryByMediaType(MapReaderFactory.class,
+        contentType);
+      if (factory == null) {
+        in.close();
+        throw new RuntimeException("Unable to read " + contentType);
       }
+
+      final InputStreamResource resource = new InputStreamResource(fileName, in);
+      return factory.newMapReader(resource);
     } catch (final Throwable e) {
       return Exceptions.throwUncheckedException(e);
     }
@@ -248,7 +207,7 @@ public class CpfHttpClient {
     return this.webServiceUrl + path.replaceAll("/+", "/");
   }
 
-  private void logException(final HttpEntity entity, final StatusLine statusLine) {
+  void logException(final HttpEntity entity, final StatusLine statusLine) {
     if (Logs.isDebugEnabled(this)) {
       try {
         final String errorBody = EntityUtils.toString(entity);
@@ -257,6 +216,7 @@ public class CpfHttpClient {
         Logs.error(this, "Unable to get error message server: " + statusLine + "\n");
       }
     }
+    EntityUtils.consumeQuietly(entity);
   }
 
   public Map<String, Object> postJsonResource(final String url)
@@ -15,18 +15,58 @@
  */
 package ca.bc.gov.open.cpf.client.httpclient;
 
-import java.util.HashSet;
-import java.util.Set;
-
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.jeometry.common.logging.Logs;
+
+/**
+ * A pool of {@link CpfHttpClient}s that share a single HTTP client and connection manager.
+ *
+ * Connections are kept alive and reused across requests, with at most maxConnections open to the
+ * server. Each {@link CpfHttpClient} keeps its own HTTP context which caches the digest
+ * authentication nonce, so once a client has authenticated later requests using that client are
+ * authenticated pre-emptively without a 401 challenge round trip. Released clients are returned to
+ * the pool so the cached authentication state is reused.
+ */
 @SuppressWarnings("javadoc")
 public class CpfHttpClientPool {
 
-  private Set<CpfHttpClient> clients = new HashSet<>();
+  private static final int IDLE_CONNECTION_TIMEOUT = 60;
+
+  private static final int TIMEOUT = 5 * 60 * 1000;
+
+  private static final int VALIDATE_AFTER_INACTIVITY = 2000;
+
+  private String clientWebServiceUrl;
+
+  private boolean closed = false;
+
+  private PoolingHttpClientConnectionManager connectionManager;
 
   private String consumerKey;
 
   private String consumerSecret;
 
+  private CloseableHttpClient httpClient;
+
+  private final Deque<CpfHttpClient> idleClients = new ArrayDeque<>();
+
   private int maxConnections = 10;
 
   private String webServiceUrl;
@@ -43,30 +83,40 @@ public class CpfHttpClientPool {
   }
 
   public void close() {
-    synchronized (this.clients) {
-      for (final CpfHttpClient client : this.clients) {
-        client.close();
+    final CloseableHttpClient httpClient;
+    synchronized (this.idleClients) {
+      this.closed = true;
+      this.idleClients.clear();
+      httpClient = this.httpClient;
+      this.httpClient = null;
+      this.connectionManager = null;
+    }
+    if (httpClient != null) {
+      try {
+        httpClient.close();
+      } catch (final IOException e) {
+        Logs.debug(this, "Error closing HTTP client", e);
       }
-      final Set<CpfHttpClient> oldClients = this.clients;
-      this.clients = null;
-      oldClients.notifyAll();
     }
   }
 
+  /**
+   * Get an idle client from the pool or construct a new client that uses the shared connections.
+   *
+   * @return The client.
+   */
   public CpfHttpClient getClient() {
-    synchronized (this.clients) {
-      while (this.clients != null && this.clients.size() >= this.maxConnections) {
-        try {
-          this.clients.wait();
-        } catch (final InterruptedException e) {
-        }
-      }
-      if (this.clients == null) {
+    synchronized (this.idleClients) {
+      if (this.closed) {
         throw new IllegalStateException("Connection pool closed");
       } else {
-        final CpfHttpClient client = new CpfHttpClient(this, this.webServiceUrl, this.consumerKey,
-          this.consumerSecret);
-        return client;
+        final CpfHttpClient client = this.idleClients.pollFirst();
+        if (client == null) {
+          final CloseableHttpClient httpClient = getHttpClient();
+          return new CpfHttpClient(this, httpClient, this.clientWebServiceUrl);
+        } else {
+          return client;
+        }
       }
     }
   }
@@ -79,6 +129,61 @@ public class CpfHttpClientPool {
     return this.consumerSecret;
   }
 
+  private CloseableHttpClient getHttpClient() {
+    if (this.httpClient == null) {
+      this.connectionManager = new PoolingHttpClientConnectionManager();
+      this.connectionManager.setMaxTotal(this.maxConnections);
+      this.connectionManager.setDefaultMaxPerRoute(this.maxConnections);
+      this.connectionManager.setValidateAfterInactivity(VALIDATE_AFTER_INACTIVITY);
+
+      final HttpClientBuilder clientBuilder = HttpClients.custom()
+        .setConnectionManager(this.connectionManager)
+        .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+        .evictExpiredConnections()
+        .evictIdleConnections(IDLE_CONNECTION_TIMEOUT, TimeUnit.SECONDS)
+        .setDefaultRequestConfig(//
+          RequestConfig.custom() //
+            .setConnectTimeout(TIMEOUT) //
+            .setConnectionRequestTimeout(TIMEOUT) //
+            .setSocketTimeout(TIMEOUT)
+            .build()//
+        );
+      try {
+        final URI uri = new URI(this.webServiceUrl);
+        final String hostName = uri.getHost();
+        int port = uri.getPort();
+
+        final String wsPath = uri.getPath().replaceAll("/+$", "");
+        final String protocol = uri.getScheme();
+        if (port == -1) {
+          this.clientWebServiceUrl = protocol + "://" + hostName + wsPath;
+        } else {
+          this.clientWebServiceUrl = protocol + "://" + hostName + ":" + port + wsPath;
+        }
+        if (this.consumerKey != null) {
+          if (port == -1) {
+            if ("https".equals(protocol)) {
+              port = 443;
+            } else {
+              port = 80;
+            }
+          }
+
+          final AuthScope authscope = new AuthScope(hostName, port);
+          final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+          final Credentials credentials = new UsernamePasswordCredentials(this.consumerKey,
+            this.consumerSecret);
+          credentialsProvider.setCredentials(authscope, credentials);
+          clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+        }
+      } catch (final URISyntaxException e) {
+        throw new IllegalArgumentException("Invalid URL: " + this.webServiceUrl, e);
+      }
+      this.httpClient = clientBuilder.build();
+    }
+    return this.httpClient;
+  }
+
   public int getMaxConnections() {
     return this.maxConnections;
   }
@@ -87,13 +192,17 @@ public class CpfHttpClientPool {
     return this.webServiceUrl;
   }
 
+  /**
+   * Return the client to the pool so that its cached authentication state can be reused.
+   *
+   * @param client The client.
+   */
   public void releaseClient(final CpfHttpClient client) {
-    synchronized (this.clients) {
-      if (client != null) {
-        client.getHttpClient().getConnectionManager().shutdown();
-        if (this.clients != null) {
-          this.clients.remove(client);
-          this.clients.notifyAll();
+    if (client != null) {
+      synchronized (this.idleClients) {
+        if (!this.closed && client.getHttpClient() == this.httpClient
+          && this.idleClients.size() < this.maxConnections) {
+          this.idleClients.addFirst(client);
         }
       }
     }
@@ -108,9 +217,12 @@ public class CpfHttpClientPool {
   }
 
   public void setMaxConnections(final int maxConnections) {
-    synchronized (this.clients) {
+    synchronized (this.idleClients) {
       this.maxConnections = maxConnections;
-      this.clients.notifyAll();
+      if (this.connectionManager != null) {
+        this.connectionManager.setMaxTotal(maxConnections);
+        this.connectionManager.setDefaultMaxPerRoute(maxConnections);
+      }
     }
   }
 
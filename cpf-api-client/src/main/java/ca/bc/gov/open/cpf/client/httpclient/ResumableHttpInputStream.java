@@ -0,0 +1,213 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.client.httpclient;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * An input stream that downloads a resource using a HTTP GET request. If the connection is dropped
+ * while reading, the download is resumed from the last byte read using a ranged request. The
+ * If-Range header ensures the resumed download is from the same version of the resource. The
+ * resource is requested without content encoding so the byte positions are the same for every
+ * request.
+ */
+@SuppressWarnings("javadoc")
+public class ResumableHttpInputStream extends InputStream {
+  private static final int MAX_RETRIES = 3;
+
+  private final CpfHttpClient httpClient;
+
+  private final String url;
+
+  private CloseableHttpResponse response;
+
+  private InputStream in;
+
+  private long position = 0;
+
+  private boolean rangesSupported = false;
+
+  private String etag;
+
+  private String contentType;
+
+  private int retryCount = 0;
+
+  private boolean closed = false;
+
+  public ResumableHttpInputStream(final CpfHttpClient httpClient, final String url)
+    throws IOException {
+    this.httpClient = httpClient;
+    this.url = url;
+    open();
+  }
+
+  @Override
+  public void close() throws IOException {
+    this.closed = true;
+    closeResponse();
+  }
+
+  private void closeResponse() {
+    final CloseableHttpResponse response = this.response;
+    this.response = null;
+    this.in = null;
+    if (response != null) {
+      try {
+        // Closing the response aborts the connection instead of reading the rest of the content
+        response.close();
+      } catch (final IOException e) {
+      }
+    }
+  }
+
+  public String getContentType() {
+    return this.contentType;
+  }
+
+  private String getHeader(final String name) {
+    final Header header = this.response.getFirstHeader(name);
+    if (header == null) {
+      return null;
+    } else {
+      return header.getValue();
+    }
+  }
+
+  private InputStream getInputStream() throws IOException {
+    if (this.closed) {
+      throw new IOException("Stream closed: " + this.url);
+    } else if (this.in == null) {
+      // A previous attempt to resume the download failed
+      resume(new IOException("Unable to resume download of " + this.url));
+    }
+    return this.in;
+  }
+
+  public long getPosition() {
+    return this.position;
+  }
+
+  public String getUrl() {
+    return this.url;
+  }
+
+  private void open() throws IOException {
+    final HttpGet request = new HttpGet(this.url);
+    // A compressed response would be decoded by the client so the position would not match the
+    // byte offsets of the resource used for the Range
+    request.setHeader("Accept-Encoding", "identity");
+    if (this.position > 0) {
+      request.setHeader("Range", "bytes=" + this.position + "-");
+      if (this.etag != null) {
+        request.setHeader("If-Range", this.etag);
+      }
+    }
+    this.response = this.httpClient.execute(request);
+    final StatusLine statusLine = this.response.getStatusLine();
+    final int statusCode = statusLine.getStatusCode();
+    final HttpEntity entity = this.response.getEntity();
+    if (this.position == 0 && statusCode == HttpStatus.SC_OK) {
+      this.rangesSupported = "bytes".equals(getHeader("Accept-Ranges"));
+      this.etag = getHeader("ETag");
+      final Header contentTypeHeader = entity.getContentType();
+      if (contentTypeHeader != null) {
+        this.contentType = contentTypeHeader.getValue();
+      }
+    } else if (this.position > 0 && statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+      final String contentRange = getHeader("Content-Range");
+      if (contentRange == null || !contentRange.startsWith("bytes " + this.position + "-")) {
+        closeResponse();
+        throw new IOException("Unable to resume download of " + this.url
+          + " invalid Content-Range: " + contentRange);
+      }
+    } else if (this.position > 0) {
+      EntityUtils.consumeQuietly(entity);
+      closeResponse();
+      throw new IOException(
+        "Unable to resume download of " + this.url + " at " + this.position + ": " + statusLine);
+    } else {
+      this.httpClient.logException(entity, statusLine);
+      closeResponse();
+      throw new HttpStatusCodeException(statusCode, statusLine.getReasonPhrase());
+    }
+    this.in = entity.getContent();
+  }
+
+  @Override
+  public int read() throws IOException {
+    while (true) {
+      try {
+        final int b = getInputStream().read();
+        if (b != -1) {
+          this.position++;
+          this.retryCount = 0;
+        }
+        return b;
+      } catch (final IOException e) {
+        resume(e);
+      }
+    }
+  }
+
+  @Override
+  public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+    while (true) {
+      try {
+        final int count = getInputStream().read(buffer, offset, length);
+        if (count > 0) {
+          this.position += count;
+          this.retryCount = 0;
+        }
+        return count;
+      } catch (final IOException e) {
+        resume(e);
+      }
+    }
+  }
+
+  /**
+   * Reopen the connection from the current position. A failure to reopen the connection counts as
+   * a retry, the last error is thrown once MAX_RETRIES have failed.
+   */
+  private void resume(final IOException e) throws IOException {
+    closeResponse();
+    IOException error = e;
+    while (true) {
+      if (this.closed || !this.rangesSupported || this.retryCount >= MAX_RETRIES) {
+        throw error;
+      } else {
+        this.retryCount++;
+        try {
+          open();
+          return;
+        } catch (final IOException openError) {
+          closeResponse();
+          error = openError;
+        }
+      }
+    }
+  }
+}
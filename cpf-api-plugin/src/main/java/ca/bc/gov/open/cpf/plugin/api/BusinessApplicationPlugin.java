@@ -37,6 +37,10 @@ import java.lang.annotation.Target;
  * If there are data structures that vary based
  * on the parameters to a request then these can be created within the plug-in.</p>
  *
+ * <p>Plug-ins that are cheap to execute can opt in to instance reuse using
+ * <code>instancePoolSize</code>. See {@link #instancePoolSize()} for the contract the plug-in
+ * must follow.</p>
+ *
  * <p>The following code fragment shows the implementation of a plug-in class using all of the
  * annotation elements.</p>
  *
@@ -103,6 +107,19 @@ public @interface BusinessApplicationPlugin {
    */
   String[] inputDataContentTypes() default {};
 
+  /**
+   * <p>The maximum number of idle instances of the plug-in that a worker will keep for reuse.
+   * The default value of 0 creates a new instance (spring bean) for each request. Set this for
+   * plug-ins that take less time to execute than it takes to create and inject the bean.</p>
+   *
+   * <p>A pooled instance is used by one thread at a time. Before each request all the request
+   * parameters are set again (using the default value for missing parameters). Any other state,
+   * such as the result attributes, must be cleared by the plug-in in an optional
+   * <code>public void reset()</code> method that is called after each request before the instance
+   * is returned to the pool.</p>
+   */
+  int instancePoolSize() default 0;
+
   /**
    * <p>A <a href="http://static.springsource.org/spring-security/site/docs/3.0.x/reference/el-access.html">Spring security expression</a>
    * indicating if a user has permission to submit single request for instant execution.</p>
@@ -157,6 +174,17 @@ public @interface BusinessApplicationPlugin {
   /** <p>The maximum number of requests that a user can submit in a batch job.</p> */
   int maxRequestsPerJob() default Integer.MAX_VALUE;
 
+  /**
+   * <p>The maximum number of requests from an execution group that the worker will execute at
+   * the same time. The default value of 1 executes the requests sequentially. Set this for
+   * plug-ins with large groups (see numRequestsPerWorker) that spend most of their time waiting
+   * on I/O, or so that the tail of a large job can use all the cores on a worker.</p>
+   *
+   * <p>Each concurrent request uses its own plug-in instance. The results are returned in the
+   * same order as the requests.</p>
+   */
+  int maxThreadsPerGroup() default 1;
+
   /**
    * <p>The name of the plug-in in (lower|Upper)CaseCamelNotation (e.g.
    * fibonacciSequence or FibonacciSequence) . Must be a valid Java identifier
@@ -15,6 +15,9 @@
  */
 package ca.bc.gov.open.cpf.plugin.impl;
 
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
@@ -76,6 +79,11 @@ public class BusinessApplication extends BaseObjectWithProperties
 
   private static final Object[] NO_ARGS = new Object[0];
 
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private static final MethodType SETTER_TYPE = MethodType.methodType(void.class, Object.class,
+    Object.class);
+
   public static final String SEQUENCE_NUMBER = "\u039D";
 
   public static String getDefaultFileExtension(final Map<String, ?> fileExtensionMap) {
@@ -103,6 +111,26 @@ public class BusinessApplication extends BaseObjectWithProperties
     return defaultValue;
   }
 
+  /**
+   * Convert the getter or setter to a method handle adapted to the generic type so it can be
+   * invoked without the argument array and access checks of {@link Method#invoke(Object, Object...)}.
+   */
+  private static MethodHandle newMethodHandle(final Method method, final MethodType methodType) {
+    MethodHandle methodHandle;
+    try {
+      methodHandle = MethodHandles.publicLookup().unreflect(method);
+    } catch (final IllegalAccessException e) {
+      // Public method declared in a non-public super class
+      try {
+        method.setAccessible(true);
+        methodHandle = MethodHandles.lookup().unreflect(method);
+      } catch (final IllegalAccessException | RuntimeException e2) {
+        throw new IllegalArgumentException("Cannot access " + method, e2);
+      }
+    }
+    return methodHandle.asType(methodType);
+  }
+
   private String detailedDescription;
 
   private final List<String> resultFieldNames = new ArrayList<>();
@@ -156,6 +184,12 @@ public class BusinessApplication extends BaseObjectWithProperties
 
   private String instantModePermission;
 
+  /**
+   * The maximum number of idle plug-in instances kept for reuse by the module, 0 to create a new
+   * instance for each request.
+   */
+  private int instancePoolSize;
+
   private AppLog log;
 
   private int maxConcurrentRequests;
@@ -166,6 +200,9 @@ public class BusinessApplication extends BaseObjectWithProperties
    */
   private int maxRequestsPerJob = Integer.MAX_VALUE;
 
+  /** The maximum number of requests in a group the worker executes at the same time. */
+  private int maxThreadsPerGroup = 1;
+
   private Module module;
 
   /**
@@ -238,9 +275,13 @@ public class BusinessApplication extends BaseObjectWithProperties
 
   private Method testExecuteMethod;
 
+  private Method resetMethod;
+
   private final Map<String, Method> requestFieldMethodMap = new HashMap<>();
 
-  private final Map<String, Method> resultFieldMethodMap = new HashMap<>();
+  private final Map<String, MethodHandle> requestFieldSetters = new HashMap<>();
+
+  private final Map<String, MethodHandle> resultFieldGetters = new HashMap<>();
 
   public BusinessApplication(final BusinessApplicationPlugin pluginAnnotation, final Module module,
     final String name) {
@@ -416,7 +457,7 @@ public class BusinessApplication extends BaseObjectWithProperties
       this.requestFieldMap.put(index, field);
     }
     this.requestFieldByNameMap.put(fieldName, field);
-    this.requestFieldMethodMap.put(fieldName, method);
+    addSetter(fieldName, method);
   }
 
   public void addResultDataContentType(final String contentType) {
@@ -453,12 +494,32 @@ public class BusinessApplication extends BaseObjectWithProperties
         this.hasGeometryResultAttribute = true;
       }
       this.resultFieldMap.put(index, field);
-      this.resultFieldMethodMap.put(fieldName, method);
+      this.resultFieldGetters.put(fieldName, newMethodHandle(method, GETTER_TYPE));
     }
   }
 
+  /**
+   * Add a setter that isn't a request or job parameter (e.g. setSecurityService) so that
+   * {@link #pluginSetProperty(Object, String, Object)} can avoid bean introspection.
+   */
+  public void addPropertySetter(final String propertyName, final Method method) {
+    if (!this.requestFieldMethodMap.containsKey(propertyName)) {
+      try {
+        addSetter(propertyName, method);
+      } catch (final IllegalArgumentException e) {
+        // Fall back to bean introspection when the property is set
+      }
+    }
+  }
+
+  private void addSetter(final String propertyName, final Method method) {
+    final MethodHandle setter = newMethodHandle(method, SETTER_TYPE);
+    this.requestFieldMethodMap.put(propertyName, method);
+    this.requestFieldSetters.put(propertyName, setter);
+  }
+
   public void addStandardMethod(final String parameterName, final Method method) {
-    this.requestFieldMethodMap.put(parameterName, method);
+    addSetter(parameterName, method);
   }
 
   /**
@@ -580,6 +641,10 @@ public class BusinessApplication extends BaseObjectWithProperties
     return this.internalRequestRecordDefinition;
   }
 
+  public int getInstancePoolSize() {
+    return this.instancePoolSize;
+  }
+
   public AppLog getLog() {
     return this.log;
   }
@@ -596,6 +661,10 @@ public class BusinessApplication extends BaseObjectWithProperties
     return this.maxRequestsPerJob;
   }
 
+  public int getMaxThreadsPerGroup() {
+    return this.maxThreadsPerGroup;
+  }
+
   public Module getModule() {
     return this.module;
   }
@@ -839,12 +908,24 @@ public class BusinessApplication extends BaseObjectWithProperties
   }
 
   public Object pluginGetResultFieldValue(final Object plugin, final String fieldName) {
-    final Method method = this.resultFieldMethodMap.get(fieldName);
-    if (method == null) {
+    final MethodHandle getter = this.resultFieldGetters.get(fieldName);
+    if (getter == null) {
       return null;
     } else {
       try {
-        return method.invoke(plugin, NO_ARGS);
+        return (Object)getter.invokeExact(plugin);
+      } catch (final RuntimeException | Error e) {
+        throw e;
+      } catch (final Throwable t) {
+        throw new RuntimeException("Cannot get " + this.name + "." + fieldName, t);
+      }
+    }
+  }
+
+  public void pluginReset(final Object plugin) {
+    if (this.resetMethod != null) {
+      try {
+        this.resetMethod.invoke(plugin, NO_ARGS);
       } catch (final InvocationTargetException e) {
         final Throwable cause = e.getCause();
         if (cause instanceof RuntimeException) {
@@ -852,10 +933,10 @@ public class BusinessApplication extends BaseObjectWithProperties
         } else if (cause instanceof Error) {
           throw (Error)cause;
         } else {
-          throw new RuntimeException("Cannot get " + this.name + "." + fieldName, cause);
+          throw new RuntimeException("Unable to invoke reset on " + this.name, cause);
         }
       } catch (final Throwable t) {
-        throw new RuntimeException("Cannot get " + this.name + "." + fieldName, t);
+        throw new RuntimeException("Unable to invoke reset on " + this.name, t);
       }
     }
   }
@@ -887,24 +968,46 @@ public class BusinessApplication extends BaseObjectWithProperties
 
   private void pluginSetParameterValue(final Object plugin, final String parameterName,
     final Object parameterValue) throws Error {
-    try {
-      final Method method = this.requestFieldMethodMap.get(parameterName);
-      if (method == null) {
-      } else {
-        method.invoke(plugin, parameterValue);
+    final MethodHandle setter = this.requestFieldSetters.get(parameterName);
+    if (setter != null) {
+      try {
+        setter.invokeExact(plugin, parameterValue);
+      } catch (final ClassCastException e) {
+        throw new IllegalArgumentException(this.name + "." + parameterName + " could not be set",
+          e);
+      } catch (final RuntimeException | Error e) {
+        throw e;
+      } catch (final Throwable t) {
+        throw new IllegalArgumentException(this.name + "." + parameterName + " could not be set",
+          t);
       }
-    } catch (final InvocationTargetException e) {
-      final Throwable cause = e.getCause();
-      if (cause instanceof RuntimeException) {
-        throw (RuntimeException)cause;
-      } else if (cause instanceof Error) {
-        throw (Error)cause;
+    }
+  }
+
+  /**
+   * Set the property on the plug-in using the setter found when the plug-in was loaded.
+   *
+   * @param plugin The plug-in.
+   * @param propertyName The property name.
+   * @param value The value.
+   * @return False if there is no setter or the value isn't an instance of the setter's type and
+   * needs to be converted by the caller.
+   */
+  public boolean pluginSetProperty(final Object plugin, final String propertyName,
+    final Object value) {
+    final Method method = this.requestFieldMethodMap.get(propertyName);
+    if (method == null || value == null) {
+      return false;
+    } else {
+      final Class<?> propertyClass = MethodType.methodType(method.getParameterTypes()[0])
+        .wrap()
+        .returnType();
+      if (propertyClass.isInstance(value)) {
+        pluginSetParameterValue(plugin, propertyName, value);
+        return true;
       } else {
-        throw new IllegalArgumentException(this.name + "." + parameterName + " could not be set",
-          cause);
+        return false;
       }
-    } catch (final Throwable t) {
-      throw new IllegalArgumentException(this.name + "." + parameterName + " could not be set", t);
     }
   }
 
@@ -983,6 +1086,10 @@ public class BusinessApplication extends BaseObjectWithProperties
       .parseExpression(this.instantModePermission);
   }
 
+  public void setInstancePoolSize(final int instancePoolSize) {
+    this.instancePoolSize = Math.max(0, instancePoolSize);
+  }
+
   public void setLogLevel(final String level) {
     this.log.setLogLevel(level);
     final String moduleName = getModuleName();
@@ -1000,6 +1107,10 @@ public class BusinessApplication extends BaseObjectWithProperties
     this.maxRequestsPerJob = maxRequestsPerJob;
   }
 
+  public void setMaxThreadsPerGroup(final int maxThreadsPerGroup) {
+    this.maxThreadsPerGroup = Math.max(1, maxThreadsPerGroup);
+  }
+
   public void setName(final String name) {
     this.name = name;
   }
@@ -1024,6 +1135,10 @@ public class BusinessApplication extends BaseObjectWithProperties
     this.requestFieldMapInitialized = requestFieldMapInitialized;
   }
 
+  public void setResetMethod(final Method resetMethod) {
+    this.resetMethod = resetMethod;
+  }
+
   public void setResultListProperty(final String resultListProperty) {
     this.resultListProperty = resultListProperty;
   }
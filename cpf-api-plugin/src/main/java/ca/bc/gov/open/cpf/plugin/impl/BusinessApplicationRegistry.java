@@ -93,6 +93,8 @@ public final class BusinessApplicationRegistry
 
   private Thread moduleControlThread;
 
+  private ModuleControlProcess moduleControlProcess;
+
   private boolean useModuleControlThread = true;
 
   private String environmentId = "master";
@@ -114,9 +116,8 @@ public final class BusinessApplicationRegistry
     this.useModuleControlThread = useModuleControlThread;
     if (useModuleControlThread) {
       this.moduleControlChannel.writeConnect();
-      final ModuleControlProcess moduleControlProcess = new ModuleControlProcess(this,
-        this.moduleControlChannel);
-      this.moduleControlThread = new Thread(moduleControlProcess, "ModuleControl");
+      this.moduleControlProcess = new ModuleControlProcess(this, this.moduleControlChannel);
+      this.moduleControlThread = new Thread(this.moduleControlProcess, "ModuleControl");
       this.moduleControlThread.setDaemon(true);
       this.moduleControlThread.start();
     }
@@ -183,6 +184,7 @@ public final class BusinessApplicationRegistry
         this.configPropertyLoader = null;
         this.moduleControlChannel = null;
         this.moduleControlThread = null;
+        this.moduleControlProcess = null;
         this.moduleLoaders.clear();
         this.modulesByName.clear();
       }
@@ -460,6 +462,19 @@ public final class BusinessApplicationRegistry
     this.environmentId = environmentId;
   }
 
+  /**
+   * Set the maximum number of modules that are started or stopped at the same time by the module
+   * control thread.
+   *
+   * @param moduleControlThreadCount The number of threads.
+   */
+  public void setModuleControlThreadCount(final int moduleControlThreadCount) {
+    final ModuleControlProcess moduleControlProcess = this.moduleControlProcess;
+    if (moduleControlProcess != null) {
+      moduleControlProcess.setMaxThreads(moduleControlThreadCount);
+    }
+  }
+
   public void setModuleLoaders(final Collection<ModuleLoader> moduleLoaders) {
     this.moduleLoaders = Lists.toArray(moduleLoaders);
   }
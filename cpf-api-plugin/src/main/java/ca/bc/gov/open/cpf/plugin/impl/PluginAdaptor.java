@@ -323,7 +323,7 @@ public class PluginAdaptor {
       if (!INTERNAL_PROPERTY_NAMES.contains(fieldName)) {
         Object value = null;
         try {
-          value = Property.getProperty(resultObject, fieldName);
+          value = this.application.pluginGetResultFieldValue(resultObject, fieldName);
         } catch (final Throwable t) {
           if (!test) {
             throw new IllegalArgumentException(
@@ -453,7 +453,8 @@ public class PluginAdaptor {
       if (field != null) {
         parameterValue = field.toFieldValue(parameterValue);
       }
-      if (parameterValue != null) {
+      if (parameterValue != null
+        && !this.application.pluginSetProperty(this.plugin, parameterName, parameterValue)) {
         BeanUtils.setProperty(this.plugin, parameterName, parameterValue);
       }
       this.parameters.put(parameterName, parameterValue);
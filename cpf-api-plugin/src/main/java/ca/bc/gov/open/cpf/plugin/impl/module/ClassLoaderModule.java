@@ -35,6 +35,9 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
@@ -221,6 +224,10 @@ public class ClassLoaderModule implements Module {
 
   private Map<String, Set<ResourcePermission>> permissionsByGroupName = new HashMap<>();
 
+  /** The idle plug-in instances for business applications with an instancePoolSize. */
+  private final Map<BusinessApplication, BlockingQueue<Object>> pluginPools =
+    new ConcurrentHashMap<>();
+
   private boolean remoteable;
 
   private Date startedDate;
@@ -399,6 +406,13 @@ public class ClassLoaderModule implements Module {
       if (logLevel == null) {
         logLevel = application.getLogLevel();
       }
+      final BlockingQueue<Object> pluginPool = this.pluginPools.get(application);
+      if (pluginPool != null) {
+        final Object plugin = pluginPool.poll();
+        if (plugin != null) {
+          return plugin;
+        }
+      }
       Object plugin;
       final GenericApplicationContext applicationContext = getApplicationContext();
       if (applicationContext == null) {
@@ -549,6 +563,12 @@ public class ClassLoaderModule implements Module {
       final int maxConcurrentRequests = pluginAnnotation.maxConcurrentRequests();
       businessApplication.setMaxConcurrentRequests(maxConcurrentRequests);
 
+      final int maxThreadsPerGroup = pluginAnnotation.maxThreadsPerGroup();
+      businessApplication.setMaxThreadsPerGroup(maxThreadsPerGroup);
+
+      final int instancePoolSize = pluginAnnotation.instancePoolSize();
+      businessApplication.setInstancePoolSize(instancePoolSize);
+
       final String logLevel = pluginAnnotation.logLevel();
       businessApplication.setLogLevel(logLevel);
 
@@ -571,6 +591,8 @@ public class ClassLoaderModule implements Module {
           processExecute(businessApplication, method);
         } else if (methodName.equals("testExecute")) {
           processTestExecute(businessApplication, method);
+        } else if (methodName.equals("reset") && method.getParameterTypes().length == 0) {
+          processReset(businessApplication, method);
         } else {
           processParameter(pluginClass, businessApplication, method);
           processResultAttribute(pluginClass, businessApplication, method, false);
@@ -1401,8 +1423,8 @@ public class ClassLoaderModule implements Module {
             }
             businessApplication.addRequestField(index, field, method);
           }
-        } else {
-
+        } else if (Modifier.isPublic(method.getModifiers())) {
+          businessApplication.addPropertySetter(parameterName, method);
         }
       } else {
         checkStandardMethod(method, standardParameterType);
@@ -1421,6 +1443,15 @@ public class ClassLoaderModule implements Module {
     }
   }
 
+  private void processReset(final BusinessApplication businessApplication, final Method method) {
+    if (method.getReturnType().equals(Void.TYPE) && Modifier.isPublic(method.getModifiers())) {
+      businessApplication.setResetMethod(method);
+    } else {
+      throw new IllegalArgumentException("Business Application " + businessApplication.getName()
+        + " reset method must match public void reset()");
+    }
+  }
+
   private void processResultAttribute(final Class<?> pluginClass,
     final BusinessApplication businessApplication, final Method method, final boolean resultList) {
     final String methodName = method.getName();
@@ -1558,6 +1589,29 @@ public class ClassLoaderModule implements Module {
     }
   }
 
+  /**
+   * Return a plug-in instance obtained from getBusinessApplicationPlugin after the request has
+   * been executed. If the business application has an instancePoolSize the
+   * plug-in is reset and kept for the next request, otherwise it is left for garbage collection.
+   */
+  @Override
+  public void releaseBusinessApplicationPlugin(final BusinessApplication application,
+    final Object plugin) {
+    if (application != null && plugin != null && this.started) {
+      final int instancePoolSize = application.getInstancePoolSize();
+      if (instancePoolSize > 0) {
+        try {
+          application.pluginReset(plugin);
+          final BlockingQueue<Object> pluginPool = this.pluginPools.computeIfAbsent(application,
+            key -> new ArrayBlockingQueue<>(instancePoolSize));
+          pluginPool.offer(plugin);
+        } catch (final Throwable e) {
+          this.log.error("Unable to reset plugin " + application.getName(), e);
+        }
+      }
+    }
+  }
+
   @Override
   public void restart() {
     final BusinessApplicationRegistry businessApplicationRegistry = getBusinessApplicationRegistry();
@@ -1673,6 +1727,7 @@ public class ClassLoaderModule implements Module {
     this.businessApplicationsByName = Collections.emptyMap();
     this.businessApplicationsToBeanNames = Collections.emptyMap();
     this.businessApplicationNames = Collections.emptyList();
+    this.pluginPools.clear();
     this.permissionsByGroupName = null;
     this.groupNamesToDelete = null;
     if (this.businessApplicationRegistry != null) {
@@ -101,6 +101,8 @@ public interface Module {
 
   void loadApplications();
 
+  void releaseBusinessApplicationPlugin(BusinessApplication application, Object plugin);
+
   void restart();
 
   void start();
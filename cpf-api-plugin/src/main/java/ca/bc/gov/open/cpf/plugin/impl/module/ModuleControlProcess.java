@@ -16,16 +16,27 @@
 package ca.bc.gov.open.cpf.plugin.impl.module;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import org.jeometry.common.logging.Logs;
 
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplicationRegistry;
 
+import com.revolsys.parallel.NamedThreadFactory;
 import com.revolsys.parallel.ThreadUtil;
 import com.revolsys.parallel.channel.Channel;
 import com.revolsys.parallel.channel.ClosedException;
 import com.revolsys.parallel.process.AbstractProcess;
 
+/**
+ * Perform the start, restart and stop actions for modules. The actions for different modules are
+ * performed in parallel using up to maxThreads threads. The actions for a module are performed in
+ * the order they were requested.
+ */
 public class ModuleControlProcess extends AbstractProcess {
   private Channel<Map<String, Object>> in;
 
@@ -33,6 +44,14 @@ public class ModuleControlProcess extends AbstractProcess {
 
   private boolean running;
 
+  private int maxThreads = Runtime.getRuntime().availableProcessors();
+
+  private ThreadPoolExecutor executor;
+
+  /** The last action requested for each module, used to order the actions for a module. */
+  private final Map<String, CompletableFuture<Void>> lastActionByModuleName =
+    new ConcurrentHashMap<>();
+
   public ModuleControlProcess(final BusinessApplicationRegistry businessApplicationRegistry,
     final Channel<Map<String, Object>> in) {
     this.businessApplicationRegistry = businessApplicationRegistry;
@@ -40,6 +59,60 @@ public class ModuleControlProcess extends AbstractProcess {
     in.readConnect();
   }
 
+  private void doAction(final BusinessApplicationRegistry businessApplicationRegistry,
+    final Map<String, Object> control) {
+    try {
+      final String moduleName = (String)control.get("moduleName");
+      final String action = (String)control.get("action");
+      final ClassLoaderModule module = (ClassLoaderModule)businessApplicationRegistry
+        .getModule(moduleName);
+      if (module != null) {
+        if ("start".equals(action)) {
+          module.startDo();
+        } else if ("restart".equals(action)) {
+          module.restartDo();
+        } else if ("stop".equals(action)) {
+          module.stopDo();
+        }
+      }
+    } catch (final Throwable t) {
+      Logs.error(this, "Unable to perform module action: " + control, t);
+    }
+  }
+
+  /**
+   * Queue the action to be performed after the previous action for the same module.
+   */
+  private void executeAction(final Map<String, Object> control) {
+    final BusinessApplicationRegistry businessApplicationRegistry = this.businessApplicationRegistry;
+    final String moduleName = (String)control.get("moduleName");
+    final ThreadPoolExecutor executor = getExecutor();
+    final CompletableFuture<Void> action = this.lastActionByModuleName.compute(moduleName,
+      (name, lastAction) -> {
+        final Runnable runnable = () -> doAction(businessApplicationRegistry, control);
+        if (lastAction == null) {
+          return CompletableFuture.runAsync(runnable, executor);
+        } else {
+          return lastAction.thenRunAsync(runnable, executor);
+        }
+      });
+    action.whenComplete((result, e) -> this.lastActionByModuleName.remove(moduleName, action));
+  }
+
+  private synchronized ThreadPoolExecutor getExecutor() {
+    if (this.executor == null) {
+      this.executor = new ThreadPoolExecutor(this.maxThreads, this.maxThreads, 60,
+        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory().setNamePrefix("ModuleControl"));
+      this.executor.allowCoreThreadTimeOut(true);
+    }
+    return this.executor;
+  }
+
+  public int getMaxThreads() {
+    return this.maxThreads;
+  }
+
   @Override
   public void run() {
     this.running = true;
@@ -48,19 +121,7 @@ public class ModuleControlProcess extends AbstractProcess {
         final Map<String, Object> control = this.in.read(5000);
         if (control != null) {
           try {
-            final String moduleName = (String)control.get("moduleName");
-            final String action = (String)control.get("action");
-            final ClassLoaderModule module = (ClassLoaderModule)this.businessApplicationRegistry
-              .getModule(moduleName);
-            if (module != null) {
-              if ("start".equals(action)) {
-                module.startDo();
-              } else if ("restart".equals(action)) {
-                module.restartDo();
-              } else if ("stop".equals(action)) {
-                module.stopDo();
-              }
-            }
+            executeAction(control);
           } catch (final Throwable t) {
             Logs.error(this, "Unable to perform module action: " + control, t);
           }
@@ -74,6 +135,13 @@ public class ModuleControlProcess extends AbstractProcess {
       try {
         this.in.readDisconnect();
       } finally {
+        synchronized (this) {
+          if (this.executor != null) {
+            this.executor.shutdown();
+            this.executor = null;
+          }
+        }
+        this.lastActionByModuleName.clear();
         this.in = null;
         this.businessApplicationRegistry = null;
       }
@@ -85,6 +153,23 @@ public class ModuleControlProcess extends AbstractProcess {
     in.readConnect();
   }
 
+  public synchronized void setMaxThreads(final int maxThreads) {
+    if (maxThreads < 1) {
+      throw new IllegalArgumentException("maxThreads must be > 0 not " + maxThreads);
+    }
+    this.maxThreads = maxThreads;
+    final ThreadPoolExecutor executor = this.executor;
+    if (executor != null) {
+      if (maxThreads > executor.getMaximumPoolSize()) {
+        executor.setMaximumPoolSize(maxThreads);
+        executor.setCorePoolSize(maxThreads);
+      } else {
+        executor.setCorePoolSize(maxThreads);
+        executor.setMaximumPoolSize(maxThreads);
+      }
+    }
+  }
+
   @Override
   public void stop() {
     this.running = false;
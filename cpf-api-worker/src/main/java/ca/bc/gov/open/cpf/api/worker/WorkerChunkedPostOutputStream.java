@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.worker;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.StatusLine;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+
+import com.revolsys.io.FileUtil;
+
+/**
+ * An output stream that posts the data written to it to the master using chunked transfer
+ * encoding while it is being written. The request is executed on another thread that reads the
+ * data from a pipe, so the data is never written to a temporary file.
+ *
+ * Call {@link #finish()} once all the data has been written to complete the request and wait for
+ * the response from the master. Closing the stream without calling finish (e.g. when the group is
+ * cancelled or fails) aborts the request so the master doesn't save partial data.
+ */
+public class WorkerChunkedPostOutputStream extends OutputStream {
+  private static final int BUFFER_SIZE = 65536;
+
+  private boolean closed = false;
+
+  private final PipedOutputStream out;
+
+  private final HttpPost request;
+
+  private final Future<StatusLine> response;
+
+  public WorkerChunkedPostOutputStream(final WorkerHttpClient httpClient,
+    final ExecutorService executor, final String url, final String contentType,
+    final boolean compress) throws IOException {
+    final PipedInputStream in = new PipedInputStream(BUFFER_SIZE);
+    this.out = new PipedOutputStream(in);
+    this.request = new HttpPost(url);
+    HttpEntity entity = new InputStreamEntity(in, -1, ContentType.create(contentType));
+    if (compress) {
+      entity = new GzipCompressingEntity(entity);
+    }
+    this.request.setEntity(entity);
+    this.response = executor.submit(() -> {
+      try (
+        CloseableHttpResponse response = httpClient.execute(this.request)) {
+        return response.getStatusLine();
+      } finally {
+        FileUtil.closeSilent(in);
+      }
+    });
+  }
+
+  /**
+   * Abort the request if {@link #finish()} wasn't called.
+   */
+  @Override
+  public void close() {
+    if (!this.closed) {
+      this.closed = true;
+      this.request.abort();
+      FileUtil.closeSilent(this.out);
+      this.response.cancel(true);
+    }
+  }
+
+  /**
+   * Complete the request and wait for the response from the master.
+   *
+   * @throws IOException If the master did not accept the data.
+   */
+  public void finish() throws IOException {
+    if (!this.closed) {
+      this.closed = true;
+      this.out.close();
+      try {
+        final StatusLine statusLine = this.response.get();
+        if (statusLine.getStatusCode() != 200) {
+          throw new IOException("Data not accepted by server " + statusLine);
+        }
+      } catch (final InterruptedException e) {
+        this.request.abort();
+        throw new IOException("Interrupted waiting for response", e);
+      } catch (final ExecutionException e) {
+        throw new IOException("Unable to post data", e.getCause());
+      }
+    }
+  }
+
+  @Override
+  public void flush() throws IOException {
+    if (!this.closed) {
+      this.out.flush();
+    }
+  }
+
+  @Override
+  public void write(final byte[] bytes, final int offset, final int length) throws IOException {
+    this.out.write(bytes, offset, length);
+  }
+
+  @Override
+  public void write(final int b) throws IOException {
+    this.out.write(b);
+  }
+}
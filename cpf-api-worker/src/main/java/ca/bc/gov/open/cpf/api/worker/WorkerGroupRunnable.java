@@ -15,29 +15,43 @@
  */
 package ca.bc.gov.open.cpf.api.worker;
 
+import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 
 import org.apache.commons.beanutils.BeanUtils;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.StatusLine;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.utils.HttpClientUtils;
+import org.apache.http.entity.BufferedHttpEntity;
 import org.jeometry.common.data.type.DataType;
 import org.jeometry.common.data.type.DataTypes;
+import org.jeometry.common.exception.Exceptions;
 import org.jeometry.common.logging.Logs;
 import org.jeometry.common.math.Randoms;
 import org.springframework.util.StopWatch;
@@ -71,7 +85,7 @@ import com.revolsys.record.schema.RecordDefinitionImpl;
 import com.revolsys.util.Property;
 
 public class WorkerGroupRunnable implements Runnable {
-  private long applicationExecutionTime = 0;
+  private volatile long applicationExecutionTime = 0;
 
   private final long batchJobId;
 
@@ -79,6 +93,8 @@ public class WorkerGroupRunnable implements Runnable {
 
   private final String businessApplicationName;
 
+  private StringWriter errorBuffer;
+
   private File errorFile;
 
   private final RangeSet errorRequests = new RangeSet();
@@ -87,6 +103,9 @@ public class WorkerGroupRunnable implements Runnable {
 
   private final String groupId;
 
+  /** The group input downloaded by the scheduler before the group was started. */
+  private volatile HttpEntity groupInput;
+
   private final MapEx groupIdMap;
 
   private final WorkerHttpClient httpClient;
@@ -124,12 +143,17 @@ public class WorkerGroupRunnable implements Runnable {
       this.logLevel);
   }
 
-  public void addError(final Integer sequenceNumber, final String logPrefix, final String errorCode,
-    final Throwable e) {
+  public synchronized void addError(final Integer sequenceNumber, final String logPrefix,
+    final String errorCode, final Throwable e) {
     this.log.error(logPrefix + errorCode, e);
     if (this.errorWriter == null) {
-      this.errorFile = FileUtil.newTempFile("group-" + this.groupId, "tsv");
-      this.errorWriter = Tsv.plainWriter(this.errorFile);
+      if (this.scheduler.isStreamGroupResults()) {
+        this.errorBuffer = new StringWriter();
+        this.errorWriter = Tsv.plainWriter(this.errorBuffer);
+      } else {
+        this.errorFile = FileUtil.newTempFile("group-" + this.groupId, "tsv");
+        this.errorWriter = Tsv.plainWriter(this.errorFile);
+      }
       this.errorWriter.write("sequenceNumber", "errorCode", "message", "trace");
     }
     String message;
@@ -146,6 +170,41 @@ public class WorkerGroupRunnable implements Runnable {
     this.errorWriter.flush();
   }
 
+  /**
+   * Queue the group results to be sent with the next group lease request if group leasing is
+   * enabled and the results and errors are small enough to include in the request.
+   *
+   * @param groupExecutionTime The time to execute the group.
+   * @param resultFile The file containing the results.
+   * @return True if the group results were queued.
+   */
+  private boolean addGroupResult(final long groupExecutionTime, final File resultFile) {
+    if (this.scheduler.isGroupLease()) {
+      long size = resultFile.length();
+      if (this.errorFile != null) {
+        size += this.errorFile.length();
+      }
+      if (size <= this.scheduler.getMaxBatchedResultSize()) {
+        final MapEx groupResult = new LinkedHashMapEx();
+        groupResult.put("batchJobId", this.batchJobId);
+        groupResult.put("groupId", this.groupId);
+        groupResult.put("groupExecutedTime", groupExecutionTime);
+        groupResult.put("applicationExecutedTime", this.applicationExecutionTime);
+        groupResult.put("completedRequestRange", this.successRequests.toString());
+        groupResult.put("failedRequestRange", this.errorRequests.toString());
+        if (resultFile.exists()) {
+          groupResult.put("results", FileUtil.getString(resultFile));
+        }
+        if (this.errorFile != null) {
+          groupResult.put("errors", FileUtil.getString(this.errorFile));
+        }
+        this.scheduler.addGroupResult(groupResult);
+        return true;
+      }
+    }
+    return false;
+  }
+
   @SuppressWarnings("unchecked")
   private void execute(final TsvWriter resultWriter, final AppLog appLog,
     final Integer requestSequenceNumber, final Object plugin, final MapEx parameters) {
@@ -271,8 +330,14 @@ public class WorkerGroupRunnable implements Runnable {
             parameters.put("inputDataUrl", inputDataUrl);
           }
           if (this.businessApplication.isPerRequestResultData()) {
-            resultFile = FileUtil.newTempFile("app-" + this.businessApplicationName, ".bin");
-            resultData = new FileOutputStream(resultFile);
+            if (this.scheduler.isStreamGroupResults()) {
+              final String resultDataContentType = parameters.getString("resultDataContentType");
+              resultData = this.httpClient.postChunkedResource(
+                getResultDataPath(requestSequenceNumber), resultDataContentType, null, false);
+            } else {
+              resultFile = FileUtil.newTempFile("app-" + this.businessApplicationName, ".bin");
+              resultData = new FileOutputStream(resultFile);
+            }
             parameters.put("resultData", resultData);
           }
           try {
@@ -304,6 +369,7 @@ public class WorkerGroupRunnable implements Runnable {
           } finally {
             FileUtil.closeSilent(resultData);
             FileUtil.deleteDirectory(resultFile);
+            this.module.releaseBusinessApplicationPlugin(this.businessApplication, plugin);
           }
           try {
             if (requestStopWatch.isRunning()) {
@@ -317,19 +383,107 @@ public class WorkerGroupRunnable implements Runnable {
         addError(requestSequenceNumber, "Error processing request", "ERROR_PROCESSING_REQUEST", e);
       }
 
-      if (hasError) {
-        this.errorRequests.add(requestSequenceNumber);
-      } else {
-        this.successRequests.add(requestSequenceNumber);
+      synchronized (this) {
+        if (hasError) {
+          this.errorRequests.add(requestSequenceNumber);
+        } else {
+          this.successRequests.add(requestSequenceNumber);
+        }
       }
     }
     this.applicationExecutionTime = requestStopWatch.getTotalTimeMillis();
   }
 
+  /**
+   * Execute the request writing the results to a buffer so that they can be written to the group
+   * results in request order.
+   *
+   * @return The results for the request as TSV rows.
+   */
+  private String executeRequestBuffered(final RecordDefinition requestRecordDefinition,
+    final MapEx applicationParameters, final MapEx requestParameters) {
+    final StringWriter resultOut = new StringWriter();
+    final TsvWriter resultWriter = Tsv.plainWriter(resultOut);
+    executeRequest(resultWriter, requestRecordDefinition, applicationParameters,
+      requestParameters);
+    resultWriter.flush();
+    return resultOut.toString();
+  }
+
+  /**
+   * Execute the requests read from the group input TSV.
+   *
+   * @return False if the group was cancelled or the module stopped.
+   */
+  private boolean executeRequests(final HttpEntity groupInput, final TsvWriter resultWriter,
+    final Writer resultOut, final RecordDefinition requestRecordDefinition,
+    final MapEx applicationParameters) throws IOException, InterruptedException {
+    try (
+      InputStream requestIn = newDecodedInputStream(groupInput);
+      MapReader requestReader = Tsv.mapReader(requestIn)) {
+      final int maxThreadsPerGroup = this.businessApplication.getMaxThreadsPerGroup();
+      if (maxThreadsPerGroup > 1) {
+        resultWriter.flush();
+        return executeRequestsConcurrently(requestReader, resultOut, requestRecordDefinition,
+          applicationParameters, maxThreadsPerGroup);
+      } else {
+        for (final MapEx requestParameters : requestReader) {
+          if (ThreadUtil.isInterrupted() || !this.module.isStarted()) {
+            return false;
+          }
+          executeRequest(resultWriter, requestRecordDefinition, applicationParameters,
+            requestParameters);
+        }
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Execute up to maxThreadsPerGroup requests at a time using the scheduler's request executor.
+   * The futures are kept in request order and the oldest result is written before another request
+   * is submitted, so the result file is in the same order as the requests.
+   *
+   * @return False if the group was cancelled or the module stopped.
+   */
+  private boolean executeRequestsConcurrently(final MapReader requestReader,
+    final Writer resultOut, final RecordDefinition requestRecordDefinition,
+    final MapEx applicationParameters, final int maxThreadsPerGroup)
+    throws IOException, InterruptedException {
+    final ExecutorService requestExecutor = this.scheduler.getRequestExecutor();
+    final Deque<Future<String>> pendingResults = new ArrayDeque<>();
+    try {
+      for (final MapEx requestParameters : requestReader) {
+        if (ThreadUtil.isInterrupted() || !this.module.isStarted()) {
+          return false;
+        }
+        if (pendingResults.size() >= maxThreadsPerGroup) {
+          writeResult(resultOut, pendingResults.removeFirst());
+        }
+        final Future<String> future = requestExecutor.submit(() -> executeRequestBuffered(
+          requestRecordDefinition, applicationParameters, requestParameters));
+        pendingResults.addLast(future);
+      }
+      while (!pendingResults.isEmpty()) {
+        writeResult(resultOut, pendingResults.removeFirst());
+      }
+      return true;
+    } finally {
+      for (final Future<String> future : pendingResults) {
+        future.cancel(true);
+      }
+    }
+  }
+
   public String getGroupId() {
     return this.groupId;
   }
 
+  private String getGroupPath() {
+    return "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId + "/groups/"
+      + this.groupId;
+  }
+
   protected MapEx getParameters(final BusinessApplication businessApplication,
     final RecordDefinition requestRecordDefinition, final Map<String, Object> applicationParameters,
     final MapEx requestParameters) {
@@ -352,6 +506,111 @@ public class WorkerGroupRunnable implements Runnable {
     return parameters;
   }
 
+  private String getResultDataPath(final int requestSequenceNumber) {
+    return getGroupPath() + "/requests/" + requestSequenceNumber + "/resultData";
+  }
+
+  private InputStream newDecodedInputStream(final HttpEntity entity) throws IOException {
+    final InputStream in = entity.getContent();
+    final Header contentEncoding = entity.getContentEncoding();
+    if (contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.getValue())) {
+      return new GZIPInputStream(in, 8192);
+    } else {
+      return in;
+    }
+  }
+
+  private HttpGet newGroupInputRequest() {
+    final HttpGet groupInputRequest = new HttpGet(this.httpClient.getUrl(getGroupPath(), null));
+    groupInputRequest.addHeader("Accept-Encoding", "gzip");
+    return groupInputRequest;
+  }
+
+  private void postGroupResults(final long groupExecutionTime, final File resultFile)
+    throws IOException {
+    if (this.errorFile != null) {
+      try {
+        final String errorPath = "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId
+          + "/groups/" + this.groupId + "/error";
+        final HttpResponse errorResponse = this.httpClient.postCompressedResource(errorPath,
+          Tsv.MIME_TYPE, this.errorFile, null);
+        try {
+          final StatusLine statusLine = errorResponse.getStatusLine();
+          if (statusLine.getStatusCode() != 200) {
+            this.log.error("Error writing errors:\nresponse=" + statusLine + "\nerror="
+              + FileUtil.getString(this.errorFile));
+            this.scheduler.addFailedGroup(this.groupId);
+          }
+        } finally {
+          HttpClientUtils.closeQuietly(errorResponse);
+        }
+      } finally {
+        FileUtil.delete(this.errorFile);
+        this.errorFile = null;
+      }
+    }
+    if (resultFile.exists()) {
+      final Map<String, Object> parameters = new HashMap<>();
+      parameters.put("groupExecutedTime", groupExecutionTime);
+      parameters.put("applicationExecutedTime", this.applicationExecutionTime);
+      parameters.put("completedRequestRange", this.successRequests.toString());
+      parameters.put("failedRequestRange", this.errorRequests.toString());
+      final String path = "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId
+        + "/groups/" + this.groupId + "/results";
+      final HttpResponse response = this.httpClient.postCompressedResource(path, Tsv.MIME_TYPE,
+        resultFile, parameters);
+      HttpClientUtils.closeQuietly(response);
+    }
+  }
+
+  /**
+   * Post the errors and the completed request ranges for a group whose results were already sent
+   * to the master using the result stream.
+   */
+  private void postStreamedGroupResults(final long groupExecutionTime) {
+    final String groupPath = getGroupPath();
+    final StringWriter errorBuffer = this.errorBuffer;
+    this.errorBuffer = null;
+    if (errorBuffer != null) {
+      final String errors = errorBuffer.toString();
+      final HttpResponse errorResponse = this.httpClient.postResource(groupPath + "/error",
+        Tsv.MIME_TYPE, new ByteArrayInputStream(errors.getBytes(StandardCharsets.UTF_8)));
+      try {
+        final StatusLine statusLine = errorResponse.getStatusLine();
+        if (statusLine.getStatusCode() != 200) {
+          this.log.error("Error writing errors:\nresponse=" + statusLine + "\nerror=" + errors);
+          this.scheduler.addFailedGroup(this.groupId);
+        }
+      } finally {
+        HttpClientUtils.closeQuietly(errorResponse);
+      }
+    }
+    final Map<String, Object> parameters = new HashMap<>();
+    parameters.put("groupExecutedTime", groupExecutionTime);
+    parameters.put("applicationExecutedTime", this.applicationExecutionTime);
+    parameters.put("completedRequestRange", this.successRequests.toString());
+    parameters.put("failedRequestRange", this.errorRequests.toString());
+    parameters.put("resultsStreamed", true);
+    final HttpResponse response = this.httpClient.postResource(groupPath + "/results",
+      Tsv.MIME_TYPE, new ByteArrayInputStream(new byte[0]), parameters);
+    HttpClientUtils.closeQuietly(response);
+  }
+
+  /**
+   * Download the group input into memory so the group can start executing as soon as a thread is
+   * available. If the download fails the input is downloaded again when the group is executed.
+   */
+  public void prefetchGroupInput() throws IOException {
+    try (
+      CloseableHttpResponse groupInputResponse = this.httpClient.execute(newGroupInputRequest())) {
+      this.httpClient.setAcceptedContentEncodings(groupInputResponse);
+      final StatusLine statusLine = groupInputResponse.getStatusLine();
+      if (statusLine.getStatusCode() == 200) {
+        this.groupInput = new BufferedHttpEntity(groupInputResponse.getEntity());
+      }
+    }
+  }
+
   /**
    * <h2>Fields</h2>
    * batchJobId long
@@ -370,7 +629,9 @@ public class WorkerGroupRunnable implements Runnable {
   @Override
   public void run() {
     this.log.info("Start\tGroup Execution\t" + this.groupId);
-    final File resultFile = FileUtil.newTempFile("group-" + this.groupId, ".tsv");
+    boolean groupResultQueued = false;
+    final boolean streamResults = this.scheduler.isStreamGroupResults();
+    File resultFile = null;
     try {
       final StopWatch groupStopWatch = new StopWatch("Group");
       groupStopWatch.start();
@@ -382,9 +643,26 @@ public class WorkerGroupRunnable implements Runnable {
           + this.businessApplicationName + " is not loaded groupId=" + this.groupId);
         this.scheduler.addFailedGroup(this.groupId);
         return;
+      } else if (this.scheduler.isLazyLoadApplications()
+        && !this.scheduler.loadApplications(this.businessApplication.getModule())) {
+        Logs.error(this, "Business application " + this.moduleName + "."
+          + this.businessApplicationName + " plugin beans not loaded groupId=" + this.groupId);
+        this.scheduler.addFailedGroup(this.groupId);
+        return;
       } else {
+        WorkerChunkedPostOutputStream resultStream = null;
+        OutputStream resultFileOut;
+        if (streamResults) {
+          resultStream = this.httpClient.postChunkedResource(getGroupPath() + "/resultStream",
+            Tsv.MIME_TYPE, null, true);
+          resultFileOut = resultStream;
+        } else {
+          resultFile = FileUtil.newTempFile("group-" + this.groupId, ".tsv");
+          resultFileOut = new FileOutputStream(resultFile);
+        }
         try (
-          FileOutputStream resultOut = new FileOutputStream(resultFile);
+          Writer resultOut = new BufferedWriter(
+            new OutputStreamWriter(resultFileOut, StandardCharsets.UTF_8));
           final TsvWriter resultWriter = Tsv.plainWriter(resultOut);) {
           resultWriter.write(this.businessApplication.getResultFieldNames());
           this.businessApplication.setLogLevel(this.logLevel);
@@ -413,25 +691,29 @@ public class WorkerGroupRunnable implements Runnable {
               }
             }
           }
-          final String groupPath = "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId
-            + "/groups/" + this.groupId;
-          try (
-            CloseableHttpResponse groupInputResponse = this.httpClient.execute(groupPath)) {
-            final HttpEntity entity = groupInputResponse.getEntity();
+          final HttpEntity prefetchedInput = this.groupInput;
+          this.groupInput = null;
+          final boolean executed;
+          if (prefetchedInput == null) {
             try (
-              InputStream requestIn = entity.getContent()) {
-              try (
-                MapReader requestReader = Tsv.mapReader(requestIn)) {
-                for (final MapEx requestParameters : requestReader) {
-                  if (ThreadUtil.isInterrupted() || !this.module.isStarted()) {
-                    this.scheduler.addFailedGroup(this.groupId);
-                    return;
-                  }
-                  executeRequest(resultWriter, requestRecordDefinition, applicationParameters,
-                    requestParameters);
-                }
-              }
+              CloseableHttpResponse groupInputResponse = this.httpClient
+                .execute(newGroupInputRequest())) {
+              this.httpClient.setAcceptedContentEncodings(groupInputResponse);
+              executed = executeRequests(groupInputResponse.getEntity(), resultWriter, resultOut,
+                requestRecordDefinition, applicationParameters);
             }
+          } else {
+            executed = executeRequests(prefetchedInput, resultWriter, resultOut,
+              requestRecordDefinition, applicationParameters);
+          }
+          if (!executed) {
+            this.scheduler.addFailedGroup(this.groupId);
+            return;
+          }
+          if (resultStream != null) {
+            resultWriter.flush();
+            resultOut.flush();
+            resultStream.finish();
           }
         }
         if (ThreadUtil.isInterrupted() || !this.module.isStarted()) {
@@ -449,42 +731,14 @@ public class WorkerGroupRunnable implements Runnable {
         final TsvWriter errorWriter = this.errorWriter;
         this.errorWriter = null;
         if (errorWriter != null) {
-          try {
-            errorWriter.close();
-            final String errorPath = "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId
-              + "/groups/" + this.groupId + "/error";
-            final HttpResponse errorResponse = this.httpClient.postResource(errorPath,
-              Tsv.MIME_TYPE, this.errorFile);
-            try {
-              final StatusLine statusLine = errorResponse.getStatusLine();
-              if (statusLine.getStatusCode() != 200) {
-                this.log.error("Error writing errors:\nresponse=" + statusLine + "\nerror="
-                  + FileUtil.getString(this.errorFile));
-                this.scheduler.addFailedGroup(this.groupId);
-              }
-            } finally {
-              HttpClientUtils.closeQuietly(errorResponse);
-            }
-          } finally {
-            FileUtil.delete(this.errorFile);
-            this.errorFile = null;
-          }
+          errorWriter.close();
         }
-        if (resultFile.exists()) {
-          final Map<String, Object> parameters = new HashMap<>();
-          parameters.put("groupExecutedTime", groupExecutionTime);
-          parameters.put("applicationExecutedTime", this.applicationExecutionTime);
-          parameters.put("completedRequestRange", this.successRequests.toString());
-          parameters.put("failedRequestRange", this.errorRequests.toString());
-          final String path = "/worker/workers/" + this.workerId + "/jobs/" + this.batchJobId
-            + "/groups/" + this.groupId + "/results";
-          try (
-            InputStream inputStream = new FileInputStream(resultFile)) {
-            final HttpResponse response = this.httpClient.postResource(path, Tsv.MIME_TYPE,
-              inputStream, parameters);
-            HttpClientUtils.closeQuietly(response);
-
-          }
+        if (streamResults) {
+          postStreamedGroupResults(groupExecutionTime);
+        } else if (addGroupResult(groupExecutionTime, resultFile)) {
+          groupResultQueued = true;
+        } else {
+          postGroupResults(groupExecutionTime, resultFile);
         }
       }
     } catch (final Throwable e) {
@@ -494,7 +748,9 @@ public class WorkerGroupRunnable implements Runnable {
       this.scheduler.addFailedGroup(this.groupId);
     } finally {
       try {
-        this.scheduler.removeExecutingGroupId(this.groupId);
+        if (!groupResultQueued) {
+          this.scheduler.removeExecutingGroupId(this.groupId);
+        }
         this.log.info("End\tGroup execution\t" + this.groupId);
         FileUtil.delete(this.errorFile);
         final TsvWriter errorWriter = this.errorWriter;
@@ -517,20 +773,22 @@ public class WorkerGroupRunnable implements Runnable {
     if (resultData != null) {
       try {
         resultData.flush();
-        FileUtil.closeSilent(resultData);
-        final String resultDataContentType = parameters.getString("resultDataContentType");
-        final String resultDataPath = "/worker/workers/" + this.workerId + "/jobs/"
-          + this.batchJobId + "/groups/" + this.groupId + "/requests/" + requestSequenceNumber
-          + "/resultData";
-
-        final HttpResponse response = this.httpClient.postResource(resultDataPath,
-          resultDataContentType, resultFile);
-
-        final StatusLine status = response.getStatusLine();
-        final int statusCode = status.getStatusCode();
-        if (statusCode != HttpURLConnection.HTTP_OK) {
-          throw new RecoverableException(
-            "Result data not accepted by server " + statusCode + " " + status.getReasonPhrase());
+        if (resultData instanceof WorkerChunkedPostOutputStream) {
+          ((WorkerChunkedPostOutputStream)resultData).finish();
+        } else {
+          FileUtil.closeSilent(resultData);
+          final String resultDataContentType = parameters.getString("resultDataContentType");
+          final String resultDataPath = getResultDataPath(requestSequenceNumber);
+
+          final HttpResponse response = this.httpClient.postResource(resultDataPath,
+            resultDataContentType, resultFile);
+
+          final StatusLine status = response.getStatusLine();
+          final int statusCode = status.getStatusCode();
+          if (statusCode != HttpURLConnection.HTTP_OK) {
+            throw new RecoverableException(
+              "Result data not accepted by server " + statusCode + " " + status.getReasonPhrase());
+          }
         }
       } catch (final Throwable e) {
         this.log.error("Error sending result data", e);
@@ -587,7 +845,8 @@ public class WorkerGroupRunnable implements Runnable {
       if (field != null) {
         parameterValue = field.toFieldValue(parameterValue);
       }
-      if (parameterValue != null) {
+      if (parameterValue != null
+        && !this.businessApplication.pluginSetProperty(plugin, parameterName, parameterValue)) {
         BeanUtils.setProperty(plugin, parameterName, parameterValue);
       }
     } catch (final Throwable t) {
@@ -596,6 +855,16 @@ public class WorkerGroupRunnable implements Runnable {
     }
   }
 
+  private void writeResult(final Writer resultOut, final Future<String> pendingResult)
+    throws IOException, InterruptedException {
+    try {
+      final String result = pendingResult.get();
+      resultOut.write(result);
+    } catch (final ExecutionException e) {
+      Exceptions.throwUncheckedException(e.getCause());
+    }
+  }
+
   private void writeResult(final TsvWriter resultWriter, final Object plugin,
     final MapEx parameters, Map<String, Object> customizationProperties,
     final Integer requestSequenceNumber, final int resultIndex, final boolean test) {
@@ -16,17 +16,24 @@
 package ca.bc.gov.open.cpf.api.worker;
 
 import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ResponseHandler;
+import org.apache.http.client.entity.GzipCompressingEntity;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
@@ -35,6 +42,7 @@ import org.apache.http.client.utils.URIUtils;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.FileEntity;
 import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.protocol.BasicHttpContext;
@@ -48,8 +56,10 @@ import ca.bc.gov.open.cpf.plugin.impl.security.SignatureUtil;
 
 import com.revolsys.collection.map.MapEx;
 import com.revolsys.io.FileUtil;
+import com.revolsys.parallel.NamedThreadFactory;
 import com.revolsys.parallel.ThreadInterruptedException;
 import com.revolsys.parallel.ThreadUtil;
+import com.revolsys.record.io.format.json.Json;
 import com.revolsys.record.io.format.json.JsonParser;
 import com.revolsys.util.Property;
 import com.revolsys.util.UrlUtil;
@@ -117,6 +127,14 @@ public class WorkerHttpClient {
 
   private final String password;
 
+  private boolean compressRequests = true;
+
+  private volatile boolean gzipRequestsAccepted = false;
+
+  /** The threads that send the data for {@link WorkerChunkedPostOutputStream}s. */
+  private final ExecutorService streamExecutor = Executors
+    .newCachedThreadPool(new NamedThreadFactory().setNamePrefix("cpfWorker-stream"));
+
   public WorkerHttpClient(final String webServiceUrl, final String username, final String password,
     final int poolSize) {
     this.webServiceUrl = webServiceUrl;
@@ -132,6 +150,7 @@ public class WorkerHttpClient {
   }
 
   public void close() {
+    this.streamExecutor.shutdownNow();
     this.httpClient.close();
   }
 
@@ -222,6 +241,62 @@ public class WorkerHttpClient {
     });
   }
 
+  /**
+   * Download the resource to the file using a conditional GET (RFC 7232). If the ETag of the
+   * resource matches the etag the file is not written.
+   *
+   * @param path The path of the resource.
+   * @param file The file to write the resource to.
+   * @param etag The ETag of the cached copy of the resource or null if not cached.
+   * @param digest The digest to update with the content as it is downloaded, or null.
+   * @return The ETag of the resource, or null if the master didn't return an ETag.
+   */
+  public String getResource(final String path, final File file, final String etag,
+    final MessageDigest digest) {
+    final String url = getUrl(path, null);
+    final HttpGet request = new HttpGet(url);
+    if (etag != null) {
+      request.addHeader("If-None-Match", etag);
+    }
+    return execute(request, new ResponseHandler<String>() {
+      @Override
+      public String handleResponse(final HttpResponse response) {
+        final StatusLine statusLine = response.getStatusLine();
+        final int httpStatusCode = statusLine.getStatusCode();
+        final HttpEntity entity = response.getEntity();
+        final Header etagHeader = response.getFirstHeader("ETag");
+        if (httpStatusCode == HttpStatus.SC_NOT_MODIFIED) {
+          if (etagHeader == null) {
+            return etag;
+          } else {
+            return etagHeader.getValue();
+          }
+        } else if (httpStatusCode == HttpStatus.SC_OK) {
+          try {
+            InputStream in = entity.getContent();
+            if (digest != null) {
+              in = new DigestInputStream(in, digest);
+            }
+            try {
+              FileUtil.copy(in, file);
+            } finally {
+              FileUtil.closeSilent(in);
+            }
+          } catch (final Throwable e) {
+            Exceptions.throwUncheckedException(e);
+          }
+          if (etagHeader == null) {
+            return null;
+          } else {
+            return etagHeader.getValue();
+          }
+        } else {
+          throw newException(entity, statusLine);
+        }
+      }
+    });
+  }
+
   public String getUrl(final String path, final Map<String, ? extends Object> parameters) {
     final String fullPath = this.webServiceContextPath + path;
     final long time = System.currentTimeMillis();
@@ -248,6 +323,64 @@ public class WorkerHttpClient {
     return getJsonResource(request);
   }
 
+  public MapEx postJsonGetJsonResource(final String path,
+    final Map<String, ? extends Object> parameters, final Map<String, ? extends Object> body) {
+    final String url = getUrl(path, parameters);
+    final HttpPost request = new HttpPost(url);
+    try {
+      final String json = Json.toString(body);
+      final StringEntity entity = new StringEntity(json, ContentType.APPLICATION_JSON);
+      request.setEntity(entity);
+      return getJsonResource(request);
+    } catch (final Throwable e) {
+      request.abort();
+      return Exceptions.throwUncheckedException(e);
+    }
+  }
+
+  /**
+   * Post the file, gzip compressing the content if compression is enabled and the master has
+   * accepted gzip request content.
+   *
+   * @see #setAcceptedContentEncodings(HttpResponse)
+   */
+  public HttpResponse postCompressedResource(final String path, final String contentType,
+    final File file, final Map<String, Object> parameters) {
+    final String url = getUrl(path, parameters);
+    try {
+      final HttpPost request = new HttpPost(url);
+      HttpEntity entity = new FileEntity(file, ContentType.create(contentType));
+      if (this.compressRequests && this.gzipRequestsAccepted) {
+        entity = new GzipCompressingEntity(entity);
+      }
+      request.setEntity(entity);
+
+      final BasicHttpContext context = new BasicHttpContext();
+
+      final HttpResponse response = this.httpClient.execute(request, context);
+      return response;
+    } catch (final Throwable e) {
+      return Exceptions.throwUncheckedException(e);
+    }
+  }
+
+  /**
+   * Start a chunked post of the data written to the returned stream. If allowCompression is true
+   * the data is gzip compressed if compression is enabled and the master has accepted gzip request
+   * content.
+   *
+   * @see WorkerChunkedPostOutputStream
+   */
+  public WorkerChunkedPostOutputStream postChunkedResource(final String path,
+    final String contentType, final Map<String, Object> parameters,
+    final boolean allowCompression) throws IOException {
+    final String url = getUrl(path, parameters);
+    final boolean compress = allowCompression && this.compressRequests
+      && this.gzipRequestsAccepted;
+    return new WorkerChunkedPostOutputStream(this, this.streamExecutor, url, contentType,
+      compress);
+  }
+
   public HttpResponse postResource(final String path, final String contentType, final File file) {
     final String url = getUrl(path, null);
     try {
@@ -285,4 +418,22 @@ public class WorkerHttpClient {
       return Exceptions.throwUncheckedException(e);
     }
   }
+
+  /**
+   * Record if the master accepts gzip compressed request content from the Accept-Encoding header
+   * of a response (RFC 7694).
+   *
+   * @param response The response from the master.
+   */
+  public void setAcceptedContentEncodings(final HttpResponse response) {
+    final Header header = response.getFirstHeader("Accept-Encoding");
+    if (header != null) {
+      final String value = header.getValue();
+      this.gzipRequestsAccepted = value != null && value.toLowerCase().contains("gzip");
+    }
+  }
+
+  public void setCompressRequests(final boolean compressRequests) {
+    this.compressRequests = compressRequests;
+  }
 }
@@ -80,6 +80,8 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
 
   private File tempDir = FileUtil.newTempDirectory("cpf", "jars");
 
+  private WorkerModuleJarCache moduleJarCache;
+
   private boolean running = true;
 
   private final ConfigPropertyLoader configPropertyLoader;
@@ -171,6 +173,19 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     }
   }
 
+  /**
+   * Execute a group pushed from the master. If the group can't be scheduled the master is told so
+   * that it can be rescheduled on another worker.
+   *
+   * @param message The group message.
+   */
+  private void executeGroup(final MapEx message) {
+    final String groupId = message.getString("groupId");
+    if (!this.scheduler.scheduleGroup(message)) {
+      this.scheduler.addFailedGroup(groupId);
+    }
+  }
+
   public BusinessApplicationRegistry getBusinessApplicationRegistry() {
     return this.scheduler.getBusinessApplicationRegistry();
   }
@@ -183,6 +198,21 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     return this.messageSender;
   }
 
+  /**
+   * Get the persistent module jar cache if cpfWorker.moduleJarCacheDirectory is set.
+   *
+   * @return The cache or null if jars are downloaded to a temporary directory.
+   */
+  private synchronized WorkerModuleJarCache getModuleJarCache() {
+    if (this.moduleJarCache == null) {
+      final File directory = this.scheduler.getModuleJarCacheDirectory();
+      if (directory != null) {
+        this.moduleJarCache = new WorkerModuleJarCache(directory);
+      }
+    }
+    return this.moduleJarCache;
+  }
+
   private void initConnection() {
     this.client = ClientManager.createClient();
     final Map<String, Object> config = this.client.getProperties();
@@ -280,6 +310,7 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     } else if (action.equals(ModuleEvent.STOP)) {
       message = newModuleMessage(module, "moduleStopped");
       this.loadedModuleNames.remove(moduleName);
+      this.scheduler.groupCreditsChanged();
     }
     if (message != null) {
       sendMessage(message);
@@ -298,6 +329,43 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     }
   }
 
+  /**
+   * Load the plug-in beans of a module started with lazyLoadApplications before the first group for
+   * the module is executed. If the plug-in beans can't be loaded the error is sent to the master
+   * as moduleStartFailed and the module is unloaded.
+   *
+   * @param module The module.
+   * @return True if the plug-in beans are loaded.
+   */
+  public boolean loadApplications(final Module module) {
+    synchronized (module) {
+      if (!module.isApplicationsLoaded() && module.isStarted()) {
+        final String moduleName = module.getName();
+        MapEx message = null;
+        try {
+          module.loadApplications();
+          final String moduleError = module.getModuleError();
+          if (Property.hasValue(moduleError)) {
+            message = newModuleMessage(module, "moduleStartFailed");
+            message.put("moduleError", moduleError);
+          }
+        } catch (final Throwable e) {
+          final AppLog log = new AppLog(moduleName);
+          log.error("Unable to load plugin beans for module " + moduleName, e);
+          message = newModuleMessage(module, "moduleStartFailed");
+          message.put("moduleError", Exceptions.toString(e));
+        }
+        if (message != null) {
+          this.loadedModuleNames.remove(moduleName);
+          getBusinessApplicationRegistry().unloadModule(module);
+          sendMessage(message);
+          this.scheduler.groupCreditsChanged();
+        }
+      }
+      return module.isApplicationsLoaded();
+    }
+  }
+
   protected void moduleStart(final MapEx message) {
     final String moduleName = (String)message.get("moduleName");
     final Long moduleTime = message.getLong("moduleTime");
@@ -329,10 +397,17 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
           final String jarPath = "/worker/modules/" + moduleName + "/" + moduleTime + "/jar/"
             + jarIndex;
           try {
-            final File jarFile = new File(moduleDir, jarIndex + ".jar");
-            jarFile.deleteOnExit();
             final WorkerHttpClient httpClient = this.scheduler.getHttpClient();
-            httpClient.getResource(jarPath, jarFile);
+            final WorkerModuleJarCache moduleJarCache = getModuleJarCache();
+            final File jarFile;
+            if (moduleJarCache == null) {
+              jarFile = new File(moduleDir, jarIndex + ".jar");
+              jarFile.deleteOnExit();
+              httpClient.getResource(jarPath, jarFile);
+            } else {
+              jarFile = moduleJarCache.getJarFile(httpClient, moduleName, jarIndex, jarPath,
+                moduleDir);
+            }
             if (jarFile.length() > 0) {
               urls.add(FileUtil.toUrl(jarFile));
             } else {
@@ -428,6 +503,8 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
       moduleSecurityChanged(message);
     } else if ("cancelGroup".equals(type)) {
       this.scheduler.cancelGroup(message);
+    } else if ("executeGroup".equals(type)) {
+      executeGroup(message);
     } else {
       final JsonAsyncSender messageSender = getMessageSender();
       messageSender.setResult(message);
@@ -440,6 +517,7 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     this.reconnectDelay = 0;
     this.messageSender.setSession(session);
     Logs.info(this, "Master connected " + this.webSocketUrl);
+    this.scheduler.groupCreditsChanged();
   }
 
   private void reconnectRunnable() {
@@ -488,7 +566,9 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
     MapEx message;
     try {
       module.enable();
-      module.loadApplications();
+      if (!this.scheduler.isLazyLoadApplications()) {
+        module.loadApplications();
+      }
       final String moduleError = module.getModuleError();
       if (Property.hasValue(moduleError)) {
         message = newModuleMessage(module, "moduleStartFailed");
@@ -497,6 +577,7 @@ public class WorkerMessageHandler implements ModuleEventListener, BaseCloseable
       } else {
         this.loadedModuleNames.add(moduleName);
         message = newModuleMessage(module, "moduleStarted");
+        this.scheduler.groupCreditsChanged();
       }
     } catch (final Throwable e) {
       final AppLog log = new AppLog(moduleName);
@@ -0,0 +1,205 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.jeometry.common.exception.Exceptions;
+import org.jeometry.common.logging.Logs;
+
+import com.revolsys.io.FileUtil;
+
+/**
+ * A persistent cache of module jars downloaded from the master. The jars are stored by the
+ * SHA-256 digest returned by the master as the ETag, so a jar that hasn't changed is reused across
+ * module and worker restarts, and the same jar used by several modules is only stored once. The
+ * last ETag for each module jar is stored in a .etag file and sent in a conditional GET (RFC 7232)
+ * so the master only sends the jar if it has changed.
+ *
+ * The directory can be shared by the workers on the same server. Jars are written to a temporary
+ * file and then moved into place. Jars that are no longer referenced by an .etag file and haven't
+ * been used for a day are deleted when the cache is created.
+ */
+public class WorkerModuleJarCache {
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  private static final long MAX_UNUSED_AGE = TimeUnit.DAYS.toMillis(1);
+
+  /**
+   * Get the digest from the ETag if it can be used as a file name.
+   *
+   * @param etag The ETag.
+   * @return The digest or null if the ETag isn't a digest.
+   */
+  private static String getDigest(final String etag) {
+    if (etag == null) {
+      return null;
+    } else {
+      String digest = etag.trim();
+      if (digest.startsWith("W/")) {
+        return null;
+      } else {
+        if (digest.length() > 1 && digest.startsWith("\"") && digest.endsWith("\"")) {
+          digest = digest.substring(1, digest.length() - 1);
+        }
+        if (digest.isEmpty()) {
+          return null;
+        }
+        for (int i = 0; i < digest.length(); i++) {
+          final char c = digest.charAt(i);
+          if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+            return null;
+          }
+        }
+        return digest;
+      }
+    }
+  }
+
+  private static String toHex(final byte[] bytes) {
+    final char[] chars = new char[bytes.length * 2];
+    for (int i = 0; i < bytes.length; i++) {
+      final int value = bytes[i] & 0xff;
+      chars[i * 2] = HEX_DIGITS[value >>> 4];
+      chars[i * 2 + 1] = HEX_DIGITS[value & 0x0f];
+    }
+    return new String(chars);
+  }
+
+  private final File directory;
+
+  public WorkerModuleJarCache(final File directory) {
+    this.directory = directory;
+    directory.mkdirs();
+    deleteUnusedJars();
+  }
+
+  private void deleteUnusedJars() {
+    final File[] files = this.directory.listFiles();
+    if (files != null) {
+      final Set<String> usedJarNames = new HashSet<>();
+      for (final File file : files) {
+        if (file.getName().endsWith(".etag")) {
+          final String digest = getDigest(readEtag(file));
+          if (digest != null) {
+            usedJarNames.add(digest + ".jar");
+          }
+        }
+      }
+      final long minLastModified = System.currentTimeMillis() - MAX_UNUSED_AGE;
+      for (final File file : files) {
+        final String name = file.getName();
+        if (name.endsWith(".jar") || name.endsWith(".download")) {
+          if (!usedJarNames.contains(name) && file.lastModified() < minLastModified) {
+            if (!file.delete()) {
+              Logs.error(this, "Unable to delete unused module jar " + file);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Get the module jar from the cache, downloading it from the master if it isn't cached or the
+   * master has a different version. The SHA-256 digest of a downloaded jar is calculated while it
+   * is downloaded and the jar is discarded if the digest doesn't match the ETag.
+   *
+   * @param httpClient The client used to download the jar.
+   * @param moduleName The module name.
+   * @param jarIndex The index of the jar in the module's class path.
+   * @param jarPath The path of the jar on the master.
+   * @param moduleDir The directory to download the jar to if the master didn't return an ETag.
+   * @return The jar file.
+   */
+  public File getJarFile(final WorkerHttpClient httpClient, final String moduleName,
+    final int jarIndex, final String jarPath, final File moduleDir) {
+    final File etagFile = new File(this.directory, moduleName + "-" + jarIndex + ".etag");
+    String cachedEtag = readEtag(etagFile);
+    final String cachedDigest = getDigest(cachedEtag);
+    if (cachedDigest == null || !getJarFile(cachedDigest).isFile()) {
+      cachedEtag = null;
+    }
+    File downloadFile = null;
+    try {
+      downloadFile = File.createTempFile(moduleName + "-" + jarIndex + "-", ".download",
+        this.directory);
+      final MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+      final String etag = httpClient.getResource(jarPath, downloadFile, cachedEtag,
+        messageDigest);
+      final String digest = getDigest(etag);
+      if (digest == null) {
+        final File jarFile = new File(moduleDir, jarIndex + ".jar");
+        jarFile.deleteOnExit();
+        Files.move(downloadFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        return jarFile;
+      } else {
+        final File jarFile = getJarFile(digest);
+        if (etag.equals(cachedEtag) && downloadFile.length() == 0) {
+          jarFile.setLastModified(System.currentTimeMillis());
+        } else {
+          final String downloadDigest = toHex(messageDigest.digest());
+          if (!downloadDigest.equalsIgnoreCase(digest)) {
+            throw new IOException("Module jar " + jarPath + " has SHA-256 digest " + downloadDigest
+              + " which doesn't match the ETag " + etag);
+          }
+          Files.move(downloadFile.toPath(), jarFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+          Files.write(etagFile.toPath(), etag.getBytes(StandardCharsets.UTF_8));
+        }
+        return jarFile;
+      }
+    } catch (final IOException | NoSuchAlgorithmException e) {
+      return Exceptions.throwUncheckedException(e);
+    } finally {
+      FileUtil.delete(downloadFile);
+    }
+  }
+
+  private File getJarFile(final String digest) {
+    return new File(this.directory, digest + ".jar");
+  }
+
+  private String readEtag(final File etagFile) {
+    if (etagFile.isFile()) {
+      try {
+        return new String(Files.readAllBytes(etagFile.toPath()), StandardCharsets.UTF_8).trim();
+      } catch (final IOException e) {
+        return null;
+      }
+    } else {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    return this.directory.toString();
+  }
+}
@@ -22,15 +22,19 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Properties;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -55,6 +59,7 @@ import ca.bc.gov.open.cpf.plugin.api.log.AppLog;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplication;
 import ca.bc.gov.open.cpf.plugin.impl.BusinessApplicationRegistry;
 import ca.bc.gov.open.cpf.plugin.impl.module.ClassLoaderModule;
+import ca.bc.gov.open.cpf.plugin.impl.module.Module;
 
 import com.revolsys.collection.map.LinkedHashMapEx;
 import com.revolsys.collection.map.MapEx;
@@ -136,9 +141,9 @@ public class WorkerScheduler extends ThreadPoolExecutor
 
   private final long startTime = System.currentTimeMillis();
 
-  private final Map<String, Future<?>> futureTaskByGroupId = new HashMap<>();
+  private final Map<String, Future<?>> futureTaskByGroupId = new ConcurrentHashMap<>();
 
-  private final Map<Future<?>, String> groupIdByFutureTask = new HashMap<>();
+  private final Map<Future<?>, String> groupIdByFutureTask = new ConcurrentHashMap<>();
 
   private ClientManager client;
 
@@ -148,6 +153,44 @@ public class WorkerScheduler extends ThreadPoolExecutor
 
   private WorkerMessageHandler messageHandler = new WorkerMessageHandler(this);
 
+  private boolean pushDispatch = false;
+
+  private boolean groupCreditsChanged = true;
+
+  private boolean groupLease = false;
+
+  private boolean compressGroupResults = true;
+
+  private boolean streamGroupResults = false;
+
+  private String leasePath;
+
+  private long maxBatchedResultSize = 65536;
+
+  private final List<MapEx> groupResults = new ArrayList<>();
+
+  /** True while a group lease request is waiting for groups on the master. */
+  private volatile boolean leasingGroups = false;
+
+  private int maxRequestThreads = Runtime.getRuntime().availableProcessors();
+
+  /** The pool shared by groups that execute their requests concurrently. */
+  private ThreadPoolExecutor requestExecutor;
+
+  private int prefetchGroupCount = 0;
+
+  /** The number of groups that are being or have been prefetched but are not yet executing. */
+  private final AtomicInteger prefetchedGroupCount = new AtomicInteger();
+
+  private final Queue<WorkerGroupRunnable> prefetchedGroups = new ConcurrentLinkedQueue<>();
+
+  /** The pool used to download the input of groups that are waiting for a free thread. */
+  private ThreadPoolExecutor prefetchExecutor;
+
+  private File moduleJarCacheDirectory;
+
+  private boolean lazyLoadApplications = false;
+
   public WorkerScheduler() {
     super(0, 100, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
       new NamedThreadFactory().setNamePrefix("cpfWorker-pool"));
@@ -186,18 +229,56 @@ public class WorkerScheduler extends ThreadPoolExecutor
     }
   }
 
+  public void addGroupCreditsMessage() {
+    final MapEx message = newGroupCreditsMessage();
+    final WorkerMessageHandler messageHandler = this.messageHandler;
+    if (messageHandler != null) {
+      messageHandler.sendMessage(message);
+    }
+  }
+
+  /**
+   * Queue the results of a completed group to be sent to the master with the next group lease
+   * request. If a group lease request is already waiting for groups on the master the results are
+   * sent immediately without leasing any groups.
+   *
+   * @param groupResult The group result.
+   */
+  public void addGroupResult(final MapEx groupResult) {
+    synchronized (this.groupResults) {
+      this.groupResults.add(groupResult);
+    }
+    if (this.leasingGroups) {
+      sendGroupResults();
+    } else {
+      synchronized (this.monitor) {
+        this.monitor.notifyAll();
+      }
+    }
+  }
+
   @SuppressWarnings("rawtypes")
   @Override
   protected void afterExecute(final Runnable runnable, final Throwable e) {
     if (runnable instanceof FutureTask) {
       final FutureTask futureTask = (FutureTask)runnable;
       final String groupId = this.groupIdByFutureTask.remove(futureTask);
-      this.futureTaskByGroupId.remove(groupId);
+      if (groupId != null) {
+        this.futureTaskByGroupId.remove(groupId);
+      }
     }
     this.taskCount.decrementAndGet();
-    synchronized (this.monitor) {
-      this.monitor.notifyAll();
+    if (!this.prefetchedGroups.isEmpty()) {
+      // This thread is still counted by the pool so start the groups from another thread
+      final ThreadPoolExecutor prefetchExecutor = this.prefetchExecutor;
+      if (prefetchExecutor != null) {
+        try {
+          prefetchExecutor.execute(this::startPrefetchedGroups);
+        } catch (final RejectedExecutionException e) {
+        }
+      }
     }
+    groupCreditsChanged();
   }
 
   public void cancelGroup(final MapEx message) {
@@ -226,11 +307,19 @@ public class WorkerScheduler extends ThreadPoolExecutor
     initConfig();
     initLogging();
     try {
+      int connectionPoolSize = getMaximumPoolSize() + 1;
+      if (this.streamGroupResults) {
+        // Each group holds the group input and result stream connections while it executes
+        connectionPoolSize += getMaximumPoolSize() + this.maxRequestThreads;
+      }
+      connectionPoolSize += this.prefetchGroupCount;
       this.httpClient = new WorkerHttpClient(this.webServiceUrl, this.username, this.password,
-        getMaximumPoolSize() + 1);
+        connectionPoolSize);
+      this.httpClient.setCompressRequests(this.compressGroupResults);
 
       final String workerPath = getWorkerPath();
       this.nextIdPath = workerPath + "/jobs/groups/nextId";
+      this.leasePath = workerPath + "/jobs/groups/lease";
     } catch (final Exception e) {
       Logs.error(this, "Error initializing worker", e);
     }
@@ -258,6 +347,18 @@ public class WorkerScheduler extends ThreadPoolExecutor
       this.businessApplicationRegistry.destroy();
     }
     this.businessApplicationRegistry = null;
+    synchronized (this) {
+      if (this.requestExecutor != null) {
+        this.requestExecutor.shutdownNow();
+        this.requestExecutor = null;
+      }
+      if (this.prefetchExecutor != null) {
+        this.prefetchExecutor.shutdownNow();
+        this.prefetchExecutor = null;
+      }
+    }
+    this.prefetchedGroups.clear();
+    this.prefetchedGroupCount.set(0);
     this.futureTaskByGroupId.clear();
     this.groupIdByFutureTask.clear();
 
@@ -265,6 +366,7 @@ public class WorkerScheduler extends ThreadPoolExecutor
       this.client.shutdown();
       this.client = null;
     }
+    sendGroupResults();
     if (this.httpClient != null) {
       this.httpClient.close();
     }
@@ -302,6 +404,17 @@ public class WorkerScheduler extends ThreadPoolExecutor
     return this.appLogDirectory;
   }
 
+  /**
+   * Get the number of groups the worker can accept. This is the number of free threads plus the
+   * number of groups that can be prefetched while waiting for a free thread.
+   *
+   * @return The number of groups.
+   */
+  private int getAvailableGroupCount() {
+    return Math.max(0, getMaximumPoolSize() + this.prefetchGroupCount - this.taskCount.get()
+      - this.prefetchedGroupCount.get());
+  }
+
   public BusinessApplication getBusinessApplication(final AppLog log, final String moduleName,
     final Long moduleTime, final String businessApplicationName) {
     final BusinessApplication businessApplication;
@@ -338,14 +451,54 @@ public class WorkerScheduler extends ThreadPoolExecutor
     return this.id;
   }
 
+  public File getModuleJarCacheDirectory() {
+    return this.moduleJarCacheDirectory;
+  }
+
   public String getPassword() {
     return this.password;
   }
 
+  public long getMaxBatchedResultSize() {
+    return this.maxBatchedResultSize;
+  }
+
+  /**
+   * Get the pool used to download the input of the groups waiting for a free thread. The pool has
+   * at most prefetchGroupCount threads.
+   *
+   * @return The prefetch executor.
+   */
+  private synchronized ThreadPoolExecutor getPrefetchExecutor() {
+    if (this.prefetchExecutor == null) {
+      this.prefetchExecutor = new ThreadPoolExecutor(this.prefetchGroupCount,
+        this.prefetchGroupCount, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory().setNamePrefix("cpfWorker-prefetch"));
+      this.prefetchExecutor.allowCoreThreadTimeOut(true);
+    }
+    return this.prefetchExecutor;
+  }
+
   public int getPriority() {
     return ((NamedThreadFactory)getThreadFactory()).getPriority();
   }
 
+  /**
+   * Get the pool used to execute the requests of a group concurrently. The pool is shared by all
+   * the groups and has at most maxRequestThreads threads.
+   *
+   * @return The request executor.
+   */
+  public synchronized ThreadPoolExecutor getRequestExecutor() {
+    if (this.requestExecutor == null) {
+      this.requestExecutor = new ThreadPoolExecutor(this.maxRequestThreads,
+        this.maxRequestThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+        new NamedThreadFactory().setNamePrefix("cpfWorker-request"));
+      this.requestExecutor.allowCoreThreadTimeOut(true);
+    }
+    return this.requestExecutor;
+  }
+
   public WorkerSecurityServiceFactory getSecurityServiceFactory() {
     return this.securityServiceFactory;
   }
@@ -362,6 +515,17 @@ public class WorkerScheduler extends ThreadPoolExecutor
     return "/worker/workers/" + this.id + "/" + this.startTime;
   }
 
+  /**
+   * Notify the scheduler that the number of free threads or the loaded modules have changed. In
+   * push dispatch mode this causes a new groupCredits message to be sent to the master.
+   */
+  public void groupCreditsChanged() {
+    synchronized (this.monitor) {
+      this.groupCreditsChanged = true;
+      this.monitor.notifyAll();
+    }
+  }
+
   private void initConfig() {
     final Resource configResource = new ClassPathResource("/cpfWorker.json");
     try {
@@ -403,6 +567,8 @@ public class WorkerScheduler extends ThreadPoolExecutor
           key = key.substring(10);
           if ("appLogDirectory".equals(key)) {
             setAppLogDirectory(new File(value.toString()));
+          } else if ("moduleJarCacheDirectory".equals(key)) {
+            setModuleJarCacheDirectory(new File(value.toString()));
           } else {
             Property.setSimple(this, key, value);
           }
@@ -432,10 +598,52 @@ public class WorkerScheduler extends ThreadPoolExecutor
     }
   }
 
+  public boolean isCompressGroupResults() {
+    return this.compressGroupResults;
+  }
+
+  public boolean isGroupLease() {
+    return this.groupLease;
+  }
+
+  public boolean isLazyLoadApplications() {
+    return this.lazyLoadApplications;
+  }
+
+  public boolean isPushDispatch() {
+    return this.pushDispatch;
+  }
+
+  protected boolean isExecutingGroupId(final String groupId) {
+    synchronized (this.executingGroupIds) {
+      return this.executingGroupIds.contains(groupId);
+    }
+  }
+
   public boolean isRunning() {
     return WorkerRunning.isRunning();
   }
 
+  public boolean isStreamGroupResults() {
+    return this.streamGroupResults;
+  }
+
+  /**
+   * Load the plug-in beans of a module started with lazyLoadApplications. Load errors are sent to
+   * the master as moduleStartFailed.
+   *
+   * @param module The module.
+   * @return True if the plug-in beans are loaded.
+   */
+  public boolean loadApplications(final Module module) {
+    final WorkerMessageHandler messageHandler = this.messageHandler;
+    if (messageHandler == null) {
+      return false;
+    } else {
+      return messageHandler.loadApplications(module);
+    }
+  }
+
   public void logError(final String message) {
     Logs.error(this, message);
   }
@@ -457,6 +665,151 @@ public class WorkerScheduler extends ThreadPoolExecutor
     return message;
   }
 
+  /**
+   * Create a message advertising the number of groups this worker can accept. The master
+   * subtracts any groups it has pushed that were not yet included in executingGroupCount.
+   *
+   * @return The message.
+   */
+  protected MapEx newGroupCreditsMessage() {
+    final MapEx message = new LinkedHashMapEx();
+    message.put("type", "groupCredits");
+    message.put("workerId", this.id);
+    final int credits = getAvailableGroupCount();
+    message.put("credits", credits);
+    synchronized (this.executingGroupIds) {
+      message.put("executingGroupCount", this.executingGroupIds.size());
+    }
+    final WorkerMessageHandler messageHandler = this.messageHandler;
+    if (messageHandler == null) {
+      message.put("moduleNames", Collections.emptyList());
+    } else {
+      message.put("moduleNames", new ArrayList<>(messageHandler.getLoadedModuleNames()));
+    }
+    return message;
+  }
+
+  /**
+   * Download the input of a group that is waiting for a free thread and then start any prefetched
+   * groups there are free threads for.
+   *
+   * @param group The group.
+   */
+  private void prefetchGroup(final WorkerGroupRunnable group) {
+    try {
+      group.prefetchGroupInput();
+    } catch (final Throwable e) {
+      if (isRunning()) {
+        Logs.debug(this,
+          "Unable to prefetch input for group " + group.getGroupId() + ": " + e.getMessage());
+      }
+    }
+    this.prefetchedGroups.add(group);
+    startPrefetchedGroups();
+  }
+
+  /**
+   * Send the groupCredits message to the master if the credits have changed and wait until they
+   * change again. The master pushes groups to execute over the web socket.
+   *
+   * @throws InterruptedException If the thread was interrupted.
+   */
+  private void processGroupCredits() throws InterruptedException {
+    final long time = System.currentTimeMillis();
+    final long nextPingTime = this.lastPingTime + this.maxTimeBetweenPings;
+    if (time > nextPingTime) {
+      addExecutingGroupsMessage();
+      groupCreditsChanged();
+    }
+    boolean changed;
+    synchronized (this.monitor) {
+      changed = this.groupCreditsChanged;
+      this.groupCreditsChanged = false;
+    }
+    if (changed && isRunning()) {
+      addGroupCreditsMessage();
+    }
+    synchronized (this.monitor) {
+      if (!this.groupCreditsChanged && isRunning()) {
+        this.monitor.wait(this.maxTimeBetweenPings);
+      }
+    }
+  }
+
+  /**
+   * Send the results of the completed groups, or if there are no results lease up to the number of
+   * free threads execution groups from the master. The results are sent with maxGroups=0 so they
+   * aren't held while the master waits for a group to be available.
+   *
+   * @return True if the request was sent to the master.
+   */
+  private boolean processGroupLease() {
+    final long time = System.currentTimeMillis();
+    final long nextPingTime = this.lastPingTime + this.maxTimeBetweenPings;
+    if (time > nextPingTime) {
+      addExecutingGroupsMessage();
+    }
+    final WorkerMessageHandler messageHandler = this.messageHandler;
+    if (!isRunning() || messageHandler == null) {
+      return false;
+    }
+    final int maxGroups = getAvailableGroupCount();
+    final List<MapEx> groupResults = removeGroupResults();
+    if (maxGroups == 0 && groupResults.isEmpty()) {
+      addExecutingGroupsMessage();
+      return false;
+    }
+    try {
+      final MapEx parameters = new LinkedHashMapEx();
+      parameters.put("moduleName", messageHandler.getLoadedModuleNames());
+      final MapEx body = new LinkedHashMapEx();
+      if (groupResults.isEmpty()) {
+        parameters.put("maxGroups", maxGroups);
+        final MapEx response;
+        this.leasingGroups = true;
+        try {
+          response = this.httpClient.postJsonGetJsonResource(this.leasePath, parameters, body);
+        } finally {
+          this.leasingGroups = false;
+        }
+        if (isRunning() && response != null) {
+          final List<MapEx> groups = response.getValue("groups");
+          if (groups == null || groups.isEmpty()) {
+            Logs.debug(this, "No group available");
+          } else {
+            for (final MapEx group : groups) {
+              if (!scheduleGroup(group)) {
+                addFailedGroup(group.getString("groupId"));
+              }
+            }
+          }
+        }
+      } else {
+        // Don't wait on the master for a group, the groups are leased by the next request
+        parameters.put("maxGroups", 0);
+        body.put("groupResults", groupResults);
+        this.httpClient.postJsonGetJsonResource(this.leasePath, parameters, body);
+        removeExecutingGroupIds(groupResults);
+      }
+      return true;
+    } catch (final Throwable t) {
+      // Retry sending the results with the next request. The master reschedules any group whose
+      // results it couldn't save, so only the groups it rejected are executed again.
+      requeueGroupResults(groupResults);
+      if (Exceptions.isException(t, ConnectException.class)) {
+        return false;
+      } else {
+        addExecutingGroupsMessage();
+        if (t instanceof HttpStatusCodeException
+          && ((HttpStatusCodeException)t).getStatusCode() == 404) {
+        } else {
+          logError("Unable to lease groups", t);
+        }
+      }
+    }
+    return false;
+  }
+
   public boolean processNextTask() {
     final long time = System.currentTimeMillis();
     final long nextPingTime = this.lastPingTime + this.maxTimeBetweenPings;
@@ -466,7 +819,7 @@ public class WorkerScheduler extends ThreadPoolExecutor
     if (!isRunning()) {
       return false;
     }
-    if (this.taskCount.get() >= getMaximumPoolSize()) {
+    if (getAvailableGroupCount() == 0) {
       addExecutingGroupsMessage();
       return false;
     } else {
@@ -492,10 +845,7 @@ public class WorkerScheduler extends ThreadPoolExecutor
               final String groupId = (String)response.get("groupId");
               addExecutingGroupId(groupId);
               try {
-                final Runnable runnable = new WorkerGroupRunnable(this, response);
-                final Future<?> future = submit(runnable);
-                this.futureTaskByGroupId.put(groupId, future);
-                this.groupIdByFutureTask.put(future, groupId);
+                startGroup(new WorkerGroupRunnable(this, response));
               } catch (final Throwable e) {
                 if (isRunning()) {
                   Logs.error(this, "Unable to get execute group " + groupId, e);
@@ -536,20 +886,50 @@ public class WorkerScheduler extends ThreadPoolExecutor
     }
   }
 
+  private void removeExecutingGroupIds(final List<MapEx> groupResults) {
+    for (final MapEx groupResult : groupResults) {
+      removeExecutingGroupId(groupResult.getString("groupId"));
+    }
+  }
+
+  private List<MapEx> removeGroupResults() {
+    synchronized (this.groupResults) {
+      final List<MapEx> groupResults = new ArrayList<>(this.groupResults);
+      this.groupResults.clear();
+      return groupResults;
+    }
+  }
+
+  /**
+   * Put the group results that couldn't be sent back at the start of the queue so they are sent
+   * with the next group lease request.
+   *
+   * @param groupResults The group results.
+   */
+  private void requeueGroupResults(final List<MapEx> groupResults) {
+    if (!groupResults.isEmpty()) {
+      synchronized (this.groupResults) {
+        this.groupResults.addAll(0, groupResults);
+      }
+    }
+  }
+
   @Override
   public void run() {
     Logs.info(this, "Started");
     try {
       while (isRunning()) {
         try {
-          if (processNextTask()) {
+          if (this.pushDispatch) {
+            processGroupCredits();
+          } else if (this.groupLease ? processGroupLease() : processNextTask()) {
             this.timeout = 0;
           } else {
             if (this.timeout < this.maxTimeout) {
               this.timeout += this.timeoutStep;
             }
           }
-          if (isRunning() && this.timeout != 0) {
+          if (isRunning() && this.timeout != 0 && !this.pushDispatch) {
             synchronized (this.monitor) {
               Logs.debug(this, "Waiting " + this.timeout + " seconds before getting next task");
               this.monitor.wait(this.timeout * 1000);
@@ -577,10 +957,7 @@ public class WorkerScheduler extends ThreadPoolExecutor
           final String groupId = group.getString("groupId");
           this.addExecutingGroupId(groupId);
           try {
-            final Runnable runnable = new WorkerGroupRunnable(this, group);
-            final Future<?> future = this.submit(runnable);
-            this.futureTaskByGroupId.put(groupId, future);
-            this.groupIdByFutureTask.put(future, groupId);
+            startGroup(new WorkerGroupRunnable(this, group));
             return true;
           } catch (final Throwable e) {
             if (isRunning()) {
@@ -597,20 +974,85 @@ public class WorkerScheduler extends ThreadPoolExecutor
     return false;
   }
 
+  /**
+   * Send any queued group results to the master without leasing any new groups. If the results
+   * can't be sent they are queued again to be sent with the next group lease request.
+   */
+  private void sendGroupResults() {
+    final List<MapEx> groupResults = removeGroupResults();
+    final WorkerHttpClient httpClient = this.httpClient;
+    if (!groupResults.isEmpty() && httpClient != null) {
+      try {
+        final MapEx parameters = new LinkedHashMapEx();
+        parameters.put("maxGroups", 0);
+        final MapEx body = new LinkedHashMapEx();
+        body.put("groupResults", groupResults);
+        httpClient.postJsonGetJsonResource(this.leasePath, parameters, body);
+        removeExecutingGroupIds(groupResults);
+      } catch (final Throwable e) {
+        Logs.error(this, "Unable to send group results", e);
+        if (isRunning()) {
+          requeueGroupResults(groupResults);
+        }
+      }
+    }
+  }
+
   public void setAppLogDirectory(final File appLogDirectory) {
     this.appLogDirectory = appLogDirectory;
     this.businessApplicationRegistry.setAppLogDirectory(appLogDirectory);
   }
 
+  public void setCompressGroupResults(final boolean compressGroupResults) {
+    this.compressGroupResults = compressGroupResults;
+    final WorkerHttpClient httpClient = this.httpClient;
+    if (httpClient != null) {
+      httpClient.setCompressRequests(compressGroupResults);
+    }
+  }
+
   public void setEnvironmentName(final String environmentName) {
     this.environmentName = environmentName;
   }
 
+  public void setGroupLease(final boolean groupLease) {
+    this.groupLease = groupLease;
+  }
+
+  public void setLazyLoadApplications(final boolean lazyLoadApplications) {
+    this.lazyLoadApplications = lazyLoadApplications;
+  }
+
+  public void setMaxBatchedResultSize(final long maxBatchedResultSize) {
+    this.maxBatchedResultSize = maxBatchedResultSize;
+  }
+
   @Override
   public void setMaximumPoolSize(final int maximumPoolSize) {
     super.setMaximumPoolSize(maximumPoolSize);
   }
 
+  public synchronized void setMaxRequestThreads(final int maxRequestThreads) {
+    if (maxRequestThreads < 1) {
+      throw new IllegalArgumentException("maxRequestThreads must be > 0 not " + maxRequestThreads);
+    }
+    this.maxRequestThreads = maxRequestThreads;
+    final ThreadPoolExecutor requestExecutor = this.requestExecutor;
+    if (requestExecutor != null) {
+      if (maxRequestThreads > requestExecutor.getMaximumPoolSize()) {
+        requestExecutor.setMaximumPoolSize(maxRequestThreads);
+        requestExecutor.setCorePoolSize(maxRequestThreads);
+      } else {
+        requestExecutor.setCorePoolSize(maxRequestThreads);
+        requestExecutor.setMaximumPoolSize(maxRequestThreads);
+      }
+    }
+  }
+
+  public void setModuleJarCacheDirectory(final File moduleJarCacheDirectory) {
+    this.moduleJarCacheDirectory = moduleJarCacheDirectory;
+  }
+
   public void setModuleNames(final List<String> moduleNames) {
     final WorkerMessageHandler messageHandler = this.messageHandler;
     if (messageHandler != null) {
@@ -622,10 +1064,26 @@ public class WorkerScheduler extends ThreadPoolExecutor
     this.password = password;
   }
 
+  public void setPrefetchGroupCount(final int prefetchGroupCount) {
+    if (prefetchGroupCount < 0) {
+      throw new IllegalArgumentException(
+        "prefetchGroupCount must be >= 0 not " + prefetchGroupCount);
+    }
+    this.prefetchGroupCount = prefetchGroupCount;
+  }
+
   public void setPriority(final int priority) {
     ((NamedThreadFactory)getThreadFactory()).setPriority(priority);
   }
 
+  public void setPushDispatch(final boolean pushDispatch) {
+    this.pushDispatch = pushDispatch;
+  }
+
+  public void setStreamGroupResults(final boolean streamGroupResults) {
+    this.streamGroupResults = streamGroupResults;
+  }
+
   public void setUsername(final String username) {
     this.username = username;
   }
@@ -634,6 +1092,74 @@ public class WorkerScheduler extends ThreadPoolExecutor
     this.webServiceUrl = webServiceUrl;
   }
 
+  /**
+   * Start the group if there is a free thread, otherwise download the group's input using the
+   * prefetch executor and start the group when a thread is free.
+   *
+   * @param group The group.
+   */
+  private void startGroup(final WorkerGroupRunnable group) {
+    if (this.prefetchGroupCount > 0 && this.taskCount.get() >= getMaximumPoolSize()) {
+      this.prefetchedGroupCount.incrementAndGet();
+      try {
+        getPrefetchExecutor().execute(() -> prefetchGroup(group));
+      } catch (final RuntimeException e) {
+        this.prefetchedGroupCount.decrementAndGet();
+        throw e;
+      }
+    } else {
+      submitGroup(group);
+    }
+  }
+
+  /**
+   * Start the prefetched groups while there are free threads. Groups that were cancelled while
+   * they were waiting are discarded.
+   */
+  private void startPrefetchedGroups() {
+    synchronized (this.prefetchedGroups) {
+      while (isRunning() && this.taskCount.get() < getMaximumPoolSize()) {
+        final WorkerGroupRunnable group = this.prefetchedGroups.poll();
+        if (group == null) {
+          return;
+        } else {
+          this.prefetchedGroupCount.decrementAndGet();
+          final String groupId = group.getGroupId();
+          if (isExecutingGroupId(groupId)) {
+            try {
+              submitGroup(group);
+            } catch (final Throwable e) {
+              if (isRunning()) {
+                Logs.error(this, "Unable to get execute group " + groupId, e);
+              }
+              removeExecutingGroupId(groupId);
+              addFailedGroup(groupId);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Execute the group. The future is registered before the group is executed so it can be
+   * cancelled and is removed in {@link #afterExecute(Runnable, Throwable)} even if the group
+   * completes before this method returns.
+   */
+  private void submitGroup(final WorkerGroupRunnable group) {
+    final String groupId = group.getGroupId();
+    final FutureTask<Void> future = new FutureTask<>(group, null);
+    this.futureTaskByGroupId.put(groupId, future);
+    this.groupIdByFutureTask.put(future, groupId);
+    try {
+      execute(future);
+    } catch (final RuntimeException e) {
+      this.groupIdByFutureTask.remove(future);
+      this.futureTaskByGroupId.remove(groupId);
+      throw e;
+    }
+  }
+
   @Override
   public String toString() {
     return this.beanName;
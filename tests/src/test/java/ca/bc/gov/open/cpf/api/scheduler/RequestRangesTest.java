@@ -0,0 +1,88 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestRangesTest {
+  private static final String ETAG = "\"1-100\"";
+
+  private static final String LAST_MODIFIED = "Sun, 18 Oct 2026 09:00:00 GMT";
+
+  private static void assertRanges(final List<long[]> ranges, final long... indexes) {
+    Assert.assertNotNull("ranges", ranges);
+    Assert.assertEquals("rangeCount", indexes.length / 2, ranges.size());
+    for (int i = 0; i < ranges.size(); i++) {
+      Assert.assertArrayEquals("range " + i, new long[] {
+        indexes[i * 2], indexes[i * 2 + 1]
+      }, ranges.get(i));
+    }
+  }
+
+  private static List<long[]> getRanges(final String range, final String ifRange) {
+    return BatchJobService.getRequestRanges(range, ifRange, 100, ETAG, LAST_MODIFIED);
+  }
+
+  @Test
+  public void testIfRange() {
+    assertRanges(getRanges("bytes=10-19", ETAG), 10, 19);
+    assertRanges(getRanges("bytes=10-19", LAST_MODIFIED), 10, 19);
+    Assert.assertNull("If-Range changed", getRanges("bytes=10-19", "\"1-200\""));
+  }
+
+  @Test
+  public void testInvalid() {
+    Assert.assertNull("No range", getRanges(null, null));
+    Assert.assertNull("Not bytes", getRanges("items=0-9", null));
+    Assert.assertNull("No indexes", getRanges("bytes=-", null));
+    Assert.assertNull("Last before first", getRanges("bytes=20-10", null));
+    Assert.assertNull("Not a number", getRanges("bytes=a-10", null));
+    Assert.assertNull("Too many ranges",
+      getRanges("bytes=0-0,1-1,2-2,3-3,4-4,5-5,6-6,7-7,8-8,9-9,10-10,11-11,12-12,13-13,"
+        + "14-14,15-15,16-16", null));
+  }
+
+  @Test
+  public void testMultipleRanges() {
+    assertRanges(getRanges("bytes=0-9, 20-29,90-", null), 0, 9, 20, 29, 90, 99);
+    assertRanges(getRanges("bytes=0-9,200-299", null), 0, 9);
+  }
+
+  @Test
+  public void testNotSatisfiable() {
+    assertRanges(getRanges("bytes=100-", null));
+    assertRanges(getRanges("bytes=100-199", null));
+    assertRanges(getRanges("bytes=-0", null));
+    assertRanges(getRanges("bytes=100-199,200-", null));
+  }
+
+  @Test
+  public void testSingleRange() {
+    assertRanges(getRanges("bytes=0-9", null), 0, 9);
+    assertRanges(getRanges("bytes=10-", null), 10, 99);
+    assertRanges(getRanges("bytes=90-199", null), 90, 99);
+  }
+
+  @Test
+  public void testSuffixRange() {
+    assertRanges(getRanges("bytes=-10", null), 90, 99);
+    assertRanges(getRanges("bytes=-100", null), 0, 99);
+    assertRanges(getRanges("bytes=-500", null), 0, 99);
+  }
+}
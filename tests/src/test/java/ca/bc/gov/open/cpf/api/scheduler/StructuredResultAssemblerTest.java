@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StructuredResultAssemblerTest {
+  private final BitSet completedGroups = new BitSet();
+
+  private final List<Integer> appendedGroups = new ArrayList<>();
+
+  private StructuredResultAssembler newAssembler() {
+    return new StructuredResultAssembler("test", this.completedGroups::get,
+      this.appendedGroups::add);
+  }
+
+  private void completeGroup(final StructuredResultAssembler assembler,
+    final int sequenceNumber) {
+    this.completedGroups.set(sequenceNumber);
+    assembler.appendCompletedGroups();
+  }
+
+  @Test
+  public void testAppendFailureClosesAssembler() {
+    final StructuredResultAssembler assembler = new StructuredResultAssembler("test",
+      this.completedGroups::get, sequenceNumber -> {
+        if (sequenceNumber == 2) {
+          throw new IllegalStateException("Unable to read group " + sequenceNumber);
+        }
+        this.appendedGroups.add(sequenceNumber);
+      });
+    completeGroup(assembler, 1);
+    completeGroup(assembler, 2);
+    completeGroup(assembler, 3);
+    Assert.assertEquals(Arrays.asList(1), this.appendedGroups);
+    Assert.assertFalse(assembler.finish(3));
+  }
+
+  @Test
+  public void testAppendInOrder() {
+    final StructuredResultAssembler assembler = newAssembler();
+    completeGroup(assembler, 1);
+    completeGroup(assembler, 2);
+    completeGroup(assembler, 3);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), this.appendedGroups);
+    Assert.assertTrue(assembler.finish(3));
+  }
+
+  @Test
+  public void testAppendOutOfOrder() {
+    final StructuredResultAssembler assembler = newAssembler();
+    completeGroup(assembler, 3);
+    Assert.assertEquals(Arrays.asList(), this.appendedGroups);
+    completeGroup(assembler, 2);
+    Assert.assertEquals(Arrays.asList(), this.appendedGroups);
+    completeGroup(assembler, 1);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), this.appendedGroups);
+    completeGroup(assembler, 5);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), this.appendedGroups);
+    completeGroup(assembler, 4);
+    Assert.assertEquals(Arrays.asList(1, 2, 3, 4, 5), this.appendedGroups);
+    Assert.assertTrue(assembler.finish(5));
+  }
+
+  @Test
+  public void testClosedAssemblerDoesNotAppend() {
+    final StructuredResultAssembler assembler = newAssembler();
+    completeGroup(assembler, 1);
+    assembler.close();
+    completeGroup(assembler, 2);
+    Assert.assertEquals(Arrays.asList(1), this.appendedGroups);
+    Assert.assertFalse(assembler.finish(2));
+  }
+
+  @Test
+  public void testFinishAppendsRemainingGroups() {
+    final StructuredResultAssembler assembler = newAssembler();
+    this.completedGroups.set(1, 4);
+    Assert.assertTrue(assembler.finish(3));
+    Assert.assertEquals(Arrays.asList(1, 2, 3), this.appendedGroups);
+    completeGroup(assembler, 4);
+    Assert.assertEquals(Arrays.asList(1, 2, 3), this.appendedGroups);
+  }
+
+  @Test
+  public void testFinishWithMissingGroup() {
+    final StructuredResultAssembler assembler = newAssembler();
+    completeGroup(assembler, 1);
+    completeGroup(assembler, 3);
+    Assert.assertFalse(assembler.finish(3));
+    Assert.assertEquals(Arrays.asList(1), this.appendedGroups);
+    completeGroup(assembler, 2);
+    Assert.assertEquals(Arrays.asList(1), this.appendedGroups);
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.scheduler;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TailGroupSizesTest {
+  private static void assertGroupSizes(final int requestCount, final int maxGroupSize,
+    final Integer... expectedSizes) {
+    final List<Integer> groupSizes = JobPreProcessTask.getTailGroupSizes(requestCount,
+      maxGroupSize);
+    Assert.assertEquals(requestCount + " requests", Arrays.asList(expectedSizes), groupSizes);
+  }
+
+  @Test
+  public void testGroupSizeLimits() {
+    final int maxGroupSize = 100;
+    final int minGroupSize = maxGroupSize / 4;
+    for (int requestCount = 1; requestCount < maxGroupSize * 2; requestCount++) {
+      final List<Integer> groupSizes = JobPreProcessTask.getTailGroupSizes(requestCount,
+        maxGroupSize);
+      int total = 0;
+      for (int i = 0; i < groupSizes.size(); i++) {
+        final int groupSize = groupSizes.get(i);
+        Assert.assertTrue(requestCount + " max", groupSize <= maxGroupSize);
+        if (requestCount >= minGroupSize) {
+          Assert.assertTrue(requestCount + " min", groupSize >= minGroupSize);
+        }
+        if (i > 0) {
+          Assert.assertTrue(requestCount + " decreasing", groupSize <= groupSizes.get(i - 1));
+        }
+        total += groupSize;
+      }
+      Assert.assertEquals(requestCount + " total", requestCount, total);
+    }
+  }
+
+  @Test
+  public void testHalveRemaining() {
+    assertGroupSizes(100, 100, 50, 25, 25);
+    assertGroupSizes(150, 100, 75, 38, 37);
+    assertGroupSizes(199, 100, 100, 50, 49);
+  }
+
+  @Test
+  public void testSmall() {
+    Assert.assertEquals(Collections.emptyList(), JobPreProcessTask.getTailGroupSizes(0, 100));
+    assertGroupSizes(10, 100, 10);
+    assertGroupSizes(40, 100, 40);
+    assertGroupSizes(3, 1, 1, 1, 1);
+    assertGroupSizes(5, 4, 3, 1, 1);
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2008-2016, Province of British Columbia
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ca.bc.gov.open.cpf.api.web.controller;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.revolsys.io.FileUtil;
+
+public class LocalDirectorySegmentStoreTest {
+  private static final String KEY = "jobs/1/jobResults/1";
+
+  private static final String CONTENT = "0123456789abcdefghij";
+
+  private File directory;
+
+  private LocalDirectorySegmentStore store;
+
+  private void append(final String text) {
+    this.store.appendObject(KEY, "text/plain",
+      new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+  }
+
+  private void assertRange(final long fromIndex, final long toIndex) throws IOException {
+    final int endIndex = (int)Math.min(toIndex + 1, CONTENT.length());
+    final String expected = CONTENT.substring((int)fromIndex, endIndex);
+    Assert.assertEquals(fromIndex + "-" + toIndex, expected,
+      read(this.store.getObject(KEY, fromIndex, toIndex)));
+  }
+
+  private String read(final InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      FileUtil.copy(in, out);
+    } finally {
+      in.close();
+    }
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  @Before
+  public void setUp() {
+    this.directory = FileUtil.newTempDirectory("segments", "");
+    this.store = new LocalDirectorySegmentStore(this.directory);
+    // Segments 0-9, 10-14 and 15-19
+    append(CONTENT.substring(0, 10));
+    append(CONTENT.substring(10, 15));
+    append(CONTENT.substring(15));
+  }
+
+  @After
+  public void tearDown() {
+    FileUtil.deleteDirectory(this.directory);
+  }
+
+  @Test
+  public void testObject() throws IOException {
+    Assert.assertEquals("size", CONTENT.length(), this.store.getObjectSize(KEY));
+    Assert.assertEquals("content", CONTENT, read(this.store.getObject(KEY)));
+    Assert.assertNull("multi-segment file", this.store.getObjectFile(KEY));
+
+    final String singleKey = "jobs/1/jobResults/2";
+    this.store.putObject(singleKey, "text/plain",
+      new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.UTF_8)));
+    final File file = this.store.getObjectFile(singleKey);
+    Assert.assertNotNull("single segment file", file);
+    Assert.assertEquals("single segment file length", CONTENT.length(), file.length());
+  }
+
+  @Test
+  public void testRangeAcrossSegments() throws IOException {
+    assertRange(5, 12);
+    assertRange(8, 17);
+    assertRange(0, 19);
+    assertRange(9, 10);
+    assertRange(14, 15);
+  }
+
+  @Test
+  public void testRangeInSegment() throws IOException {
+    assertRange(0, 9);
+    assertRange(10, 14);
+    assertRange(11, 13);
+    assertRange(15, 19);
+  }
+
+  @Test
+  public void testRangePastEnd() throws IOException {
+    assertRange(12, 100);
+    assertRange(19, 19);
+  }
+
+  @Test
+  public void testSingleByteReads() throws IOException {
+    try (
+      InputStream in = this.store.getObject(KEY, 8, 16)) {
+      final StringBuilder text = new StringBuilder();
+      for (int b = in.read(); b != -1; b = in.read()) {
+        text.append((char)b);
+      }
+      Assert.assertEquals(CONTENT.substring(8, 17), text.toString());
+    }
+  }
+}